@@ -0,0 +1,22 @@
+package lv.lumii.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs the JMH benchmarks, taking the same options as org.openjdk.jmh.Main
+ * (java -jar benchmarks.jar -h), with the GC profiler on unless other profilers
+ * are chosen, so that the results include the allocation rate per operation.
+ * For example, java -jar benchmarks.jar Ner -rf json -rff ner.json
+ */
+public class BenchmarkRunner {
+	public static void main(String[] args) throws Exception {
+		List<String> options = new ArrayList<String>(Arrays.asList(args));
+		if (!options.contains("-prof") && !options.contains("-h") && !options.contains("-l") && !options.contains("-lprof")) {
+			options.add("-prof");
+			options.add("gc");
+		}
+		org.openjdk.jmh.Main.main(options.toArray(new String[options.size()]));
+	}
+}
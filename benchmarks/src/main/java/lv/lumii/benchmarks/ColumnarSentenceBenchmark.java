@@ -0,0 +1,146 @@
+package lv.lumii.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.stanford.nlp.ling.ColumnarSentence;
+import edu.stanford.nlp.ling.CoreAnnotations.AnswerAnnotation;
+import edu.stanford.nlp.ling.CoreAnnotations.DistSimAnnotation;
+import edu.stanford.nlp.ling.CoreAnnotations.GazAnnotation;
+import edu.stanford.nlp.ling.CoreAnnotations.LVFullTagAnnotation;
+import edu.stanford.nlp.ling.CoreAnnotations.LabelAnnotation;
+import edu.stanford.nlp.ling.CoreAnnotations.MorphologyFeatureStringAnnotation;
+import edu.stanford.nlp.ling.CoreAnnotations.NamedEntityTagGoldAnnotation;
+import edu.stanford.nlp.ling.CoreAnnotations.ParentAnnotation;
+import edu.stanford.nlp.ling.CoreAnnotations.ShapeAnnotation;
+import edu.stanford.nlp.ling.CoreLabel;
+
+/**
+ * Annotation lookups in sentences stored as lists of CoreLabels and as {@link ColumnarSentence}s.
+ * The synthetic tokens have the annotations that LVCoNLLDocumentReaderAndWriter sets, with the
+ * strings taken from small vocabularies (as with -intern); the setup prints the memory the token
+ * structures take per token.  The lookups are a mix of present and missing annotations, as a
+ * feature factory makes, over one document of 50 sentences, which stays in the processor cache as
+ * during classification, and over all the sentences.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class ColumnarSentenceBenchmark {
+	private static final int SENTENCES = 20000;
+	private static final String[] TAGS = { "ncmsn1", "ncfsg4", "vmnist330an", "affsnn", "zc", "sppdn", "r0m" };
+
+	@Param({"false", "true"})
+	public boolean columnar;
+
+	private List<List<CoreLabel>> sentences;
+	private List<List<CoreLabel>> document;
+
+	@Setup
+	public void setUp() {
+		long before = usedMemory();
+		sentences = makeSentences(SENTENCES, columnar);
+		long memory = usedMemory() - before;
+		System.err.printf("%s: %.1f bytes per token\n", columnar ? "ColumnarSentence" : "CoreLabel",
+				memory / (SENTENCES * 20.0));
+		document = sentences.subList(0, 50);
+	}
+
+	@Benchmark
+	public int lookupsInDocument() {
+		return lookups(document);
+	}
+
+	@Benchmark
+	public int lookupsInAllSentences() {
+		return lookups(sentences);
+	}
+
+	private static long usedMemory() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 5; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/**
+	 * Sentences of 20 tokens, with the annotations of a CoNLL line with syntax and a gold NER tag.
+	 */
+	private static List<List<CoreLabel>> makeSentences(int count, boolean columnar) {
+		Random random = new Random(1);
+		String[] words = new String[5000];
+		String[] lemmas = new String[words.length];
+		for (int i = 0; i < words.length; i++) {
+			words[i] = "vārds" + i;
+			lemmas[i] = "vārd" + i;
+		}
+		String[] parents = new String[21];
+		for (int i = 0; i < parents.length; i++) {
+			parents[i] = Integer.toString(i);
+		}
+		List<List<CoreLabel>> sentences = new ArrayList<List<CoreLabel>>(count);
+		for (int i = 0; i < count; i++) {
+			ColumnarSentence columns = columnar ? new ColumnarSentence(20) : null;
+			List<CoreLabel> sentence = columnar ? columns : new ArrayList<CoreLabel>(20);
+			for (int j = 0; j < 20; j++) {
+				CoreLabel token = columnar ? columns.addToken() : new CoreLabel();
+				int word = random.nextInt(words.length);
+				String tag = TAGS[random.nextInt(TAGS.length)];
+				token.setIndex(j + 1);
+				token.setWord(words[word]);
+				token.setLemma(lemmas[word]);
+				token.set(LVFullTagAnnotation.class, tag);
+				token.setTag(tag.substring(0, 1).intern());
+				token.set(MorphologyFeatureStringAnnotation.class, "Vārdšķira=Lietvārds|Locījums=Nominatīvs");
+				token.set(ParentAnnotation.class, parents[random.nextInt(parents.length)]);
+				token.set(LabelAnnotation.class, "subj");
+				token.set(NamedEntityTagGoldAnnotation.class, "O");
+				if (!columnar) {
+					sentence.add(token);
+				}
+			}
+			sentences.add(sentence);
+		}
+		return sentences;
+	}
+
+	/**
+	 * Looks up eight annotations of every token; returns a count of what was found, for the
+	 * benchmark to return so that the lookups are not optimized away.
+	 */
+	private static int lookups(List<List<CoreLabel>> sentences) {
+		int found = 0;
+		for (List<CoreLabel> sentence : sentences) {
+			for (int i = 0; i < sentence.size(); i++) {
+				CoreLabel token = sentence.get(i);
+				found += token.word().length();
+				found += token.tag().length();
+				found += token.lemma().length();
+				if (token.get(LVFullTagAnnotation.class) != null) found++;
+				if (token.get(ShapeAnnotation.class) != null) found++;
+				if (token.get(DistSimAnnotation.class) != null) found++;
+				if (token.get(GazAnnotation.class) != null) found++;
+				if (token.get(AnswerAnnotation.class) != null) found++;
+			}
+		}
+		return found;
+	}
+}
@@ -0,0 +1,87 @@
+package lv.lumii.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.sequences.LVCoNLLDocumentReaderAndWriter;
+import edu.stanford.nlp.sequences.SeqClassifierFlags;
+
+/**
+ * The inputs of the benchmarks: the sample.txt and sample_ner.conll files of the tagger,
+ * which the build puts in the jar, and the model and gazetteer names in the tagger jar.
+ */
+public class Fixtures {
+	public static final String MORPHO_MODEL = "models/lv-morpho-model.ser.gz";
+	public static final String NER_MODEL = "models/lv-ner-model.ser.gz";
+	public static final String NER_PROPERTIES = "lv-ner-tagger.prop";
+
+	private static final String SAMPLE_TEXT = "fixtures/sample.txt";
+	private static final String SAMPLE_NER = "fixtures/sample_ner.conll";
+
+	/**
+	 * The non-empty lines of sample.txt, one sentence or paragraph each
+	 */
+	public static List<String> sampleSentences() throws IOException {
+		BufferedReader in = new BufferedReader(open(SAMPLE_TEXT));
+		try {
+			List<String> sentences = new ArrayList<String>();
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (line.trim().length() > 0) sentences.add(line.trim());
+			}
+			return sentences;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * The documents of sample_ner.conll, read as the NER tagger reads CoNLL input
+	 */
+	public static List<List<CoreLabel>> sampleNerDocuments(SeqClassifierFlags flags) throws IOException {
+		LVCoNLLDocumentReaderAndWriter readerWriter = new LVCoNLLDocumentReaderAndWriter();
+		readerWriter.init(flags);
+		Reader in = open(SAMPLE_NER);
+		try {
+			List<List<CoreLabel>> documents = new ArrayList<List<CoreLabel>>();
+			for (Iterator<List<CoreLabel>> it = readerWriter.getIterator(in); it.hasNext(); ) {
+				documents.add(it.next());
+			}
+			return documents;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * The NER tagger configuration (lv-ner-tagger.prop) with the gazetteer lists
+	 */
+	public static Properties nerProperties() throws IOException {
+		Properties props = new Properties();
+		InputStream stream = resource(NER_PROPERTIES);
+		try {
+			props.load(stream);
+		} finally {
+			stream.close();
+		}
+		return props;
+	}
+
+	private static Reader open(String name) throws IOException {
+		return new InputStreamReader(resource(name), "UTF-8");
+	}
+
+	private static InputStream resource(String name) throws IOException {
+		InputStream stream = Fixtures.class.getClassLoader().getResourceAsStream(name);
+		if (stream == null) throw new IOException("Benchmark fixture " + name + " is not on the classpath");
+		return stream;
+	}
+}
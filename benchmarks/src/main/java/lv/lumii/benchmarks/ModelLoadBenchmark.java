@@ -0,0 +1,44 @@
+package lv.lumii.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import lv.semti.morphology.analyzer.Analyzer;
+
+import edu.stanford.nlp.ie.crf.CRFClassifier;
+import edu.stanford.nlp.ie.ner.CMMClassifier;
+
+/**
+ * Start-up costs: loading the morphological tagging and NER models from the classpath, and the
+ * Analyzer lexicon.  Each fork times a single load with no warmup, so that every measurement is
+ * the cold first load in a fresh JVM that the tools pay.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(value = 5, jvmArgsAppend = "-Xmx2g")
+public class ModelLoadBenchmark {
+
+	@Benchmark
+	public Object loadMorphoModel() throws Exception {
+		return CMMClassifier.getClassifier(Fixtures.MORPHO_MODEL);
+	}
+
+	@Benchmark
+	public Object loadNerModel() throws Exception {
+		return CRFClassifier.getClassifier(Fixtures.NER_MODEL);
+	}
+
+	@Benchmark
+	public Object loadAnalyzer() throws Exception {
+		return new Analyzer(false);
+	}
+}
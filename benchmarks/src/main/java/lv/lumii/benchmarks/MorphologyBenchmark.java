@@ -0,0 +1,98 @@
+package lv.lumii.benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import edu.stanford.nlp.ie.ner.CMMClassifier;
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.sequences.LVMorphologyReaderAndWriter;
+
+/**
+ * Morphological tagging of sample.txt, one operation being a pass over all its sentences:
+ * tokenization and Analyzer lookups through LVMorphologyReaderAndWriter.analyzeSentence, the analysis
+ * of the already split tokens (as for CoNLL input), and the CMMClassifier disambiguation of the
+ * analyzed sentences.  Only the split tokens go through the analysis cache (the setup has filled it);
+ * the tokenizer analyzes the words of plain text itself.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class MorphologyBenchmark {
+
+	/** Size of the analysis cache; 0 turns it off */
+	@Param({"0", "50000"})
+	public int cacheSize;
+
+	private List<String> sentences;
+	private List<List<String>> tokens;
+	private List<List<CoreLabel>> analyzed;
+	private CMMClassifier<CoreLabel> cmm;
+
+	@Setup
+	@SuppressWarnings("unchecked")
+	public void setUp() throws IOException, ClassNotFoundException {
+		sentences = Fixtures.sampleSentences();
+		LVMorphologyReaderAndWriter.getAnalyzer();
+		LVMorphologyReaderAndWriter.setAnalysisCacheSize(cacheSize);
+		cmm = CMMClassifier.getClassifier(Fixtures.MORPHO_MODEL);
+		analyzed = new ArrayList<List<CoreLabel>>();
+		tokens = new ArrayList<List<String>>();
+		for (String sentence : sentences) {
+			List<CoreLabel> words = LVMorphologyReaderAndWriter.analyzeSentence(sentence);
+			analyzed.add(words);
+			List<String> split = new ArrayList<String>();
+			for (CoreLabel word : words.subList(1, words.size() - 1)) { // without the <s> markers
+				split.add(word.word());
+			}
+			tokens.add(split);
+			LVMorphologyReaderAndWriter.analyzeSentence(split);
+		}
+	}
+
+	@Benchmark
+	public void analyzeSentence(Blackhole blackhole) {
+		for (String sentence : sentences) {
+			blackhole.consume(LVMorphologyReaderAndWriter.analyzeSentence(sentence));
+		}
+	}
+
+	@Benchmark
+	public void analyzeTokens(Blackhole blackhole) {
+		for (List<String> sentence : tokens) {
+			blackhole.consume(LVMorphologyReaderAndWriter.analyzeSentence(sentence));
+		}
+	}
+
+	/** The classifier only sets the answers of the tokens, so the same sentences can be tagged again */
+	@Benchmark
+	public void cmmClassify(Blackhole blackhole) {
+		for (List<CoreLabel> sentence : analyzed) {
+			blackhole.consume(cmm.classify(sentence));
+		}
+	}
+
+	@Benchmark
+	public void analyzeAndClassify(Blackhole blackhole) {
+		for (String sentence : sentences) {
+			blackhole.consume(cmm.classify(LVMorphologyReaderAndWriter.analyzeSentence(sentence)));
+		}
+	}
+}
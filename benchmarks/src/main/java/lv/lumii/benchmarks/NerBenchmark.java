@@ -0,0 +1,102 @@
+package lv.lumii.benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import edu.stanford.nlp.ie.AbstractSequenceClassifier;
+import edu.stanford.nlp.ie.ListNERSequenceClassifier;
+import edu.stanford.nlp.ie.crf.CRFClassifier;
+import edu.stanford.nlp.ie.regexp.RegexNERSequenceClassifier;
+import edu.stanford.nlp.ling.CoreAnnotations.AnswerAnnotation;
+import edu.stanford.nlp.ling.CoreLabel;
+
+/**
+ * Named entity tagging of sample_ner.conll, one operation being a pass over all its documents:
+ * the CRF feature extraction (NERFeatureFactory features looked up in the feature index),
+ * the CRF inference with classifyMaxEnt, and the gazetteer (ListNER) and regular expression
+ * (RegexNER) classifiers, set up as in NerPipe from lv-ner-tagger.prop.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class NerBenchmark {
+
+	private List<List<CoreLabel>> documents;
+	private CRFClassifier<CoreLabel> crf;
+	private List<AbstractSequenceClassifier<CoreLabel>> lists;
+	private RegexNERSequenceClassifier regex;
+
+	@Setup
+	@SuppressWarnings("unchecked")
+	public void setUp() throws IOException, ClassNotFoundException {
+		crf = CRFClassifier.getClassifier(Fixtures.NER_MODEL);
+		documents = Fixtures.sampleNerDocuments(crf.flags);
+
+		Properties props = Fixtures.nerProperties();
+		lists = new ArrayList<AbstractSequenceClassifier<CoreLabel>>();
+		lists.add(new ListNERSequenceClassifier(props.getProperty("whiteListCasedLemmas"), false, true, true));
+		lists.add(new ListNERSequenceClassifier(props.getProperty("whiteListUncasedWords"), true, false, true));
+		lists.add(new ListNERSequenceClassifier(props.getProperty("whiteListCasedWords"), false, false, true));
+		regex = new RegexNERSequenceClassifier(props.getProperty("regexList"), true, true);
+	}
+
+	@Benchmark
+	public void featureExtraction(Blackhole blackhole) {
+		for (List<CoreLabel> document : documents) {
+			blackhole.consume(crf.documentToDataAndLabels(document));
+		}
+	}
+
+	@Benchmark
+	public void crfClassifyMaxEnt(Blackhole blackhole) {
+		for (List<CoreLabel> document : documents) {
+			blackhole.consume(crf.classifyMaxEnt(document));
+		}
+	}
+
+	@Benchmark
+	public void listNer(Blackhole blackhole) {
+		for (List<CoreLabel> document : documents) {
+			clearAnswers(document);
+			for (AbstractSequenceClassifier<CoreLabel> list : lists) {
+				blackhole.consume(list.classify(document));
+			}
+		}
+	}
+
+	@Benchmark
+	public void regexNer(Blackhole blackhole) {
+		for (List<CoreLabel> document : documents) {
+			clearAnswers(document);
+			blackhole.consume(regex.classify(document));
+		}
+	}
+
+	/**
+	 * The list and regex classifiers don't overwrite the labels they have set, so every pass starts
+	 * from the unlabeled document as read; that costs little next to the matching.
+	 */
+	private static void clearAnswers(List<CoreLabel> document) {
+		for (CoreLabel token : document) {
+			token.remove(AnswerAnnotation.class);
+		}
+	}
+}
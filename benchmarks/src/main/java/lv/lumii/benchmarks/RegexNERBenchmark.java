@@ -0,0 +1,142 @@
+package lv.lumii.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import edu.stanford.nlp.ie.regexp.RegexNERSequenceClassifier;
+import edu.stanford.nlp.ling.CoreAnnotations.AnswerAnnotation;
+import edu.stanford.nlp.ling.CoreAnnotations.NamedEntityTagAnnotation;
+import edu.stanford.nlp.ling.CoreLabel;
+
+/**
+ * How the tagging speed of RegexNERSequenceClassifier depends on the number of rules, one operation
+ * being a pass over 1000 synthetic sentences.  The synthetic regexList has names of one to three
+ * words, and one rule in five is a name followed by a regular expression token; the sentences are
+ * made of the words of the rules and some other words.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class RegexNERBenchmark {
+	private static final String[] TYPES = { "PERSON", "ORGANIZATION", "LOCATION" };
+	private static final String[] REGEXES = { "[0-9]+", "[A-Z][a-z]+s", "[a-z]+iba", "\\d+\\.", "[A-Z]+" };
+
+	@Param({"10", "1000", "10000"})
+	public int rules;
+
+	private RegexNERSequenceClassifier classifier;
+	private List<List<CoreLabel>> sentences;
+
+	@Setup
+	public void setUp() throws IOException {
+		Random random = new Random(rules);
+		List<String> words = new ArrayList<String>();
+		File mapping = writeRules(rules, random, words);
+		try {
+			classifier = new RegexNERSequenceClassifier(mapping.getPath(), true, true);
+		} finally {
+			mapping.delete();
+		}
+		sentences = makeSentences(1000, random, words);
+	}
+
+	@Benchmark
+	public void classify(Blackhole blackhole) {
+		for (List<CoreLabel> sentence : sentences) {
+			for (CoreLabel token : sentence) {
+				token.remove(AnswerAnnotation.class);
+			}
+			blackhole.consume(classifier.classify(sentence));
+		}
+	}
+
+	/**
+	 * Writes a regexList file with the given number of rules; the words used in them are added to words.
+	 */
+	private static File writeRules(int rules, Random random, List<String> words) throws IOException {
+		File file = File.createTempFile("regexner", ".txt");
+		PrintWriter out = new PrintWriter(file, "UTF-8");
+		try {
+			for (int i = 0; i < rules; i++) {
+				StringBuilder rule = new StringBuilder();
+				boolean regex = (i % 5 == 4); // a name followed by a regular expression
+				int length = (regex ? 2 : 1) + random.nextInt(2);
+				for (int j = 0; j < length; j++) {
+					if (j > 0) {
+						rule.append(' ');
+					}
+					if (regex && j == length - 1) {
+						rule.append(REGEXES[random.nextInt(REGEXES.length)]);
+					} else {
+						String word = makeWord(random);
+						words.add(word);
+						rule.append(word);
+					}
+				}
+				out.print(TYPES[random.nextInt(TYPES.length)] + "\t" + rule + "\tO\t" + random.nextInt(3) + "\n");
+			}
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+	private static String makeWord(Random random) {
+		String letters = "aeioukmnprstvz";
+		StringBuilder word = new StringBuilder();
+		word.append(Character.toUpperCase(letters.charAt(random.nextInt(letters.length()))));
+		int length = 3 + random.nextInt(6);
+		for (int i = 1; i < length; i++) {
+			word.append(letters.charAt(random.nextInt(letters.length())));
+		}
+		return word.toString();
+	}
+
+	/**
+	 * Sentences of 20 tokens, half of them words of the rules and half other words and numbers.
+	 */
+	private static List<List<CoreLabel>> makeSentences(int count, Random random, List<String> words) {
+		List<List<CoreLabel>> sentences = new ArrayList<List<CoreLabel>>();
+		for (int i = 0; i < count; i++) {
+			List<CoreLabel> sentence = new ArrayList<CoreLabel>();
+			for (int j = 0; j < 20; j++) {
+				String word;
+				if (random.nextBoolean()) {
+					word = words.get(random.nextInt(words.size()));
+				} else if (random.nextInt(4) == 0) {
+					word = Integer.toString(random.nextInt(2000));
+				} else {
+					word = makeWord(random);
+				}
+				CoreLabel token = new CoreLabel();
+				token.setWord(word);
+				token.setLemma(word);
+				token.set(NamedEntityTagAnnotation.class, "O");
+				sentence.add(token);
+			}
+			sentences.add(sentence);
+		}
+		return sentences;
+	}
+}
@@ -0,0 +1,81 @@
+package lv.lumii.benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import edu.stanford.nlp.ie.ner.CMMClassifier;
+import edu.stanford.nlp.ling.CoreAnnotations.AnswerAnnotation;
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.sequences.LVMorphologyReaderAndWriter;
+
+/**
+ * Tagging of the analyzed sample.txt sentences with the morphotagger model, scoring the compiled
+ * integer features or the String feature Datums (flag cmmStringScoring).  The setup checks that
+ * both give the same tags, and fails otherwise.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class TaggerBenchmark {
+
+	/** true scores the String feature Datums, false the compiled integer features */
+	@Param({"false", "true"})
+	public boolean stringScoring;
+
+	private List<List<CoreLabel>> analyzed;
+	private CMMClassifier<CoreLabel> cmm;
+
+	@Setup
+	@SuppressWarnings("unchecked")
+	public void setUp() throws IOException, ClassNotFoundException {
+		cmm = CMMClassifier.getClassifier(Fixtures.MORPHO_MODEL);
+		analyzed = new ArrayList<List<CoreLabel>>();
+		for (String sentence : Fixtures.sampleSentences()) {
+			analyzed.add(LVMorphologyReaderAndWriter.analyzeSentence(sentence));
+		}
+		cmm.flags.cmmStringScoring = !stringScoring;
+		String otherTags = tags();
+		cmm.flags.cmmStringScoring = stringScoring;
+		if (!tags().equals(otherTags)) {
+			throw new IllegalStateException("The string and compiled feature scoring give different tags");
+		}
+	}
+
+	/** The classifier only sets the answers of the tokens, so the same sentences can be tagged again */
+	@Benchmark
+	public void classify(Blackhole blackhole) {
+		for (List<CoreLabel> sentence : analyzed) {
+			blackhole.consume(cmm.classify(sentence));
+		}
+	}
+
+	private String tags() {
+		StringBuilder tags = new StringBuilder();
+		for (List<CoreLabel> sentence : analyzed) {
+			cmm.classify(sentence);
+			for (CoreLabel word : sentence) {
+				tags.append(word.getString(AnswerAnnotation.class)).append(' ');
+			}
+			tags.append('\n');
+		}
+		return tags.toString();
+	}
+}
@@ -39,6 +39,7 @@ import edu.stanford.nlp.stats.Distribution;
 import edu.stanford.nlp.stats.Counters;
 
 import java.io.*;
+import java.nio.DoubleBuffer;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
 import java.util.*;
@@ -67,6 +68,10 @@ public class LinearClassifier<L, F> implements ProbabilisticClassifier<L, F>, RV
    *  index is the labelIndex value.
    */
   private double[][] weights;
+  /** The weights read in place instead, if not null, such as from the mapped
+   *  file of a binary model: the weight of feature f for label l is at
+   *  f * labelIndex.size() + l.  weights() copies them to weights. */
+  private transient volatile DoubleBuffer flatWeights;
   private Index<L> labelIndex;
   private Index<F> featureIndex;
   public boolean intern = false;   // variable should be deleted when breaking serialization anyway....
@@ -99,6 +104,10 @@ public class LinearClassifier<L, F> implements ProbabilisticClassifier<L, F>, RV
       //System.err.println("feature not seen ");
       return 0.0;
     }
+    DoubleBuffer flat = flatWeights;
+    if (flat != null) {
+      return flat.get(iFeature * thresholds.length + iLabel);
+    }
     return weights[iFeature][iLabel];
   }
 
@@ -240,6 +249,57 @@ public class LinearClassifier<L, F> implements ProbabilisticClassifier<L, F>, RV
     return score + thresholds[iLabel];
   }
 
+  /** Adds the weights of the given features for every label to
+   *  scores[offset ... offset + labelIndex().size()), in labelIndex order.
+   *  Feature ids below 0 (unknown features) are skipped.
+   */
+  public void addScores(int[] features, double[] scores, int offset) {
+    DoubleBuffer flat = flatWeights;
+    if (flat != null) {
+      int numLabels = thresholds.length;
+      for (int feature : features) {
+        if (feature < 0) {
+          continue;
+        }
+        int start = feature * numLabels;
+        for (int l = 0; l < numLabels; l++) {
+          scores[offset + l] += flat.get(start + l);
+        }
+      }
+      return;
+    }
+    for (int feature : features) {
+      if (feature < 0) {
+        continue;
+      }
+      double[] w = weights[feature];
+      for (int l = 0; l < w.length; l++) {
+        scores[offset + l] += w[l];
+      }
+    }
+  }
+
+  /** Scores many data at once, with no Counters or boxing: row i of
+   *  features holds the feature ids of a datum (such as a position of a
+   *  sequence), and the scores (unnormalized log probabilities) of its
+   *  labels are written to scores[i * labelIndex().size() ...], in
+   *  labelIndex order.
+   *
+   *  @param features The feature ids of each datum; ids below 0 are skipped
+   *  @param scores The score matrix, at least features.length * labelIndex().size() long
+   */
+  public void scoresOf(int[][] features, double[] scores) {
+    int numLabels = thresholds.length;
+    for (int i = 0; i < features.length; i++) {
+      int offset = i * numLabels;
+      Arrays.fill(scores, offset, offset + numLabels, 0.0);
+      addScores(features[i], scores, offset);
+      for (int l = 0; l < numLabels; l++) {
+        scores[offset + l] += thresholds[l];
+      }
+    }
+  }
+
 
   /**
    * Returns a counter mapping from each class name to the probability of
@@ -369,6 +429,7 @@ public class LinearClassifier<L, F> implements ProbabilisticClassifier<L, F>, RV
    */
   public int getFeatureCount(double threshold, boolean useMagnitude)
   {
+    double[][] weights = weights();
     int n = 0;
     for (int feat = 0; feat < weights.length; feat++) {
       for (int lab = 0; lab < weights[feat].length; lab++) {
@@ -411,6 +472,7 @@ public class LinearClassifier<L, F> implements ProbabilisticClassifier<L, F>, RV
    */
   protected int getFeatureCountLabelIndices(Set<Integer> iLabels, double threshold, boolean useMagnitude)
   {
+    double[][] weights = weights();
     int n = 0;
     for (int feat = 0; feat < weights.length; feat++) {
       for (int labIndex:iLabels) {
@@ -475,6 +537,7 @@ public class LinearClassifier<L, F> implements ProbabilisticClassifier<L, F>, RV
                                                  double threshold, boolean useMagnitude, int numFeatures,
                                                  boolean descending)
   {
+    double[][] weights = weights();
     edu.stanford.nlp.util.PriorityQueue<Pair<Integer,Integer>> biggestKeys =
       new FixedPrioritiesPriorityQueue<Pair<Integer,Integer>>();
 
@@ -578,6 +641,7 @@ public class LinearClassifier<L, F> implements ProbabilisticClassifier<L, F>, RV
   public String toBiggestWeightFeaturesString(boolean useMagnitude,
       int numFeatures,
       boolean printDescending) {
+    double[][] weights = weights();
     // this used to try to use a treeset, but that was WRONG....
     edu.stanford.nlp.util.PriorityQueue<Pair<Integer,Integer>> biggestKeys =
       new FixedPrioritiesPriorityQueue<Pair<Integer,Integer>>();
@@ -667,6 +731,7 @@ public class LinearClassifier<L, F> implements ProbabilisticClassifier<L, F>, RV
    * @return A human readable string about the classifier distribution.
    */
   public String toDistributionString(int treshold) {
+    double[][] weights = weights();
     Counter<Double> weightCounts = new ClassicCounter<Double>();
     StringBuilder s = new StringBuilder();
     s.append("Total number of weights: ").append(totalSize());
@@ -687,6 +752,7 @@ public class LinearClassifier<L, F> implements ProbabilisticClassifier<L, F>, RV
   }
 
   public String toHistogramString() {
+    double[][] weights = weights();
     // big classifiers
     double[][] hist = new double[3][202];
     Object[][] histEg = new Object[3][202];
@@ -1176,6 +1242,7 @@ public class LinearClassifier<L, F> implements ProbabilisticClassifier<L, F>, RV
  */
 
   public Map<L,Counter<F>> weightsAsMapOfCounters() {
+    double[][] weights = weights();
     Map<L,Counter<F>> mapOfCounters = new HashMap<L,Counter<F>>();
     for(L label : labelIndex){
       int labelID = labelIndex.indexOf(label);
@@ -1234,6 +1301,7 @@ public class LinearClassifier<L, F> implements ProbabilisticClassifier<L, F>, RV
 	  if(example instanceof RVFDatum<?, ?>) {
 		  throw new UnsupportedOperationException();
 	  }
+	  double[][] weights = weights();
 	  
 	  int labelCount = weights[0].length;
 	  //System.out.printf("labelCount: %d\n", labelCount);
@@ -1289,6 +1357,19 @@ public class LinearClassifier<L, F> implements ProbabilisticClassifier<L, F>, RV
     Arrays.fill(thresholds, 0.0);
   }
 
+  /**
+   * A classifier that reads its weights in place from a buffer, such as the
+   * mapped file of a binary model, rather than from a heap copy: the weight
+   * of feature f for label l is at f * labelIndex.size() + l.  The weights
+   * are only copied to the heap if {@link #weights()} is called.
+   */
+  public static <L, F> LinearClassifier<L, F> fromFlatWeights(DoubleBuffer weights, Index<F> featureIndex,
+      Index<L> labelIndex) {
+    LinearClassifier<L, F> classifier = new LinearClassifier<L, F>(null, featureIndex, labelIndex);
+    classifier.flatWeights = weights;
+    return classifier;
+  }
+
   public LinearClassifier(double[][] weights, Index<F> featureIndex, Index<L> labelIndex,
       double[] thresholds) throws Exception {
     this.featureIndex = featureIndex;
@@ -1348,17 +1429,46 @@ public class LinearClassifier<L, F> implements ProbabilisticClassifier<L, F>, RV
 
 
   public void adaptWeights(Dataset<L, F> adapt,LinearClassifierFactory<L, F> lcf) {
-    System.err.println("before adapting, weights size="+weights.length);
+    System.err.println("before adapting, weights size="+weights().length);
     weights = lcf.adaptWeights(weights,adapt);
     System.err.println("after adapting, weights size="+weights.length);
   }
 
+  /** The weights, as weights[feature][label].  Weights read in place are
+   *  copied to the heap first, and from then on read from the copy. */
   public double[][] weights() {
+    if (flatWeights != null) {
+      synchronized (this) {
+        DoubleBuffer flat = flatWeights;
+        if (flat != null) {
+          int numLabels = thresholds.length;
+          double[][] copy = new double[flat.limit() / numLabels][numLabels];
+          for (int f = 0; f < copy.length; f++) {
+            for (int l = 0; l < numLabels; l++) {
+              copy[f][l] = flat.get(f * numLabels + l);
+            }
+          }
+          weights = copy;
+          flatWeights = null;
+        }
+      }
+    }
     return weights;
   }
 
   public void setWeights(double[][] newWeights) {
     weights = newWeights;
+    flatWeights = null;
+  }
+
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    weights(); // weights read in place are written as weights
+    out.defaultWriteObject();
+  }
+
+  /** The per-label bias added to every score, indexed like labelIndex(). */
+  public double[] thresholds() {
+    return thresholds;
   }
 
   /**
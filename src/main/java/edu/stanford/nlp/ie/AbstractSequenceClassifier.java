@@ -51,6 +51,7 @@ import java.util.List;
 import java.util.Properties;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 import java.util.zip.GZIPInputStream;
@@ -532,6 +533,8 @@ public abstract class AbstractSequenceClassifier<IN extends CoreMap> implements
    *          sometimes be none (true) or whether to tokenize the text and print
    *          it with one space between each token (false)
    * @return A {@link String} with annotated with classification information.
+   * @throws CancellationException if the thread is interrupted; the
+   *          documents are checked for that one at a time
    */
   public String classifyToString(String sentences, String outputFormat, boolean preserveSpacing) {
     PlainTextDocumentReaderAndWriter.OutputStyle outFormat =
@@ -543,6 +546,9 @@ public abstract class AbstractSequenceClassifier<IN extends CoreMap> implements
 
     StringBuilder sb = new StringBuilder();
     for (List<IN> doc : documents) {
+      if (Thread.interrupted()) {
+        throw new CancellationException("Interrupted while classifying");
+      }
       List<IN> docOutput = classify(doc);
       if (plainTextReaderAndWriter instanceof 
           PlainTextDocumentReaderAndWriter) {
@@ -1482,6 +1488,28 @@ public abstract class AbstractSequenceClassifier<IN extends CoreMap> implements
    */
   public abstract void serializeClassifier(String serializePath);
 
+  /**
+   * Saves the classifier as a memory-mapped binary model (see {@link BinaryModel}),
+   * which can then be loaded with the usual loadClassifier and getClassifier methods.
+   *
+   * @param serializePath
+   *          The path/filename to write the classifier to.
+   * @throws UnsupportedOperationException
+   *           If this classifier has no binary model format
+   */
+  public void serializeBinaryClassifier(String serializePath) throws IOException {
+    throw new UnsupportedOperationException(getClass().getName() + " has no binary model format");
+  }
+
+  /**
+   * Loads the classifier from a binary model. If props is non-null then any
+   * properties it specifies override those stored in the model.
+   */
+  protected void loadBinaryClassifier(BinaryModel model, Properties props) throws IOException,
+      ClassNotFoundException {
+    throw new UnsupportedOperationException(getClass().getName() + " has no binary model format");
+  }
+
   /**
    * Loads a classifier from the given input stream. The JVM shuts down
    * (System.exit(1)) if there is an exception. This does not close the
@@ -1520,8 +1548,9 @@ public abstract class AbstractSequenceClassifier<IN extends CoreMap> implements
 
   /**
    * Load a classifier from the specified InputStream. The classifier is
-   * reinitialized from the flags serialized in the classifier. This does not
-   * close the InputStream.
+   * reinitialized from the flags serialized in the classifier. The stream may
+   * also hold a binary model (see {@link BinaryModel}). This does not close
+   * the InputStream.
    *
    * @param in
    *          The InputStream to load the serialized classifier from
@@ -1538,6 +1567,13 @@ public abstract class AbstractSequenceClassifier<IN extends CoreMap> implements
    */
   public void loadClassifier(InputStream in, Properties props) throws IOException, ClassCastException,
       ClassNotFoundException {
+    if ( ! in.markSupported()) {
+      in = new BufferedInputStream(in);
+    }
+    if (BinaryModel.isBinaryModel(in)) {
+      loadBinaryClassifier(BinaryModel.open(in, "stream"), props);
+      return;
+    }
     loadClassifier(new ObjectInputStream(in), props);
   }
 
@@ -1594,7 +1630,7 @@ public abstract class AbstractSequenceClassifier<IN extends CoreMap> implements
     // takes priority over the file system.
     if ((is = loadStreamFromClasspath(loadPath)) != null) {
       Timing.startDoing("Loading classifier from " + loadPath);
-      loadClassifier(is);
+      loadClassifier(is, props);
       is.close();
       Timing.endDoing();
     } else {
@@ -1649,6 +1685,11 @@ public abstract class AbstractSequenceClassifier<IN extends CoreMap> implements
   public void loadClassifier(File file, Properties props) throws ClassCastException, IOException,
       ClassNotFoundException {
     Timing.startDoing("Loading classifier from " + file.getAbsolutePath());
+    if (BinaryModel.isBinaryModel(file)) {
+      loadBinaryClassifier(BinaryModel.open(file), props);
+      Timing.endDoing();
+      return;
+    }
     BufferedInputStream bis;
     if (file.getName().endsWith(".gz")) {
       bis = new BufferedInputStream(new GZIPInputStream(new FileInputStream(file)));
@@ -0,0 +1,548 @@
+package edu.stanford.nlp.ie;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import edu.stanford.nlp.sequences.SeqClassifierFlags;
+import edu.stanford.nlp.util.Index;
+import edu.stanford.nlp.util.MappedStringIndex;
+
+/**
+ * A versioned binary file format for sequence classifier models, which is
+ * opened by memory-mapping the file instead of deserializing it. Loading
+ * is then mostly a matter of mapping pages, and several JVMs on the same
+ * host that load the same model file share the pages of its string tables
+ * in the OS page cache rather than each keeping a heap copy. The string
+ * tables and the weights stay mapped: the classifiers look features up in
+ * the mapped tables and score from the weight block in place (see
+ * {@link #getMappedMatrix}).
+ * <p>
+ * The file starts with the magic bytes <code>SNLPBMDL</code>, the format
+ * version and a table of named sections (name, offset, length); every
+ * section starts at a multiple of 8 bytes. All numbers are big-endian.
+ * The section kinds are:
+ * <ul>
+ * <li> properties - <code>java.util.Properties</code> in their text form; the
+ *      classifier flags are stored this way (see {@link #flagsToProperties})
+ * <li> string tables - see {@link MappedStringIndex}. The feature index is
+ *      stored sorted, with the features renumbered in sorted order and the
+ *      weight rows permuted to match, so lookups are a binary search in the
+ *      mapped table
+ * <li> ints and doubles - a count followed by the values
+ * <li> matrices - row count, row offsets and a flat block of doubles
+ * <li> objects - Java serialization, for parts with no fixed layout, such
+ *      as the feature factory
+ * </ul>
+ * Classifiers write their models with
+ * {@link AbstractSequenceClassifier#serializeBinaryClassifier(String)} (e.g.
+ * <code>-loadClassifier model.ser.gz -serializeToBinary model.bin</code>
+ * on the command line), and <code>loadClassifier</code> and
+ * <code>getClassifier</code> recognize binary model files by their magic
+ * bytes. A binary model loaded from the classpath or a stream is read into
+ * a heap buffer, so it is not shared with other processes.
+ */
+public class BinaryModel {
+
+  private static final byte[] MAGIC = { 'S', 'N', 'L', 'P', 'B', 'M', 'D', 'L' };
+  public static final int VERSION = 1;
+
+  private final String source;
+  private final Map<String, ByteBuffer> sections = new LinkedHashMap<String, ByteBuffer>();
+
+  private BinaryModel(String source) {
+    this.source = source;
+  }
+
+  /** Checks the magic bytes at the start of the file. */
+  public static boolean isBinaryModel(File file) throws IOException {
+    if (!file.isFile() || file.length() < MAGIC.length) {
+      return false;
+    }
+    DataInputStream in = new DataInputStream(new FileInputStream(file));
+    try {
+      byte[] magic = new byte[MAGIC.length];
+      in.readFully(magic);
+      return Arrays.equals(magic, MAGIC);
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Checks the magic bytes at the start of the stream, which has to support
+   * mark and reset; the stream is reset to where it was.
+   */
+  public static boolean isBinaryModel(InputStream in) throws IOException {
+    in.mark(MAGIC.length);
+    try {
+      byte[] magic = new byte[MAGIC.length];
+      int n = 0;
+      for (int read; n < magic.length && (read = in.read(magic, n, magic.length - n)) >= 0; ) {
+        n += read;
+      }
+      return n == magic.length && Arrays.equals(magic, MAGIC);
+    } finally {
+      in.reset();
+    }
+  }
+
+  /** Maps all the sections of a binary model file. */
+  public static BinaryModel open(File file) throws IOException {
+    BinaryModel model = new BinaryModel(file.toString());
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    try {
+      int count = model.readHeader(in);
+      for (int i = 0; i < count; i++) {
+        String name = in.readUTF();
+        long offset = in.readLong();
+        long length = in.readLong();
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+        model.sections.put(name, buffer);
+      }
+    } finally {
+      in.close();
+      channel.close(); // the mappings stay valid
+    }
+    return model;
+  }
+
+  /**
+   * Reads a binary model from the rest of the stream into a heap buffer.
+   * This does not close the stream.
+   *
+   * @param source What the stream was opened from, for messages
+   */
+  public static BinaryModel open(InputStream stream, String source) throws IOException {
+    BinaryModel model = new BinaryModel(source);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    byte[] chunk = new byte[65536];
+    for (int read; (read = stream.read(chunk)) >= 0; ) {
+      bytes.write(chunk, 0, read);
+    }
+    ByteBuffer whole = ByteBuffer.wrap(bytes.toByteArray());
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(whole.array()));
+    int count = model.readHeader(in);
+    for (int i = 0; i < count; i++) {
+      String name = in.readUTF();
+      long offset = in.readLong();
+      long length = in.readLong();
+      if (offset < 0 || length < 0 || offset + length > whole.capacity()) {
+        throw new IOException(source + ": section " + name + " is past the end of the model");
+      }
+      whole.limit((int) (offset + length));
+      whole.position((int) offset);
+      model.sections.put(name, whole.slice());
+      whole.clear();
+    }
+    return model;
+  }
+
+  /** Checks the magic bytes and the version, and returns the number of sections. */
+  private int readHeader(DataInputStream in) throws IOException {
+    byte[] magic = new byte[MAGIC.length];
+    in.readFully(magic);
+    if (!Arrays.equals(magic, MAGIC)) {
+      throw new IOException(source + " is not a binary model");
+    }
+    int version = in.readInt();
+    if (version > VERSION) {
+      throw new IOException(source + " has binary model version " + version + ", only " + VERSION + " is supported");
+    }
+    return in.readInt();
+  }
+
+  /** The file or resource the model was loaded from. */
+  public String source() {
+    return source;
+  }
+
+  public boolean has(String name) {
+    return sections.containsKey(name);
+  }
+
+  private ByteBuffer section(String name) throws IOException {
+    ByteBuffer buffer = sections.get(name);
+    if (buffer == null) {
+      throw new IOException(source + ": no section " + name);
+    }
+    return buffer.duplicate();
+  }
+
+  public Properties getProperties(String name) throws IOException {
+    ByteBuffer buffer = section(name);
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.get(bytes);
+    Properties props = new Properties();
+    props.load(new ByteArrayInputStream(bytes));
+    return props;
+  }
+
+  /** A sorted string table as an Index that stays in the mapped file. */
+  public MappedStringIndex getIndex(String name) throws IOException {
+    return new MappedStringIndex(section(name), true);
+  }
+
+  /** A string table, copied to a list. */
+  public List<String> getStrings(String name) throws IOException {
+    return new ArrayList<String>(new MappedStringIndex(section(name), false).objectsList());
+  }
+
+  public int[] getInts(String name) throws IOException {
+    ByteBuffer buffer = section(name);
+    int[] values = new int[buffer.getInt()];
+    buffer.asIntBuffer().get(values);
+    return values;
+  }
+
+  public double[] getDoubles(String name) throws IOException {
+    ByteBuffer buffer = section(name);
+    double[] values = new double[buffer.getInt()];
+    buffer.position(8);
+    buffer.asDoubleBuffer().get(values);
+    return values;
+  }
+
+  public double[][] getMatrix(String name) throws IOException {
+    ByteBuffer buffer = section(name);
+    int rows = buffer.getInt();
+    int[] offsets = new int[rows + 1];
+    buffer.asIntBuffer().get(offsets);
+    buffer.position(matrixDataStart(rows));
+    DoubleBuffer data = buffer.asDoubleBuffer();
+    double[][] matrix = new double[rows][];
+    for (int i = 0; i < rows; i++) {
+      matrix[i] = new double[offsets[i + 1] - offsets[i]];
+      data.get(matrix[i]);
+    }
+    return matrix;
+  }
+
+  /**
+   * A matrix whose values stay in the mapped file, as one block of doubles:
+   * row i is at <code>offsets[i] ... offsets[i + 1] - 1</code> of values.
+   */
+  public static class MappedMatrix {
+    /** Where each row starts in values; the last offset is the number of values */
+    public final int[] offsets;
+    /** The values, to be read with the absolute <code>get(int)</code>, which is safe from several threads */
+    public final DoubleBuffer values;
+
+    MappedMatrix(int[] offsets, DoubleBuffer values) {
+      this.offsets = offsets;
+      this.values = values;
+    }
+
+    public int rows() {
+      return offsets.length - 1;
+    }
+  }
+
+  /** A matrix whose values stay in the mapped file; only the row offsets are read into the heap. */
+  public MappedMatrix getMappedMatrix(String name) throws IOException {
+    ByteBuffer buffer = section(name);
+    int rows = buffer.getInt();
+    int[] offsets = new int[rows + 1];
+    buffer.asIntBuffer().get(offsets);
+    buffer.position(matrixDataStart(rows));
+    DoubleBuffer values = buffer.asDoubleBuffer().asReadOnlyBuffer();
+    if (values.limit() < offsets[rows]) {
+      throw new IOException(source + ": matrix " + name + " is shorter than its row offsets");
+    }
+    values.limit(offsets[rows]);
+    return new MappedMatrix(offsets, values);
+  }
+
+  public Object getObject(String name) throws IOException, ClassNotFoundException {
+    ByteBuffer buffer = section(name);
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.get(bytes);
+    ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+    try {
+      return in.readObject();
+    } finally {
+      in.close();
+    }
+  }
+
+  private static int matrixDataStart(int rows) {
+    return align(4 + 4 * (rows + 1));
+  }
+
+  private static int align(int position) {
+    return (position + 7) & ~7;
+  }
+
+  /**
+   * Builds a binary model file: the sections are collected in memory and
+   * written out by {@link #save}.
+   */
+  public static class Writer {
+    private final Map<String, byte[]> sections = new LinkedHashMap<String, byte[]>();
+
+    private DataOutputStream section(final String name) {
+      if (sections.containsKey(name)) {
+        throw new IllegalArgumentException("Section " + name + " is already written");
+      }
+      return new DataOutputStream(new ByteArrayOutputStream() {
+        @Override
+        public void close() throws IOException {
+          super.close();
+          sections.put(name, toByteArray());
+        }
+      });
+    }
+
+    public void putProperties(String name, Properties props) throws IOException {
+      DataOutputStream out = section(name);
+      props.store(out, null);
+      out.close();
+    }
+
+    /** Writes the strings as an (unsorted) string table. */
+    public void putStrings(String name, Collection<String> strings) throws IOException {
+      DataOutputStream out = section(name);
+      MappedStringIndex.write(new ArrayList<String>(strings), out);
+      out.close();
+    }
+
+    /**
+     * Writes the index as a sorted string table, and the rows of the matrix,
+     * which belong to the items of the index, in the same order.
+     */
+    public void putSortedIndex(String indexName, Index<String> index, String matrixName, double[][] rows) throws IOException {
+      if (rows.length != index.size()) {
+        throw new IllegalArgumentException(matrixName + " has " + rows.length + " rows for " + index.size() + " items of " + indexName);
+      }
+      List<String> items = index.objectsList();
+      int[] order = MappedStringIndex.sortedOrder(items);
+      List<String> sortedItems = new ArrayList<String>(items.size());
+      double[][] sortedRows = new double[rows.length][];
+      for (int i = 0; i < order.length; i++) {
+        sortedItems.add(items.get(order[i]));
+        sortedRows[i] = rows[order[i]];
+      }
+      DataOutputStream out = section(indexName);
+      MappedStringIndex.write(sortedItems, out);
+      out.close();
+      putMatrix(matrixName, sortedRows);
+    }
+
+    public void putInts(String name, int[] values) throws IOException {
+      DataOutputStream out = section(name);
+      out.writeInt(values.length);
+      for (int value : values) {
+        out.writeInt(value);
+      }
+      out.close();
+    }
+
+    public void putDoubles(String name, double[] values) throws IOException {
+      DataOutputStream out = section(name);
+      out.writeInt(values.length);
+      out.writeInt(0); // padding
+      for (double value : values) {
+        out.writeDouble(value);
+      }
+      out.close();
+    }
+
+    public void putMatrix(String name, double[][] rows) throws IOException {
+      DataOutputStream out = section(name);
+      out.writeInt(rows.length);
+      int offset = 0;
+      out.writeInt(offset);
+      for (double[] row : rows) {
+        offset += row.length;
+        out.writeInt(offset);
+      }
+      for (int i = 4 + 4 * (rows.length + 1); i < matrixDataStart(rows.length); i++) {
+        out.writeByte(0);
+      }
+      for (double[] row : rows) {
+        for (double value : row) {
+          out.writeDouble(value);
+        }
+      }
+      out.close();
+    }
+
+    public void putObject(String name, Serializable object) throws IOException {
+      DataOutputStream out = section(name);
+      ObjectOutputStream oos = new ObjectOutputStream(out);
+      oos.writeObject(object);
+      oos.close();
+    }
+
+    public void save(String path) throws IOException {
+      int headerLength = MAGIC.length + 4 + 4;
+      for (String name : sections.keySet()) {
+        headerLength += 2 + name.getBytes("UTF-8").length + 8 + 8;
+      }
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)));
+      try {
+        out.write(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(sections.size());
+        long offset = align(headerLength);
+        for (Map.Entry<String, byte[]> section : sections.entrySet()) {
+          out.writeUTF(section.getKey());
+          out.writeLong(offset);
+          out.writeLong(section.getValue().length);
+          offset = alignLong(offset + section.getValue().length);
+        }
+        long position = headerLength;
+        for (byte[] bytes : sections.values()) {
+          for (; position < alignLong(position); position++) {
+            out.writeByte(0);
+          }
+          out.write(bytes);
+          position += bytes.length;
+        }
+      } finally {
+        out.close();
+      }
+    }
+
+    private static long alignLong(long position) {
+      return (position + 7) & ~7L;
+    }
+  }
+
+  /**
+   * Represents the serialized state of the flags as plain properties: every
+   * non-static, non-transient field of SeqClassifierFlags becomes a property
+   * with the field's name. Fields whose value is null are listed in the
+   * property <code>nullFields</code>.
+   *
+   * @throws IllegalArgumentException If some field has a value that can't be
+   *         written as a property (a non-empty featureFactoryArgs, a wordFunction, ...)
+   */
+  public static Properties flagsToProperties(SeqClassifierFlags flags) {
+    Properties props = new Properties();
+    StringBuilder nulls = new StringBuilder();
+    for (Field field : flagFields()) {
+      Object value;
+      try {
+        value = field.get(flags);
+      } catch (IllegalAccessException e) {
+        throw new RuntimeException(e);
+      }
+      Class<?> type = field.getType();
+      String name = field.getName();
+      if (name.equals("pad")) {
+        continue; // classifiers use their own pad
+      } else if (value == null) {
+        nulls.append(nulls.length() == 0 ? "" : ",").append(name);
+      } else if (type.isPrimitive() || type == String.class || type.isEnum()) {
+        props.setProperty(name, value.toString());
+      } else if (type == int[].class) {
+        StringBuilder sb = new StringBuilder();
+        for (int v : (int[]) value) {
+          sb.append(sb.length() == 0 ? "" : ",").append(v);
+        }
+        props.setProperty(name, sb.toString());
+      } else if (value instanceof Object[] && ((Object[]) value).length == 0) {
+        props.setProperty(name, "");
+      } else if (value instanceof Collection && ((Collection<?>) value).isEmpty()) {
+        props.setProperty(name, "");
+      } else {
+        throw new IllegalArgumentException("Flag " + name + " = " + value + " can't be stored in a binary model");
+      }
+    }
+    props.setProperty("nullFields", nulls.toString());
+    return props;
+  }
+
+  /**
+   * The inverse of {@link #flagsToProperties}. Fields that are not mentioned
+   * keep their defaults.
+   */
+  @SuppressWarnings("unchecked")
+  public static SeqClassifierFlags propertiesToFlags(Properties props) {
+    SeqClassifierFlags flags = new SeqClassifierFlags();
+    List<String> nulls = Arrays.asList(props.getProperty("nullFields", "").split(","));
+    for (Field field : flagFields()) {
+      String name = field.getName();
+      String value = props.getProperty(name);
+      Class<?> type = field.getType();
+      try {
+        if (nulls.contains(name)) {
+          field.set(flags, null);
+        } else if (value == null) {
+          continue;
+        } else if (type == boolean.class) {
+          field.setBoolean(flags, Boolean.parseBoolean(value));
+        } else if (type == int.class) {
+          field.setInt(flags, Integer.parseInt(value));
+        } else if (type == long.class) {
+          field.setLong(flags, Long.parseLong(value));
+        } else if (type == double.class) {
+          field.setDouble(flags, Double.parseDouble(value));
+        } else if (type == float.class) {
+          field.setFloat(flags, Float.parseFloat(value));
+        } else if (type == char.class) {
+          field.setChar(flags, value.charAt(0));
+        } else if (type == String.class) {
+          field.set(flags, value);
+        } else if (type.isEnum()) {
+          field.set(flags, Enum.valueOf(type.asSubclass(Enum.class), value));
+        } else if (type == int[].class) {
+          String[] parts = value.isEmpty() ? new String[0] : value.split(",");
+          int[] values = new int[parts.length];
+          for (int i = 0; i < parts.length; i++) {
+            values[i] = Integer.parseInt(parts[i]);
+          }
+          field.set(flags, values);
+        } else if (type == Object[].class) {
+          field.set(flags, new Object[0]);
+        } else if (Collection.class.isAssignableFrom(type) && field.get(flags) != null) {
+          ((Collection<?>) field.get(flags)).clear();
+        }
+      } catch (IllegalAccessException e) {
+        throw new RuntimeException(e);
+      }
+    }
+    return flags;
+  }
+
+  private static List<Field> flagFields() {
+    List<Field> fields = new ArrayList<Field>();
+    for (Field field : SeqClassifierFlags.class.getDeclaredFields()) {
+      int modifiers = field.getModifiers();
+      if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers)) {
+        continue;
+      }
+      field.setAccessible(true);
+      fields.add(field);
+    }
+    return fields;
+  }
+
+}
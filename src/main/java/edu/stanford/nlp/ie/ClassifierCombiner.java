@@ -11,6 +11,10 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import edu.stanford.nlp.ie.crf.CRFClassifier;
 import edu.stanford.nlp.ie.ner.CMMClassifier;
@@ -42,6 +46,9 @@ import edu.stanford.nlp.util.StringUtils;
  * specified using -loadClassifier and -loadAuxClassifier.
  * <p>
  * ms 2009: removed all NER functionality (see NERClassifierCombiner), changed code so it accepts an arbitrary number of base classifiers, removed dead code.
+ * <p>
+ * The base classifiers don't depend on each other's output, so with {@link #setExecutor} they are run
+ * concurrently on each document, and their outputs are merged as usual once they have all finished.
  *
  * @author Chris Cox
  * @author Mihai Surdeanu
@@ -50,6 +57,8 @@ public class ClassifierCombiner<IN extends CoreMap & HasWord> extends AbstractSe
 
 	private static final boolean DEBUG = false;
 	private List<AbstractSequenceClassifier<IN>> baseClassifiers;
+	/** If not null, the base classifiers after the first one are run on this executor, see setExecutor */
+	private ExecutorService executor = null;
 
 	private static final String DEFAULT_AUX_CLASSIFIER_PATH="/u/nlp/data/ner/goodClassifiers/english.muc.7class.distsim.crf.ser.gz";
 	private static final String DEFAULT_CLASSIFIER_PATH="/u/nlp/data/ner/goodClassifiers/english.all.3class.distsim.crf.ser.gz";
@@ -164,6 +173,22 @@ public class ClassifierCombiner<IN extends CoreMap & HasWord> extends AbstractSe
 		}
 	}
 
+	/**
+	 * Runs the base classifiers of each document concurrently: the first one on the calling thread and the others
+	 * as tasks on the executor, which may be shared with other work. The merged output is the same as when they
+	 * are run one after another. The executor should not be one whose threads themselves call this classifier
+	 * and wait for it, or they may all end up waiting for each other.
+	 *
+	 * @param executor The executor, or null to run the base classifiers one after another on the calling thread
+	 */
+	public void setExecutor(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	public ExecutorService getExecutor() {
+		return executor;
+	}
+
 	@Override
 	public Set<String> labels() {
 		Set<String> labs = new HashSet<String>();
@@ -440,6 +465,9 @@ public class ClassifierCombiner<IN extends CoreMap & HasWord> extends AbstractSe
 		if (baseClassifiers.isEmpty()) {
 			return tokens;
 		}
+		if (executor != null && baseClassifiers.size() > 1) {
+			return classifyConcurrently(tokens);
+		}
 		List<List<IN>> baseOutputs = new ArrayList<List<IN>>();
 
 		// the first base model works in place, modifying the original tokens
@@ -463,6 +491,51 @@ public class ClassifierCombiner<IN extends CoreMap & HasWord> extends AbstractSe
 		return finalAnswer;
 	}
 
+	/**
+	 * classify with the base classifiers run concurrently. Each of them works on its own copy of the tokens
+	 * (classifySentence makes one, resetting the AnswerAnnotation of the copy), and the tokens themselves are only
+	 * read until all are done, so the outputs are the same as when they run one after another.
+	 */
+	private List<IN> classifyConcurrently(final List<IN> tokens) {
+		List<Future<List<IN>>> futures = new ArrayList<Future<List<IN>>>();
+		for (int i = 1, sz = baseClassifiers.size(); i < sz; i ++) {
+			final AbstractSequenceClassifier<IN> baseClassifier = baseClassifiers.get(i);
+			futures.add(executor.submit(new Callable<List<IN>>() {
+				public List<IN> call() {
+					return baseClassifier.classifySentence(tokens);
+				}
+			}));
+		}
+		List<List<IN>> baseOutputs = new ArrayList<List<IN>>();
+		List<IN> output;
+		try {
+			output = baseClassifiers.get(0).classifySentence(tokens);
+			baseOutputs.add(tokens);
+			for (Future<List<IN>> future : futures) {
+				baseOutputs.add(future.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+			if (e.getCause() instanceof Error) throw (Error) e.getCause();
+			throw new RuntimeException(e.getCause());
+		} finally {
+			for (Future<List<IN>> future : futures) {
+				future.cancel(true);
+			}
+		}
+		// the first base model works in place, modifying the original tokens
+		for (int i = 0, sz = output.size(); i < sz; i++) {
+			tokens.get(i).set(AnswerAnnotation.class, output.get(i).get(AnswerAnnotation.class));
+		}
+		assert(baseOutputs.size() == baseClassifiers.size());
+		List<IN> finalAnswer = mergeDocuments(baseOutputs);
+
+		return finalAnswer;
+	}
+
 
 	@Override
 	public void train(Collection<List<IN>> docs,
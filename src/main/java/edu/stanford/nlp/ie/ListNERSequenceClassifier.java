@@ -10,6 +10,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -26,8 +27,19 @@ import edu.stanford.nlp.util.CoreMap;
 import edu.stanford.nlp.util.HashIndex;
 
 public class ListNERSequenceClassifier extends AbstractSequenceClassifier<CoreLabel> {
+	/** The lists as a trie of words, while they are being read; compiled to the arrays below by compile() */
 	private Map<String, Entry> entries;
 
+	/** Id of each word of the lists */
+	private Map<String, Integer> tokenIds;
+	/** Children of node i are edgeTargets[edgeStarts[i] .. edgeStarts[i+1]), sorted by their token ids in edgeLabels; node 0 is the root */
+	private int[] edgeStarts;
+	private int[] edgeLabels;
+	private int[] edgeTargets;
+	/** Type and priority of the entry that ends at each node; null type if none */
+	private String[] nodeTypes;
+	private double[] nodePriorities;
+
 	/**
 	 * If true, it overwrites NE labels generated through this regex NER
 	 * This is necessary because sometimes the RegexNERSequenceClassifier is run successively over the same text (e.g., to overwrite some older annotations)
@@ -60,6 +72,7 @@ public class ListNERSequenceClassifier extends AbstractSequenceClassifier<CoreLa
 		for (String map : mappings) {
 			readEntries(map, ignoreCase);
 		}
+		compile();
 		System.err.println("Lists are initialized...");
 		this.classIndex = new HashIndex<String>(myLabels);
 		//System.err.println("RegexNERSequenceClassifier using labels: " + myLabels);
@@ -121,80 +134,158 @@ public class ListNERSequenceClassifier extends AbstractSequenceClassifier<CoreLa
 		return false;
 	}
 
-	private static class MatchedEntry implements Comparable<MatchedEntry>{
-		public Double priority;
-		public String type;
-		public Set<String> overwritableTypes;
-		public List<CoreLabel> tokens;
-		
-		public MatchedEntry(List<CoreLabel> tokens, String type, Set<String> overWritableTypes, Double priority) {
-			this.tokens = tokens;
-			this.type = type;
-			this.overwritableTypes = overWritableTypes;
-			this.priority = priority;
-		 }
-		@Override
-		public int compareTo(MatchedEntry other) {
-			if (this.priority > other.priority)return -1;
-			if (this.priority < other.priority) return 1;
-			return	this.tokens.size()- other.tokens.size();
-		}			
+	/**
+	 * Converts the trie of entries to the arrays used for matching.
+	 */
+	private void compile() {
+		tokenIds = new HashMap<>();
+		List<Entry> nodes = new ArrayList<>();
+		List<int[]> edges = new ArrayList<>(); // {node, token id, child}
+		Entry root = new Entry();
+		root.words = entries;
+		nodes.add(root);
+		for (int node = 0; node < nodes.size(); node++) {
+			for (Map.Entry<String, Entry> child : nodes.get(node).words.entrySet()) {
+				Integer id = tokenIds.get(child.getKey());
+				if (id == null) {
+					id = tokenIds.size();
+					tokenIds.put(child.getKey(), id);
+				}
+				edges.add(new int[] {node, id, nodes.size()});
+				nodes.add(child.getValue());
+			}
+		}
+		Collections.sort(edges, new Comparator<int[]>() {
+			@Override
+			public int compare(int[] a, int[] b) {
+				return (a[0] != b[0]) ? Integer.compare(a[0], b[0]) : Integer.compare(a[1], b[1]);
+			}
+		});
+
+		edgeStarts = new int[nodes.size() + 1];
+		edgeLabels = new int[edges.size()];
+		edgeTargets = new int[edges.size()];
+		for (int e = 0; e < edges.size(); e++) {
+			edgeStarts[edges.get(e)[0] + 1]++;
+			edgeLabels[e] = edges.get(e)[1];
+			edgeTargets[e] = edges.get(e)[2];
+		}
+		for (int i = 0; i < nodes.size(); i++)
+			edgeStarts[i + 1] += edgeStarts[i];
+
+		nodeTypes = new String[nodes.size()];
+		nodePriorities = new double[nodes.size()];
+		for (int i = 0; i < nodes.size(); i++) {
+			Entry e = nodes.get(i);
+			if (e.type != null && e.type.length() > 0) {
+				nodeTypes[i] = e.type;
+				nodePriorities[i] = e.priority;
+			}
+		}
+		entries = null;
+	}
+
+	private int child(int node, int token) {
+		int i = Arrays.binarySearch(edgeLabels, edgeStarts[node], edgeStarts[node + 1], token);
+		return (i < 0) ? -1 : edgeTargets[i];
 	}
-	
+
+	/**
+	 * The entries matched around the current position, not yet applied to the tokens: token range [start, end), type and priority
+	 */
+	private static class Matches {
+		int size = 0;
+		int[] start = new int[8];
+		int[] end = new int[8];
+		String[] type = new String[8];
+		double[] priority = new double[8];
+
+		void add(int from, int to, String t, double p) {
+			if (size == start.length) {
+				start = Arrays.copyOf(start, size * 2);
+				end = Arrays.copyOf(end, size * 2);
+				type = Arrays.copyOf(type, size * 2);
+				priority = Arrays.copyOf(priority, size * 2);
+			}
+			start[size] = from;
+			end[size] = to;
+			type[size] = t;
+			priority[size] = p;
+			size++;
+		}
+
+		/** Highest priority first, then the shorter entries first; equal entries stay in the order they were found */
+		private boolean before(int a, int b) {
+			if (priority[a] > priority[b]) return true;
+			if (priority[a] < priority[b]) return false;
+			return (end[a] - start[a]) < (end[b] - start[b]);
+		}
+
+		/**
+		 * Labels the tokens with the matched types, in sorted order, so that the entries applied later overwrite the earlier ones.
+		 */
+		void apply(List<CoreLabel> document) {
+			int[] order = new int[size];
+			for (int i = 0; i < size; i++) {
+				int k = i;
+				while (k > 0 && before(i, order[k-1])) {
+					order[k] = order[k-1];
+					k--;
+				}
+				order[k] = i;
+			}
+			for (int m : order) {
+				for (int t = start[m]; t < end[m]; t++)
+					document.get(t).set(AnswerAnnotation.class, type[m]);
+			}
+			size = 0;
+		}
+	}
+
+	/**
+	 * Finds all the list entries in the document and labels their tokens.
+	 * Every entry in quotes (two quote tokens among the matched tokens) labels only the tokens between the quotes, with its priority raised by 1.
+	 * The entries are applied in groups of overlapping matches, in the order of Matches.apply.
+	 */
 	@Override
 	public List<CoreLabel> classify(List<CoreLabel> document) {
-		List<MatchedEntry> matchedEntries = new ArrayList<>();
+		int size = document.size();
+		int[] ids = new int[size];
+		boolean[] isQuote = new boolean[size];
+		for (int k = 0; k < size; k++) {
+			CoreLabel w = document.get(k);
+			Integer id = tokenIds.get(token(w));
+			ids[k] = (id == null) ? -1 : id;
+			isQuote[k] = w.word() != null && quotes.contains(w.word());
+		}
+
+		Matches matches = new Matches();
 		int maxWord = 0; // max right word reached (in matched entry) from before or current position i
-		for (int i = 0; i < document.size(); i++) {
-			Map<String, Entry> entryMap = entries;
-			List<CoreLabel> tokens = new ArrayList<>();
+		for (int i = 0; i < size; i++) {
+			int node = 0;
 			int j = i;
-			CoreLabel wj = document.get(j);
-			while (entryMap != null && entryMap.containsKey(token(wj))) {
-				tokens.add(wj);
-				Entry e = entryMap.get(token(wj));
-				if (e.type != null && e.type.length() > 0) {
-					//System.err.println("FOUND " + e.type);
-					int priority_mod = 0; // modify default priority
-					
-					// simple pattern post processing
-					// remove quotes
-					int from = 0, to = tokens.size(), count = 0;
-					for (int tokens_i = 0; tokens_i < tokens.size(); tokens_i++) {
-						CoreLabel l = tokens.get(tokens_i);
-						if (quotes.contains(l.word())) {
-							count++;
-							if (count == 1) from = Math.min(tokens_i + 1, tokens.size()-1);
-							else if (count == 2) to = tokens_i;
-						}
-					}
-					if (count == 2) {
-						priority_mod = 1; // entry matched context pattern, increase priority
+			int quoteCount = 0, firstQuote = -1, secondQuote = -1;
+			while (ids[j] >= 0 && (node = child(node, ids[j])) >= 0) {
+				if (isQuote[j]) {
+					quoteCount++;
+					if (quoteCount == 1) firstQuote = j;
+					else if (quoteCount == 2) secondQuote = j;
+				}
+				if (nodeTypes[node] != null) {
+					if (quoteCount == 2) {
+						// simple pattern post processing: the entry matched context pattern, take what is in quotes and increase priority
+						matches.add(Math.min(firstQuote + 1, j), secondQuote, nodeTypes[node], nodePriorities[node] + 1);
 					} else {
-						from = 0; to = tokens.size();
+						matches.add(i, j + 1, nodeTypes[node], nodePriorities[node]);
 					}
-					List<CoreLabel> matched_tokens = new ArrayList<>(tokens.subList(from, to));
-//					for (CoreLabel cl : matched_tokens) {
-//						System.err.print(cl.word() + " ");
-//					}
-//					System.err.println();					
-					matchedEntries.add(new MatchedEntry(matched_tokens, e.type, e.overWritableTypes, e.priority + priority_mod));
 				}
-				entryMap = e.words;
-				if (j+1 >= document.size()) break;
-				wj = document.get(++j);
+				if (j+1 >= size) break;
+				j++;
 			}
-			
+
 			maxWord = Math.max(maxWord, j);
-			if (i == maxWord && matchedEntries.size() > 0) {
-				Collections.sort(matchedEntries);
-				for (MatchedEntry me : matchedEntries) {
-					for (CoreLabel c : me.tokens) {
-						c.set(AnswerAnnotation.class, me.type);
-						//System.err.println(c.word() + "\t" + me.type);
-					}
-				}
-				matchedEntries.clear();
+			if (i == maxWord && matches.size > 0) {
+				matches.apply(document);
 			}
 		}
 		return document;
@@ -35,6 +35,7 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -43,6 +44,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -422,6 +424,10 @@ public class NERFeatureFactory<IN extends CoreLabel> extends FeatureFactory<IN>
 
   public void init(SeqClassifierFlags flags) {
     super.init(flags);
+    // the n-gram cache is filled while tagging, possibly from several threads at once
+    if (!(wordToSubstrings instanceof ConcurrentHashMap)) {
+      wordToSubstrings = new ConcurrentHashMap<String,Collection<String>>(wordToSubstrings);
+    }
     initGazette();
     if (flags.useDistSim) {
       initLexicon(flags);
@@ -582,10 +588,10 @@ public class NERFeatureFactory<IN extends CoreLabel> extends FeatureFactory<IN>
   }
 
 
-  private Map<String,Collection<String>> wordToSubstrings = new HashMap<String,Collection<String>>();
+  private Map<String,Collection<String>> wordToSubstrings = new ConcurrentHashMap<String,Collection<String>>();
 
   public void clearMemory() {
-    wordToSubstrings = new HashMap<String,Collection<String>>();
+    wordToSubstrings = new ConcurrentHashMap<String,Collection<String>>();
     lexicon = null;
   }
 
@@ -786,22 +792,253 @@ public class NERFeatureFactory<IN extends CoreLabel> extends FeatureFactory<IN>
     }
   }
 
-  private HashSet<Class<? extends GenericAnnotation<?>>> genericAnnotationKeys; // = null; //cache which keys are generic annotations so we don't have to do too many instanceof checks
+  /**
+   * cleanGazette matching compiled from wordToGazetteInfos: a token trie over integer token ids, whose nodes
+   * hold the GazetteInfos of the entries ending there.  All the entries are matched in one pass over a sentence,
+   * instead of checking every candidate entry of every token against its neighbours.
+   * Each GazetteInfo fires exactly where the lookup of its word in wordToGazetteInfos followed by the check
+   * of the whole entry would have fired it, except that entries are only matched within the sentence and not
+   * against the padding around it.
+   */
+  private class GazetteMatcher {
+    /** token id of each (normalized) gazette word */
+    private final Map<String,Integer> tokenIds = new HashMap<String,Integer>();
+    /** children of node i are edgeTargets[edgeStarts[i] .. edgeStarts[i+1]), sorted by their token ids in edgeLabels */
+    private final int[] edgeStarts;
+    private final int[] edgeLabels;
+    private final int[] edgeTargets;
+    /** the GazetteInfos of the entries that end at each node, or null */
+    private final GazetteInfo[][] nodeInfos;
+    private final boolean lemmas;
+    /** the matches of the last sentence seen by each thread, as featuresC visits its positions one by one */
+    private final ThreadLocal<SentenceMatches> lastSentence = new ThreadLocal<SentenceMatches>();
+
+    GazetteMatcher(Map<String,Collection<GazetteInfo>> wordToGazetteInfos, boolean lemmas) {
+      this.lemmas = lemmas;
+      // build the trie with a map of edges first: (node << 32 | token id) -> child node
+      Map<Long,Integer> edges = new HashMap<Long,Integer>();
+      List<List<GazetteInfo>> infos = new ArrayList<List<GazetteInfo>>();
+      infos.add(null); // the root
+      for (Collection<GazetteInfo> wordInfos : wordToGazetteInfos.values()) {
+        for (GazetteInfo info : wordInfos) {
+          int node = 0;
+          for (String word : info.words) {
+            long edge = ((long) node << 32) | tokenId(normalize(word), true);
+            Integer child = edges.get(edge);
+            if (child == null) {
+              child = infos.size();
+              infos.add(null);
+              edges.put(edge, child);
+            }
+            node = child;
+          }
+          if (infos.get(node) == null) {
+            infos.set(node, new ArrayList<GazetteInfo>());
+          }
+          infos.get(node).add(info);
+        }
+      }
+
+      int nodes = infos.size();
+      nodeInfos = new GazetteInfo[nodes][];
+      for (int i = 0; i < nodes; i++) {
+        if (infos.get(i) != null) {
+          nodeInfos[i] = infos.get(i).toArray(new GazetteInfo[infos.get(i).size()]);
+        }
+      }
+      long[] sortedEdges = new long[edges.size()];
+      int e = 0;
+      for (long edge : edges.keySet()) {
+        sortedEdges[e++] = edge;
+      }
+      Arrays.sort(sortedEdges); // by node, then by token id
+      edgeStarts = new int[nodes + 1];
+      edgeLabels = new int[sortedEdges.length];
+      edgeTargets = new int[sortedEdges.length];
+      for (e = 0; e < sortedEdges.length; e++) {
+        edgeStarts[(int) (sortedEdges[e] >>> 32) + 1]++;
+        edgeLabels[e] = (int) sortedEdges[e];
+        edgeTargets[e] = edges.get(sortedEdges[e]);
+      }
+      for (int i = 0; i < nodes; i++) {
+        edgeStarts[i + 1] += edgeStarts[i];
+      }
+    }
+
+    /**
+     * The form of a word that is compared.  Lemmas are compared with equalsIgnoreCase, which holds
+     * exactly when the strings are equal after folding every char through toUpperCase and toLowerCase.
+     */
+    private String normalize(String word) {
+      if (!lemmas || word == null) {
+        return word;
+      }
+      char[] chars = word.toCharArray();
+      for (int i = 0; i < chars.length; i++) {
+        chars[i] = Character.toLowerCase(Character.toUpperCase(chars[i]));
+      }
+      return new String(chars);
+    }
+
+    private int tokenId(String token, boolean add) {
+      Integer id = tokenIds.get(token);
+      if (id == null) {
+        if (!add) {
+          return -1;
+        }
+        id = tokenIds.size();
+        tokenIds.put(token, id);
+      }
+      return id;
+    }
+
+    private int child(int node, int token) {
+      int i = Arrays.binarySearch(edgeLabels, edgeStarts[node], edgeStarts[node + 1], token);
+      return (i < 0) ? -1 : edgeTargets[i];
+    }
+
+    /**
+     * The gazette features of the token at loc.  The whole sentence is matched when one of its tokens is
+     * first asked about, and the results are kept for the following positions.
+     */
+    List<String> featuresAt(PaddedList<IN> cInfo, int loc) {
+      SentenceMatches matches = lastSentence.get();
+      if (matches == null || !matches.isFor(cInfo, loc)) {
+        matches = match(cInfo);
+        lastSentence.set(matches);
+      }
+      List<String> features = matches.features.get(loc);
+      return (features == null) ? Collections.<String>emptyList() : features;
+    }
+
+    private SentenceMatches match(PaddedList<IN> cInfo) {
+      int size = cInfo.size();
+      CoreLabel[] tokens = new CoreLabel[size];
+      int[] ids = new int[size];
+      for (int i = 0; i < size; i++) {
+        tokens[i] = cInfo.get(i);
+        String token = lemmas ? tokens[i].getString(LemmaAnnotation.class) : getWord(tokens[i]);
+        ids[i] = tokenId(normalize(token), false);
+      }
+      List<List<String>> features = new ArrayList<List<String>>(Collections.<List<String>>nCopies(size, null));
+
+      for (int start = 0; start < size; start++) {
+        int node = 0;
+        for (int end = start; end < size && node >= 0; end++) {
+          node = (ids[end] < 0) ? -1 : child(node, ids[end]);
+          if (node < 0 || nodeInfos[node] == null) {
+            continue;
+          }
+          for (GazetteInfo gInfo : nodeInfos[node]) {
+            int at = start + gInfo.loc;
+            // in lemma mode the lookup went by the lowercased lemma, which had to equal the entry word exactly
+            if (lemmas && !tokens[at].getString(LemmaAnnotation.class).toLowerCase().equals(gInfo.words[gInfo.loc])) {
+              continue;
+            }
+            if (features.get(at) == null) {
+              features.set(at, new ArrayList<String>());
+            }
+            features.get(at).add(gInfo.feature);
+            for (int i = start; i <= end; i++) {
+              annotateGazette(tokens[i], gInfo);
+            }
+          }
+        }
+      }
+      return new SentenceMatches(tokens, features);
+    }
+  } // end class GazetteMatcher
+
+  private static class SentenceMatches {
+    final CoreLabel[] tokens;
+    /** The gazette features of each token, or null where it has none */
+    final List<List<String>> features;
+
+    SentenceMatches(CoreLabel[] tokens, List<List<String>> features) {
+      this.tokens = tokens;
+      this.features = features;
+    }
+
+    boolean isFor(List<? extends CoreLabel> sentence, int loc) {
+      return sentence.size() == tokens.length && sentence.get(loc) == tokens[loc];
+    }
+  }
+
+  private transient volatile GazetteMatcher gazetteMatcher; // = null
+
+  private GazetteMatcher gazetteMatcher() {
+    GazetteMatcher matcher = gazetteMatcher;
+    if (matcher == null) {
+      synchronized (this) {
+        matcher = gazetteMatcher;
+        if (matcher == null) {
+          matcher = new GazetteMatcher(wordToGazetteInfos, flags.useLemmas);
+          gazetteMatcher = matcher;
+        }
+      }
+    }
+    return matcher;
+  }
+
+  private static void annotateGazette(CoreLabel lab, GazetteInfo gInfo) {
+    Set<String> cats = lab.get(LVGazAnnotation.class);
+    if (cats == null) cats = new HashSet<>();
+    cats.add(gInfo.type);
+    lab.set(LVGazAnnotation.class, cats);
+    Set<String> files = lab.get(LVGazFileAnnotation.class);
+    if (files == null) files = new HashSet<>();
+    files.add(gInfo.source);
+    lab.set(LVGazFileAnnotation.class, files);
+  }
+
+  private volatile HashSet<Class<? extends GenericAnnotation<?>>> genericAnnotationKeys; // = null; //cache which keys are generic annotations so we don't have to do too many instanceof checks
 
   @SuppressWarnings({"unchecked", "SuspiciousMethodCalls"})
   private void makeGenericKeyCache(CoreLabel c) {
-    genericAnnotationKeys = new HashSet<Class<? extends GenericAnnotation<?>>>();
+    // built aside and published at once, as other tagging threads may read the field meanwhile
+    HashSet<Class<? extends GenericAnnotation<?>>> keys = new HashSet<Class<? extends GenericAnnotation<?>>>();
     for (Class<?> key : c.keySet()) {
       if (CoreLabel.genericValues.containsKey(key)) {
         Class<? extends GenericAnnotation<?>> genKey = (Class<? extends GenericAnnotation<?>>) key;
-        genericAnnotationKeys.add(genKey);
+        keys.add(genKey);
       }
     }
+    genericAnnotationKeys = keys;
   }
 
   private HashSet<String> lastNames; // = null;
   private HashSet<String> maleNames; // = null;
-  private HashSet<String> femaleNames; // = null;
+  private volatile HashSet<String> femaleNames; // = null;
+
+  /** Loads the name lists on first use; femaleNames is assigned last, so
+   *  once it is non-null all three lists can be read without locking.
+   */
+  private synchronized void loadNameLists() {
+    if (femaleNames != null) {
+      return;
+    }
+    if (lastNames == null) {
+      lastNames = new HashSet<String>();
+
+      for (String line : ObjectBank.getLineIterator(flags.lastNameList)) {
+        String[] cols = line.split("\\s+");
+        lastNames.add(cols[0]);
+      }
+    }
+    if (maleNames == null) {
+      maleNames = new HashSet<String>();
+      for (String line : ObjectBank.getLineIterator(flags.maleNameList)) {
+        String[] cols = line.split("\\s+");
+        maleNames.add(cols[0]);
+      }
+    }
+    HashSet<String> names = new HashSet<String>();
+    for (String line : ObjectBank.getLineIterator(flags.femaleNameList)) {
+      String[] cols = line.split("\\s+");
+      names.add(cols[0]);
+    }
+    femaleNames = names;
+  }
 
   private final Pattern titlePattern = Pattern.compile("(Mr|Ms|Mrs|Dr|Miss|Sen|Judge|Sir)\\.?"); // todo: should make static final and add more titles
 
@@ -889,27 +1126,8 @@ public class NERFeatureFactory<IN extends CoreLabel> extends FeatureFactory<IN>
 
       if (flags.checkNameList) {
         try {
-          if (lastNames == null) {
-            lastNames = new HashSet<String>();
-
-            for (String line : ObjectBank.getLineIterator(flags.lastNameList)) {
-              String[] cols = line.split("\\s+");
-              lastNames.add(cols[0]);
-            }
-          }
-          if (maleNames == null) {
-            maleNames = new HashSet<String>();
-            for (String line : ObjectBank.getLineIterator(flags.maleNameList)) {
-              String[] cols = line.split("\\s+");
-              maleNames.add(cols[0]);
-            }
-          }
           if (femaleNames == null) {
-            femaleNames = new HashSet<String>();
-            for (String line : ObjectBank.getLineIterator(flags.femaleNameList)) {
-              String[] cols = line.split("\\s+");
-              femaleNames.add(cols[0]);
-            }
+            loadNameLists();
           }
 
           String name = cWord.toUpperCase();
@@ -1300,42 +1518,11 @@ public class NERFeatureFactory<IN extends CoreLabel> extends FeatureFactory<IN>
             featuresC.addAll(entries);
           }
         }
-        if (flags.cleanGazette) {           
-          Collection<GazetteInfo> infos = wordToGazetteInfos.get(cWord);
-          if (flags.useLemmas) // Search for gazeteer entries matching the lemma, not the wordform 
-        	  infos = wordToGazetteInfos.get(c.getString(LemmaAnnotation.class).toLowerCase()); //TODO - case sensitivity nosaukumiem tomēr var noderēt... bet nevar īsti paļauties uz to, kādā case būs atgrieztā lemma
-          
-          if (infos != null) {
-        	//System.err.println("Meklējam gazetē vārdu " + getWord(cInfo.get(loc)));
-            for (GazetteInfo gInfo : infos) {
-              boolean ok = true;
-              for (int gLoc = 0; gLoc < gInfo.words.length; gLoc++) {
-            	  //TODO - entītiju nosaukumu locīšana varētu būt labāk
-            	  if (flags.useLemmas) {
-            		  String gazeteerLemma = cInfo.get(loc + gLoc - gInfo.loc).getString(LemmaAnnotation.class);
-            		  ok &= gInfo.words[gLoc].equalsIgnoreCase(gazeteerLemma);
-            	  } else
-            		  ok &= gInfo.words[gLoc].equals(getWord(cInfo.get(loc + gLoc - gInfo.loc)));
-                
-              }
-              if (ok) {
-            	  //System.err.println("Atradām gazetē vārdu" + getWord(cInfo.get(loc)) + " gazetes ieraksts " + Arrays.toString(gInfo.words));            	  
-                  featuresC.add(gInfo.feature);
-                  //featuresC.add(gInfo.source); // filename doesnot help
-                  for (int gLoc = 0; gLoc < gInfo.words.length; gLoc++) {
-                	  CoreLabel lab = cInfo.get(loc + gLoc - gInfo.loc);
-                	  Set<String> cats = lab.get(LVGazAnnotation.class);
-                      if (cats == null) cats = new HashSet<>();
-                      cats.add(gInfo.type);
-                      lab.set(LVGazAnnotation.class, cats);
-                      Set<String> files = lab.get(LVGazFileAnnotation.class);
-                      if (files == null) files = new HashSet<>();
-                      files.add(gInfo.source);
-                      lab.set(LVGazFileAnnotation.class, files);
-                  }
-              }
-            }
-          }
+        if (flags.cleanGazette) {
+          // entries are matched by lemma if useLemmas is set (ignoring case), otherwise by the word
+          //TODO - case sensitivity nosaukumiem tomēr var noderēt... bet nevar īsti paļauties uz to, kādā case būs atgrieztā lemma
+          //TODO - entītiju nosaukumu locīšana varētu būt labāk
+          featuresC.addAll(gazetteMatcher().featuresAt(cInfo, loc));
         }
       }
       
@@ -2453,6 +2640,7 @@ public class NERFeatureFactory<IN extends CoreLabel> extends FeatureFactory<IN>
         readGazette(r, f.getName());
         r.close();
       }
+      gazetteMatcher = null;
     } catch (IOException e) {
       throw new RuntimeException(e);
     }
@@ -8,8 +8,24 @@ import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
 import edu.stanford.nlp.ie.crf.CRFClassifier;
 import edu.stanford.nlp.io.EncodingPrintWriter;
@@ -55,11 +71,43 @@ public class NERServer {
    */
   private final AbstractSequenceClassifier ner;
 
+  /**
+   * Runs the sessions, one thread per open connection, up to the connection limit.
+   */
+  private final ThreadPoolExecutor sessions;
+
+  /**
+   * Runs the classifier.  Requests that find all the workers busy wait in its
+   * bounded queue; requests that find the queue full are turned away.
+   */
+  private final ThreadPoolExecutor workers;
+
+  /**
+   * How long a request may take, counting the time spent in the queue, in milliseconds.
+   */
+  private final long requestTimeout;
+
+  private final Metrics metrics = new Metrics();
+
+  public static final int DEFAULT_MAX_CONNECTIONS = 256;
+  public static final int DEFAULT_QUEUE_SIZE = 1000;
+  public static final long DEFAULT_REQUEST_TIMEOUT = 60000;
+  /** Connections that stay silent for this long (in milliseconds) are closed. */
+  public static final int IDLE_TIMEOUT = 300000;
+  /** Maximum number of requests of one connection that are in the queue at once. */
+  private static final int MAX_IN_FLIGHT = 64;
+
+  /** Request line that switches a connection to keep-alive mode. */
+  public static final String KEEPALIVE_COMMAND = "#!keepalive";
+  /** Request line that asks for the server metrics instead of tagging. */
+  public static final String METRICS_COMMAND = "#!metrics";
+
 
   //// Constructors
 
   /**
-   * Creates a new named entity recognizer server on the specified port.
+   * Creates a new named entity recognizer server on the specified port,
+   * with a single tagging thread.
    *
    * @param port the port this NERServer listens on.
    * @param asc The classifier which will do the tagging
@@ -67,9 +115,45 @@ public class NERServer {
    * @throws IOException If there is a problem creating a ServerSocket
    */
   public NERServer(int port, AbstractSequenceClassifier asc, String charset) throws IOException {
+    this(port, asc, charset, 1, DEFAULT_QUEUE_SIZE, DEFAULT_MAX_CONNECTIONS, DEFAULT_REQUEST_TIMEOUT);
+  }
+
+  /**
+   * Creates a new named entity recognizer server on the specified port.
+   *
+   * @param port the port this NERServer listens on.
+   * @param asc The classifier which will do the tagging
+   * @param charset The character set for encoding Strings over the socket stream, e.g., "utf-8"
+   * @param threads Number of requests tagged at once.  All of them use the same
+   *          classifier, so more than one is only safe with a classifier whose
+   *          classification is reentrant (as CRFClassifier and CMMClassifier with
+   *          NERFeatureFactory are)
+   * @param queueSize Number of requests that may wait for a free thread
+   * @param maxConnections Number of connections that may be open at once
+   * @param requestTimeout Milliseconds a request may take, including the wait in the queue
+   * @throws IOException If there is a problem creating a ServerSocket
+   */
+  public NERServer(int port, AbstractSequenceClassifier<?> asc, String charset,
+                   int threads, int queueSize, int maxConnections, long requestTimeout) throws IOException {
     ner = asc;
     listener = new ServerSocket(port);
     this.charset = charset;
+    this.requestTimeout = requestTimeout;
+    sessions = new ThreadPoolExecutor(0, maxConnections, 60, TimeUnit.SECONDS,
+        new SynchronousQueue<Runnable>(), daemonThreads("NERServer-session"));
+    workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS,
+        new ArrayBlockingQueue<Runnable>(queueSize), daemonThreads("NERServer-worker"));
+  }
+
+  private static ThreadFactory daemonThreads(final String name) {
+    return new ThreadFactory() {
+      private int counter = 0;
+      public synchronized Thread newThread(Runnable r) {
+        Thread t = new Thread(r, name + "-" + (++counter));
+        t.setDaemon(true);
+        return t;
+      }
+    };
   }
 
   //// Public Methods
@@ -87,7 +171,15 @@ public class NERServer {
           System.err.print("Accepted request from ");
           System.err.println(client.getInetAddress().getHostName());
         }
-        new Session(client);
+        sessions.execute(new Session(client));
+      } catch (RejectedExecutionException e) {
+        // admission control: too many open connections
+        metrics.rejected.incrementAndGet();
+        try {
+          client.close();
+        } catch (IOException e2) {
+          System.err.println("NERServer: couldn't close client");
+        }
       } catch (Exception e1) {
         System.err.println("NERServer: couldn't accept");
         e1.printStackTrace(System.err);
@@ -101,14 +193,30 @@ public class NERServer {
     }
   }
 
+  /**
+   * The current server statistics, one "name value" pair per line.
+   */
+  public String metrics() {
+    return metrics.report(workers);
+  }
+
 
   //// Inner Classes
 
   /**
-   * A single user session, accepting one request, processing it, and
-   * sending back the results.
+   * A single user session.  By default it accepts one request, processes it,
+   * sends back the results and closes the connection.
+   * <p>
+   * If the first line is {@link #KEEPALIVE_COMMAND}, the connection stays open
+   * for any number of requests, one per line, and each response starts with a
+   * header line, either "OK n" followed by the n lines of output, or
+   * "ERROR reason".  The client need not wait for a response before sending the
+   * next request: requests that arrive together are tagged in parallel, and
+   * the responses are sent in the order of the requests.
+   * <p>
+   * A {@link #METRICS_COMMAND} line gets the server metrics in place of tagger output.
    */
-  private class Session extends Thread {
+  private class Session implements Runnable {
 
   //// Instance Fields
 
@@ -127,14 +235,19 @@ public class NERServer {
      */
     private PrintWriter out;
 
+    /**
+     * Requests that have been submitted, but not answered yet.
+     */
+    private final Deque<Request> pending = new ArrayDeque<Request>();
+
 
     //// Constructors
 
     private Session(Socket socket) throws IOException {
       client = socket;
+      client.setSoTimeout(IDLE_TIMEOUT);
       in = new BufferedReader(new InputStreamReader(client.getInputStream(), charset));
       out = new PrintWriter(new OutputStreamWriter(client.getOutputStream(), charset));
-      start();
     }
 
 
@@ -145,45 +258,93 @@ public class NERServer {
      * back the result.  The input should be a single line (no embedded
      * newlines), which represents a whole sentence or document.
      */
-    @Override
     public void run() {
       if (DEBUG) {System.err.println("Created new session");}
       String input = null;
       try {
-        // TODO: why not allow for multiple lines of input?
         input = in.readLine();
         if (DEBUG) {
           EncodingPrintWriter.err.println("Receiving: \"" + input + '\"', charset);
         }
+        if (KEEPALIVE_COMMAND.equals(input)) {
+          keepAlive();
+        } else if (METRICS_COMMAND.equals(input)) {
+          out.print(metrics());
+        } else if (input != null) {
+          Request request = new Request(input);
+          String output = request.await();
+          if (output != null) {
+            if (DEBUG) {
+              EncodingPrintWriter.err.println("Sending: \"" + output + '\"', charset);
+            }
+            out.print(output);
+          } else if (DEBUG) {
+            System.err.println("NERServer:Session: " + request.error);
+          }
+        }
+        out.flush();
+      } catch (SocketTimeoutException e) {
+        if (DEBUG) {System.err.println("NERServer:Session: idle connection closed");}
       } catch (IOException e) {
         System.err.println("NERServer:Session: couldn't read input");
         e.printStackTrace(System.err);
-      } catch (NullPointerException npe) {
-        System.err.println("NERServer:Session: connection closed by peer");
-        npe.printStackTrace(System.err);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
       }
-      try {
-        if (! (input == null)) {
-          String output = 
-            ner.classifyToString(input, ner.flags.outputFormat, 
-                                 !"slashTags".equals(ner.flags.outputFormat));
-          
-          if (DEBUG) {
-            EncodingPrintWriter.err.println("Sending: \"" + output + '\"', charset);
+      close();
+    }
+
+    /**
+     * Serves pipelined requests until the client closes the connection.
+     * Requests are read and submitted for as long as more of them are
+     * already waiting in the input; then the pending responses are written.
+     */
+    private void keepAlive() throws IOException, InterruptedException {
+      for (String input; (input = in.readLine()) != null; ) {
+        if (METRICS_COMMAND.equals(input)) {
+          pending.add(new Request(input, metrics()));
+        } else {
+          pending.add(new Request(input));
+        }
+        if (!in.ready() || pending.size() >= MAX_IN_FLIGHT) {
+          respond();
+        }
+      }
+      respond();
+    }
+
+    /**
+     * Writes the responses to all the pending requests, in order.
+     */
+    private void respond() throws InterruptedException {
+      while (!pending.isEmpty()) {
+        Request request = pending.poll();
+        String output = request.await();
+        if (output == null) {
+          out.print("ERROR " + request.error + "\n");
+        } else {
+          String[] lines = output.split("\n", -1);
+          int count = lines.length;
+          if (count > 0 && lines[count - 1].isEmpty()) {
+            count--; // the output ends with a newline
+          }
+          out.print("OK " + count + "\n");
+          for (int i = 0; i < count; i++) {
+            out.print(lines[i]);
+            out.print('\n');
           }
-          out.print(output);
-          out.flush();
         }
-      } catch (RuntimeException e) {
-        // ah well, guess they won't be hearing back from us after all
       }
-      close();
+      out.flush();
     }
 
     /**
      * Terminates this session gracefully.
      */
     private void close() {
+      for (Request request : pending) {
+        request.cancel();
+      }
       try {
         in.close();
         out.close();
@@ -196,6 +357,179 @@ public class NERServer {
 
   } // end class Session
 
+  /**
+   * One document submitted to the worker pool.  If it can't be queued or
+   * doesn't finish in time, there is no output and the reason is in
+   * <code>error</code>.
+   */
+  private class Request implements Callable<String> {
+
+    private final String input;
+    private final String answer;
+    private final long start = System.nanoTime();
+    private Future<String> result;
+    private String error;
+    /** Set when the session no longer waits for the output, which then isn't counted in the metrics */
+    private volatile boolean abandoned = false;
+
+    private Request(String input) {
+      this(input, null);
+    }
+
+    /**
+     * @param answer the response, if it is known without tagging (e.g., for a
+     *          metrics query); null to submit the input to the workers
+     */
+    private Request(String input, String answer) {
+      this.input = input;
+      this.answer = answer;
+      if (answer != null) {
+        return;
+      }
+      try {
+        result = workers.submit(this);
+      } catch (RejectedExecutionException e) {
+        metrics.rejected.incrementAndGet();
+        error = "busy";
+      }
+    }
+
+    /**
+     * Tags the input.  classifyToString stops at the next sentence when the
+     * request is cancelled, so a timed out request frees its worker.
+     */
+    public String call() {
+      String output = ner.classifyToString(input, ner.flags.outputFormat,
+                                           !"slashTags".equals(ner.flags.outputFormat));
+      if (!abandoned) {
+        metrics.record(System.nanoTime() - start, countTokens(input));
+      }
+      return output;
+    }
+
+    /**
+     * Waits for the output, until the request timeout.
+     *
+     * @return the tagged text, or null on failure
+     */
+    private String await() throws InterruptedException {
+      if (answer != null || result == null) {
+        return answer;
+      }
+      long remaining = TimeUnit.MILLISECONDS.toNanos(requestTimeout) - (System.nanoTime() - start);
+      try {
+        return result.get(Math.max(remaining, 0), TimeUnit.NANOSECONDS);
+      } catch (TimeoutException e) {
+        abandoned = true;
+        result.cancel(true);
+        metrics.timeouts.incrementAndGet();
+        error = "timeout";
+      } catch (CancellationException e) {
+        error = "cancelled";
+      } catch (ExecutionException e) {
+        metrics.failures.incrementAndGet();
+        error = "failed: " + e.getCause();
+        System.err.println("NERServer: tagging failed");
+        e.getCause().printStackTrace(System.err);
+      }
+      return null;
+    }
+
+    private void cancel() {
+      abandoned = true;
+      if (result != null) {
+        result.cancel(true);
+      }
+    }
+
+  } // end class Request
+
+  private static int countTokens(String input) {
+    int tokens = 0;
+    boolean inToken = false;
+    for (int i = 0; i < input.length(); i++) {
+      boolean space = Character.isWhitespace(input.charAt(i));
+      if (!space && !inToken) {
+        tokens++;
+      }
+      inToken = !space;
+    }
+    return tokens;
+  }
+
+  /**
+   * Request statistics.  Latencies (from submission to the end of tagging)
+   * and token counts of the last WINDOW requests are kept for the percentiles
+   * and the throughput.
+   */
+  private static class Metrics {
+
+    private static final int WINDOW = 1024;
+
+    final AtomicLong completed = new AtomicLong();
+    final AtomicLong rejected = new AtomicLong();
+    final AtomicLong timeouts = new AtomicLong();
+    final AtomicLong failures = new AtomicLong();
+    final AtomicLong tokens = new AtomicLong();
+    private final long startTime = System.nanoTime();
+
+    private final long[] latencies = new long[WINDOW];
+    private final long[] finishTimes = new long[WINDOW];
+    private final int[] tokenCounts = new int[WINDOW];
+    private int recorded = 0;
+
+    void record(long latency, int tokenCount) {
+      completed.incrementAndGet();
+      tokens.addAndGet(tokenCount);
+      synchronized (this) {
+        int slot = recorded % WINDOW;
+        latencies[slot] = latency;
+        finishTimes[slot] = System.nanoTime();
+        tokenCounts[slot] = tokenCount;
+        recorded++;
+      }
+    }
+
+    String report(ThreadPoolExecutor workers) {
+      long[] window;
+      long oldest;
+      long windowTokens = 0;
+      synchronized (this) {
+        int n = Math.min(recorded, WINDOW);
+        window = Arrays.copyOf(latencies, n);
+        oldest = (n == 0) ? 0 : finishTimes[(recorded - n) % WINDOW];
+        for (int i = 0; i < n; i++) {
+          windowTokens += tokenCounts[i];
+        }
+      }
+      Arrays.sort(window);
+      long now = System.nanoTime();
+      double seconds = (now - oldest) / 1e9;
+
+      StringBuilder sb = new StringBuilder();
+      sb.append("queue_depth ").append(workers.getQueue().size()).append('\n');
+      sb.append("active_workers ").append(workers.getActiveCount()).append('\n');
+      sb.append("completed ").append(completed.get()).append('\n');
+      sb.append("rejected ").append(rejected.get()).append('\n');
+      sb.append("timeouts ").append(timeouts.get()).append('\n');
+      sb.append("failures ").append(failures.get()).append('\n');
+      sb.append("tokens ").append(tokens.get()).append('\n');
+      sb.append(String.format("latency_p50_ms %.2f%n", percentile(window, 0.50) / 1e6));
+      sb.append(String.format("latency_p99_ms %.2f%n", percentile(window, 0.99) / 1e6));
+      sb.append(String.format("tokens_per_second %.1f%n", (window.length == 0) ? 0.0 : windowTokens / seconds));
+      sb.append(String.format("uptime_seconds %.0f%n", (now - startTime) / 1e9));
+      return sb.toString();
+    }
+
+    private static long percentile(long[] sorted, double p) {
+      if (sorted.length == 0) {
+        return 0;
+      }
+      return sorted[Math.min(sorted.length - 1, (int) (p * sorted.length))];
+    }
+
+  } // end class Metrics
+
   /** This example sends material to the NER server one line at a time.
    *  Each line should be at least a whole sentence, or can be a whole
    *  document.
@@ -228,25 +562,37 @@ public class NERServer {
         host = "localhost";
       }
 
-      for (String userInput; (userInput = input.readLine()) != null; ) {
-        if (userInput.matches("\\n?")) {
-          if (closeOnBlank) {
-            break;
-          } else {
-            continue;
+      Socket socket = null;
+      try {
+        // one keep-alive connection for all the lines
+        socket = new Socket(host, port);
+        PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), charset), true);
+        BufferedReader in = new BufferedReader(new InputStreamReader(
+                socket.getInputStream(), charset));
+        out.println(KEEPALIVE_COMMAND);
+        for (String userInput; (userInput = input.readLine()) != null; ) {
+          if (userInput.matches("\\n?")) {
+            if (closeOnBlank) {
+              break;
+            } else {
+              continue;
+            }
           }
-        }
-        try {
-          // TODO: why not keep the same socket for multiple lines?
-          Socket socket = new Socket(host, port);
-          PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), charset), true);
-          BufferedReader in = new BufferedReader(new InputStreamReader(
-                  socket.getInputStream(), charset));
           // send material to NER to socket
           out.println(userInput);
           // Print the results of NER
-          String result;
-          while ((result = in.readLine()) != null) {
+          String header = in.readLine();
+          if (header == null) {
+            System.err.println("Connection closed by the server");
+            return;
+          }
+          if ( ! header.startsWith("OK ")) {
+            System.err.println("NERServer: " + header);
+            continue;
+          }
+          int lines = Integer.parseInt(header.substring(3));
+          for (int i = 0; i < lines; i++) {
+            String result = in.readLine();
             if (output == null) {
               EncodingPrintWriter.out.println(result, charset);
             } else {
@@ -254,23 +600,46 @@ public class NERServer {
               output.newLine();
             }
           }
-          in.close();
+        }
+        in.close();
+      } catch (UnknownHostException e) {
+        System.err.print("Cannot find host: ");
+        System.err.println(host);
+      } catch (IOException e) {
+        System.err.print("I/O error in the connection to: ");
+        System.err.println(host);
+      } finally {
+        if (socket != null) {
           socket.close();
-        } catch (UnknownHostException e) {
-          System.err.print("Cannot find host: ");
-          System.err.println(host);
-          return;
-        } catch (IOException e) {
-          System.err.print("I/O error in the connection to: ");
-          System.err.println(host);
-          return;
         }
       }
     }
+
+    /**
+     * Prints the metrics of a running server.
+     */
+    public static void printMetrics(String host, int port, String charset) throws IOException {
+      if (host == null) {
+        host = "localhost";
+      }
+      Socket socket = new Socket(host, port);
+      try {
+        PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), charset), true);
+        BufferedReader in = new BufferedReader(new InputStreamReader(
+                socket.getInputStream(), charset));
+        out.println(METRICS_COMMAND);
+        for (String line; (line = in.readLine()) != null; ) {
+          System.out.println(line);
+        }
+      } finally {
+        socket.close();
+      }
+    }
   } // end static class NERClient
 
 
-  private static final String USAGE = "Usage: NERServer [-loadClassifier file|-loadJarClassifier resource|-client] -port portNumber";
+  private static final String USAGE = "Usage: NERServer [-loadClassifier file|-loadJarClassifier resource|-client [-metrics]] -port portNumber " +
+      "[-threads n] [-queueSize n] [-maxConnections n] [-timeout milliseconds]";
 
   /**
    * Starts this server on the specified port.  The classifier used can be
@@ -279,7 +648,14 @@ public class NERServer {
    * resource name, which must correspond to the name of a resource in the
    * /classifiers/ directory of the jar file.
    * <p>
-   * Usage: <code>java edu.stanford.nlp.ie.NERServer [-loadClassifier file|-loadJarClassifier resource|-client] -port portNumber</code>
+   * Usage: <code>java edu.stanford.nlp.ie.NERServer [-loadClassifier file|-loadJarClassifier resource|-client [-metrics]] -port portNumber
+   * [-threads n] [-queueSize n] [-maxConnections n] [-timeout milliseconds]</code>
+   * <p>
+   * -threads is the number of documents tagged at once (default 1; use more only
+   * with a classifier that may be shared between threads), -queueSize the number
+   * of documents that may wait for a thread, -maxConnections the number of open
+   * connections and -timeout the time limit for one document.
+   * With -client, -metrics prints the server metrics instead of tagging.
    *
    * @param args Command-line arguments (described above)
    * @throws Exception If file or Java class problems with serialized classifier
@@ -292,6 +668,16 @@ public class NERServer {
     String client = props.getProperty("client");
     String portStr = props.getProperty("port");
     props.remove("port"); // so later code doesn't complain
+    int threads = Integer.parseInt(props.getProperty("threads", "1"));
+    int queueSize = Integer.parseInt(props.getProperty("queueSize", String.valueOf(DEFAULT_QUEUE_SIZE)));
+    int maxConnections = Integer.parseInt(props.getProperty("maxConnections", String.valueOf(DEFAULT_MAX_CONNECTIONS)));
+    long timeout = Long.parseLong(props.getProperty("timeout", String.valueOf(DEFAULT_REQUEST_TIMEOUT)));
+    boolean showMetrics = props.containsKey("metrics");
+    props.remove("threads");
+    props.remove("queueSize");
+    props.remove("maxConnections");
+    props.remove("timeout");
+    props.remove("metrics");
     if (portStr == null || portStr.equals("")) {
       System.err.println(USAGE);
       return;
@@ -317,7 +703,11 @@ public class NERServer {
     if (client != null && ! client.equals("")) {
       // run a test client for illustration/testing
       String host = props.getProperty("host");
-      NERClient.communicateWithNERServer(host, port, charset);
+      if (showMetrics) {
+        NERClient.printMetrics(host, port, charset);
+      } else {
+        NERClient.communicateWithNERServer(host, port, charset);
+      }
     } else {
       AbstractSequenceClassifier asc;
       if (loadFile != null && ! loadFile.equals("")) {
@@ -328,7 +718,7 @@ public class NERServer {
         asc = CRFClassifier.getDefaultClassifier(props);
       }
 
-      new NERServer(port, asc, charset).run();
+      new NERServer(port, asc, charset, threads, queueSize, maxConnections, timeout).run();
     }
   }
 
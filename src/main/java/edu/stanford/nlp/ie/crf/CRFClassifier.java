@@ -39,7 +39,9 @@ import edu.stanford.nlp.optimization.*;
 import edu.stanford.nlp.sequences.*;
 import edu.stanford.nlp.stats.ClassicCounter;
 import edu.stanford.nlp.stats.Counter;
+import edu.stanford.nlp.util.ConcurrentHashIndex;
 import edu.stanford.nlp.util.CoreMap;
+import edu.stanford.nlp.util.ErasureUtils;
 import edu.stanford.nlp.util.Index;
 import edu.stanford.nlp.util.HashIndex;
 import edu.stanford.nlp.util.PaddedList;
@@ -49,10 +51,18 @@ import edu.stanford.nlp.util.StringUtils;
 import edu.stanford.nlp.util.Timing;
 
 import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.lang.reflect.InvocationTargetException;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
@@ -135,10 +145,19 @@ public class CRFClassifier<IN extends CoreMap> extends AbstractSequenceClassifie
   Index<CRFLabel>[] labelIndices;
   /** Parameter weights of the classifier. */
   double[][] weights;
+  /**
+   * The weights in one block, which replace weights: mapped from the file of a
+   * binary model, or in single precision if flags.floatWeights is set when loading
+   */
+  CRFFlatWeights flatWeights;
   /** index the features of CRF */
   Index<String> featureIndex;
+  /** Hashes the features to weight rows instead of featureIndex, which is then null, if flags.featureHashBits is set */
+  CRFFeatureHasher featureHasher;
   /** caches the featureIndex */
   int[] map;
+  /** The Viterbi decoder of each thread classifying with this classifier, made on first use */
+  private final ThreadLocal<CRFViterbiDecoder> viterbiDecoders = new ThreadLocal<CRFViterbiDecoder>();
 
   /**
    * Name of default serialized classifier resource to look for in a jar file.
@@ -170,6 +189,7 @@ public class CRFClassifier<IN extends CoreMap> extends AbstractSequenceClassifie
     this.pad = crf.pad;
     this.knownLCWords = (crf.knownLCWords != null) ? new HashSet<String>(crf.knownLCWords) : null;
     this.featureIndex = (crf.featureIndex != null) ? new HashIndex<String>(crf.featureIndex.objectsList()) : null;
+    this.featureHasher = crf.featureHasher;
     this.classIndex = (crf.classIndex != null) ? new HashIndex<String>(crf.classIndex.objectsList()) : null;
     if (crf.labelIndices != null) {
       this.labelIndices = new HashIndex[crf.labelIndices.length];
@@ -180,22 +200,42 @@ public class CRFClassifier<IN extends CoreMap> extends AbstractSequenceClassifie
     } else {
       this.labelIndices = null;
     }
+    double[][] crfWeights = crf.doubleWeights();
+    if (featureHasher != null) {
+      // hashed rows are the same in both, so they are copied as they are
+      weights = new double[crfWeights.length][];
+      for (int i = 0; i < crfWeights.length; i++) {
+        weights[i] = crfWeights[i].clone();
+      }
+      return;
+    }
     int numFeatures = featureIndex != null ? featureIndex.size() : 0;
     weights = new double[numFeatures][];
     for (int i = 0; i < numFeatures; i++) {
       String feature = featureIndex.get(i);
       int index = crf.featureIndex.indexOf(feature);
-      weights[i] = new double[crf.weights[index].length];
-      System.arraycopy(crf.weights[index], 0, weights[i], 0, weights[i].length);
+      weights[i] = new double[crfWeights[index].length];
+      System.arraycopy(crfWeights[index], 0, weights[i], 0, weights[i].length);
     }
   }
 
+  /** The weight row of a feature of the given clique, or -1 if it has none */
+  private int featureId(String feature, int clique) {
+    return (featureHasher != null) ? featureHasher.indexOf(feature, clique) : featureIndex.indexOf(feature);
+  }
+
+  /** The number of weight rows */
+  private int numFeatures() {
+    return (featureHasher != null) ? featureHasher.numFeatures() : featureIndex.size();
+  }
+
   /**
    * Returns the total number of weights associated with this classifier.
    *
    * @return number of weights
    */
   public int getNumWeights() {
+    if (flatWeights != null) return flatWeights.numWeights();
     if (weights == null) return 0;
     int numWeights = 0;
     for (double[] wts : weights) {
@@ -248,6 +288,9 @@ public class CRFClassifier<IN extends CoreMap> extends AbstractSequenceClassifie
    * @param scale
    */
   public void scaleWeights(double scale) {
+    if (flatWeights != null) {
+      throw new UnsupportedOperationException("The weights of a binary or floatWeights CRFClassifier can't be changed");
+    }
     for (int i = 0; i < weights.length; i++) {
       for (int j = 0; j < weights[i].length; j++) {
         weights[i][j] *= scale;
@@ -336,6 +379,13 @@ public class CRFClassifier<IN extends CoreMap> extends AbstractSequenceClassifie
   public void combine(CRFClassifier<IN> crf, double weight) {
     Timing timer = new Timing();
 
+    if (this.featureHasher != null || crf.featureHasher != null) {
+      throw new UnsupportedOperationException("CRFClassifiers with hashed features can't be combined");
+    }
+    if (this.flatWeights != null || crf.flatWeights != null) {
+      throw new UnsupportedOperationException("Binary or floatWeights CRFClassifiers can't be combined");
+    }
+
     // Check the CRFClassifiers are compatible
     if (!this.pad.equals(crf.pad)) {
       throw new RuntimeException("Incompatible CRFClassifier: pad does not match");
@@ -378,6 +428,7 @@ public class CRFClassifier<IN extends CoreMap> extends AbstractSequenceClassifie
   }
 
   public void dropFeaturesBelowThreshold(double threshold) {
+    double[][] weights = doubleWeights();
     Index<String> newFeatureIndex = new HashIndex<String>();
     for (int i = 0; i < weights.length; i++) {
       double smallest = weights[i][0];
@@ -443,7 +494,7 @@ public class CRFClassifier<IN extends CoreMap> extends AbstractSequenceClassifie
         data[j][k] = new int[cliqueFeatures.size()];
         int m = 0;
         for (String feature : cliqueFeatures) {
-          int index = featureIndex.indexOf(feature);
+          int index = featureId(feature, k);
           if (index >= 0) {
             data[j][k][m] = index;
             m++;
@@ -489,6 +540,7 @@ public class CRFClassifier<IN extends CoreMap> extends AbstractSequenceClassifie
     }
 
     NumberFormat nf = new DecimalFormat();
+    double[][] weights = doubleWeights();
 
     List<String> classes = new ArrayList<String>();
     for (int i = 0; i < classIndex.size(); i++) {
@@ -515,7 +567,7 @@ public class CRFClassifier<IN extends CoreMap> extends AbstractSequenceClassifie
         for (int k = p, fSize = features.size(); k < fSize; k++) {
           Collection<String> cliqueFeatures = (Collection<String>) features.get(k);
           for (String feature : cliqueFeatures) {
-            int index = featureIndex.indexOf(feature);
+            int index = featureId(feature, k);
             if (index >= 0) {
               // line.add(feature+"["+(-p)+"]");
               rowHeaders.add(feature + '[' + (-p) + ']');
@@ -572,19 +624,28 @@ public class CRFClassifier<IN extends CoreMap> extends AbstractSequenceClassifie
     // int[][] labels = new int[documentsSize][];
     List<int[]> labels = new ArrayList<int[]>();
 
-    int numDatums = 0;
+    final List<int[][][]> dataList = data;
+    final List<int[]> labelsList = labels;
+    final int[] numDatums = new int[1];
 
-    for (List<IN> doc : documents) {
-      Pair<int[][][], int[]> docPair = documentToDataAndLabels(doc);
-      data.add(docPair.first());
-      labels.add(docPair.second());
-      numDatums += doc.size();
-    }
+    convertDocuments(documents, new DocumentConverter<Pair<int[][][], int[]>>() {
+      @Override
+      Pair<int[][][], int[]> convert(List<IN> doc) {
+        return documentToDataAndLabels(doc);
+      }
+
+      @Override
+      void collect(List<IN> doc, Pair<int[][][], int[]> docPair) {
+        dataList.add(docPair.first());
+        labelsList.add(docPair.second());
+        numDatums[0] += doc.size();
+      }
+    });
 
     System.err.println("numClasses: " + classIndex.size() + ' ' + classIndex);
     System.err.println("numDocuments: " + data.size());
-    System.err.println("numDatums: " + numDatums);
-    System.err.println("numFeatures: " + featureIndex.size());
+    System.err.println("numDatums: " + numDatums[0]);
+    System.err.println("numFeatures: " + numFeatures());
     printFeatures();
 
     int[][][][] dataA = new int[0][][][];
@@ -602,24 +663,139 @@ public class CRFClassifier<IN extends CoreMap> extends AbstractSequenceClassifie
    *         int[] representing the labels.
    */
   public List<Pair<int[][][], int[]>> documentsToDataAndLabelsList(Collection<List<IN>> documents) {
-    int numDatums = 0;
+    final int[] numDatums = new int[1];
 
-    List<Pair<int[][][], int[]>> docList = new ArrayList<Pair<int[][][], int[]>>();
-    for (List<IN> doc : documents) {
-      Pair<int[][][], int[]> docPair = documentToDataAndLabels(doc);
-      docList.add(docPair);
-      numDatums += doc.size();
-    }
+    final List<Pair<int[][][], int[]>> docList = new ArrayList<Pair<int[][][], int[]>>();
+    convertDocuments(documents, new DocumentConverter<Pair<int[][][], int[]>>() {
+      @Override
+      Pair<int[][][], int[]> convert(List<IN> doc) {
+        return documentToDataAndLabels(doc);
+      }
+
+      @Override
+      void collect(List<IN> doc, Pair<int[][][], int[]> docPair) {
+        docList.add(docPair);
+        numDatums[0] += doc.size();
+      }
+    });
 
     System.err.println("numClasses: " + classIndex.size() + ' ' + classIndex);
     System.err.println("numDocuments: " + docList.size());
-    System.err.println("numDatums: " + numDatums);
-    System.err.println("numFeatures: " + featureIndex.size());
+    System.err.println("numDatums: " + numDatums[0]);
+    System.err.println("numFeatures: " + numFeatures());
     return docList;
   }
 
+  /** The features of the positions of a document, and whether their answer is the background symbol */
+  private static class DocumentFeatures {
+    final List<CRFDatum<List<String>, CRFLabel>> datums;
+    final boolean[] background;
+
+    DocumentFeatures(int size) {
+      datums = new ArrayList<CRFDatum<List<String>, CRFLabel>>(size);
+      background = new boolean[size];
+    }
+  }
+
+  /**
+   * Extracts something from each document, on <code>flags.featureThreads</code>
+   * threads, and hands the results on in document order.
+   */
+  private abstract class DocumentConverter<T> {
+    /** Called for each document in order, on the calling thread, before it is converted */
+    void prepare(List<IN> document) {
+    }
+
+    /** Called on the worker threads; documents may be converted in any order */
+    abstract T convert(List<IN> document);
+
+    /** Called for each document in order, on the calling thread, with its conversion */
+    abstract void collect(List<IN> document, T converted);
+  }
+
+  /** Documents converted at a time by each thread */
+  private static final int DOCUMENTS_PER_THREAD = 16;
+
+  /** CPU nanoseconds the threads of the last convertDocuments spent converting, for reporting its speedup */
+  private transient long conversionWork; // = 0
+
+  /**
+   * Runs the converter over the documents.  On several threads, the documents
+   * are converted in batches, and each batch is collected in document order
+   * before the next one starts, so only one batch of conversions is held in
+   * memory and whatever collect builds (such as the feature index) is the same
+   * as on one thread.  The feature factory must be safe to use from several
+   * threads, as NERFeatureFactory is.
+   */
+  private <T> void convertDocuments(Collection<List<IN>> documents, final DocumentConverter<T> converter) {
+    int threads = conversionThreads();
+    if (threads <= 1) {
+      for (List<IN> doc : documents) {
+        converter.prepare(doc);
+        converter.collect(doc, converter.convert(doc));
+      }
+      return;
+    }
+
+    final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    final AtomicLong work = new AtomicLong();
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    try {
+      List<List<IN>> batch = new ArrayList<List<IN>>();
+      Iterator<List<IN>> iterator = documents.iterator();
+      while (iterator.hasNext()) {
+        List<IN> doc = iterator.next();
+        converter.prepare(doc);
+        batch.add(doc);
+        if (batch.size() == threads * DOCUMENTS_PER_THREAD || !iterator.hasNext()) {
+          List<Callable<T>> conversions = new ArrayList<Callable<T>>(batch.size());
+          for (final List<IN> document : batch) {
+            conversions.add(new Callable<T>() {
+              public T call() {
+                long started = threadBean.getCurrentThreadCpuTime();
+                T converted = converter.convert(document);
+                work.addAndGet(threadBean.getCurrentThreadCpuTime() - started);
+                return converted;
+              }
+            });
+          }
+          List<Future<T>> results = pool.invokeAll(conversions);
+          for (int i = 0; i < batch.size(); i++) {
+            converter.collect(batch.get(i), results.get(i).get());
+          }
+          batch.clear();
+        }
+      }
+    } catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException("Error extracting document features", e.getCause());
+    } finally {
+      pool.shutdown();
+    }
+    conversionWork = work.get();
+  }
+
+  /** Printing the features as they are made needs them made in order, on one thread */
+  private int conversionThreads() {
+    return (flags.printFeatures == null) ? flags.featureThreads : 1;
+  }
+
+  /**
+   * Describes the speedup of the last convertDocuments, which took elapsedMs:
+   * the CPU time the threads spent converting over the time it took.
+   */
+  private String conversionSpeedup(long elapsedMs) {
+    int threads = conversionThreads();
+    if (threads <= 1 || elapsedMs <= 0) {
+      return "";
+    }
+    double speedup = conversionWork / 1e6 / elapsedMs;
+    return " (" + threads + " threads, speedup " + new DecimalFormat("0.00").format(speedup) + ')';
+  }
+
   protected void printFeatures() {
-    if (flags.printFeatures == null) {
+    if (flags.printFeatures == null || featureIndex == null) {
       return;
     }
     try {
@@ -652,7 +828,7 @@ public class CRFClassifier<IN extends CoreMap> extends AbstractSequenceClassifie
    */
   protected void makeAnswerArraysAndTagIndex(Collection<List<IN>> ob) {
 
-    HashSet<String>[] featureIndices = new HashSet[windowSize];
+    final HashSet<String>[] featureIndices = new HashSet[windowSize];
     for (int i = 0; i < windowSize; i++) {
       featureIndices[i] = new HashSet<String>();
     }
@@ -662,94 +838,113 @@ public class CRFClassifier<IN extends CoreMap> extends AbstractSequenceClassifie
       labelIndices[i] = new HashIndex<CRFLabel>();
     }
 
-    Index<CRFLabel> labelIndex = labelIndices[windowSize - 1];
+    final Index<CRFLabel> labelIndex = labelIndices[windowSize - 1];
 
-    classIndex = new HashIndex<String>();
+    // concurrent indices, so that documentsToDataAndLabels can look features up on several threads
+    classIndex = new ConcurrentHashIndex<String>();
     // classIndex.add("O");
     classIndex.add(flags.backgroundSymbol);
 
-    HashSet[] seenBackgroundFeatures = new HashSet[2];
+    final HashSet[] seenBackgroundFeatures = new HashSet[2];
     seenBackgroundFeatures[0] = new HashSet();
     seenBackgroundFeatures[1] = new HashSet();
 
-
-    int wordCount = 0;
-
-    for (List<IN> doc : ob) {
-
-      if (flags.useReverse) {
-        Collections.reverse(doc);
+    final int[] wordCount = new int[1];
+
+    // the features are extracted on several threads, but added to the sets in
+    // document order, so the feature numbering doesn't depend on the threads
+    convertDocuments(ob, new DocumentConverter<DocumentFeatures>() {
+      @Override
+      void prepare(List<IN> doc) {
+        // create the full set of labels in classIndex
+        // note: update to use addAll later
+        int docSize = doc.size();
+        for (int j = 0; j < docSize; j++) {
+          wordCount[0]++;
+          IN wi = doc.get(flags.useReverse ? docSize - 1 - j : j);
+          String ans = wi.get(AnswerAnnotation.class);
+          if (ans == null || ans.equals("")) {
+            throw new IllegalArgumentException("Word " + wordCount[0] + " (\"" + wi.get(TextAnnotation.class) + "\") has a blank answer");
+          }
+          classIndex.add(ans);
+        }
       }
 
-      int docSize = doc.size();
-      // create the full set of labels in classIndex
-      // note: update to use addAll later
-      for (int j = 0; j < docSize; j++) {
-        wordCount++;
-        String ans = doc.get(j).get(AnswerAnnotation.class);
-        if (ans == null || ans.equals("")) {
-          throw new IllegalArgumentException("Word " + wordCount + " (\"" + doc.get(j).get(TextAnnotation.class) + "\") has a blank answer");
+      @Override
+      DocumentFeatures convert(List<IN> doc) {
+        if (flags.useReverse) {
+          Collections.reverse(doc);
+        }
+        int docSize = doc.size();
+        DocumentFeatures docFeatures = new DocumentFeatures(docSize);
+        for (int j = 0; j < docSize; j++) {
+          docFeatures.datums.add(makeDatum(doc, j, featureFactory));
+          docFeatures.background[j] = doc.get(j).get(AnswerAnnotation.class).equals(flags.backgroundSymbol);
+        }
+        if (flags.useReverse) {
+          Collections.reverse(doc);
         }
-        classIndex.add(ans);
+        return docFeatures;
       }
 
-      for (int j = 0; j < docSize; j++) {
-
-        CRFDatum<List<String>, CRFLabel> d = makeDatum(doc, j, featureFactory);
-        labelIndex.add(d.label());
-
-        List<List<String>> features = d.asFeatures();
-        for (int k = 0, fsize = features.size(); k < fsize; k++) {
-          Collection<String> cliqueFeatures = features.get(k);
-          if (k < 2 && flags.removeBackgroundSingletonFeatures) {
-            String ans = doc.get(j).get(AnswerAnnotation.class);
-            boolean background = ans.equals(flags.backgroundSymbol);
-            if (k == 1 && j > 0 && background) {
-              ans = doc.get(j - 1).get(AnswerAnnotation.class);
-              background = ans.equals(flags.backgroundSymbol);
-            }
-            if (background) {
-              for (String f : cliqueFeatures) {
-                if (!featureIndices[k].contains(f)) {
-                  if (seenBackgroundFeatures[k].contains(f)) {
-                    seenBackgroundFeatures[k].remove(f);
-                    featureIndices[k].add(f);
-                  } else {
-                    seenBackgroundFeatures[k].add(f);
+      @Override
+      void collect(List<IN> doc, DocumentFeatures docFeatures) {
+        for (int j = 0, docSize = docFeatures.datums.size(); j < docSize; j++) {
+          CRFDatum<List<String>, CRFLabel> d = docFeatures.datums.get(j);
+          labelIndex.add(d.label());
+
+          List<List<String>> features = d.asFeatures();
+          for (int k = 0, fsize = features.size(); k < fsize; k++) {
+            Collection<String> cliqueFeatures = features.get(k);
+            if (k < 2 && flags.removeBackgroundSingletonFeatures) {
+              boolean background = docFeatures.background[j];
+              if (k == 1 && j > 0 && background) {
+                background = docFeatures.background[j - 1];
+              }
+              if (background) {
+                for (String f : cliqueFeatures) {
+                  if (!featureIndices[k].contains(f)) {
+                    if (seenBackgroundFeatures[k].contains(f)) {
+                      seenBackgroundFeatures[k].remove(f);
+                      featureIndices[k].add(f);
+                    } else {
+                      seenBackgroundFeatures[k].add(f);
+                    }
                   }
                 }
+              } else {
+                seenBackgroundFeatures[k].removeAll(cliqueFeatures);
+                featureIndices[k].addAll(cliqueFeatures);
               }
             } else {
-              seenBackgroundFeatures[k].removeAll(cliqueFeatures);
               featureIndices[k].addAll(cliqueFeatures);
             }
-          } else {
-            featureIndices[k].addAll(cliqueFeatures);
           }
         }
       }
-
-      if (flags.useReverse) {
-        Collections.reverse(doc);
-      }
-    }
+    });
 
     // String[] fs = new String[featureIndices[0].size()];
     // for (Iterator iter = featureIndices[0].iterator(); iter.hasNext(); ) {
     // System.err.println(iter.next());
     // }
 
-    int numFeatures = 0;
-    for (int i = 0; i < windowSize; i++) {
-      numFeatures += featureIndices[i].size();
-    }
+    if (flags.featureHashBits > 0) {
+      featureIndex = null;
+    } else {
+      featureHasher = null;
+      int numFeatures = 0;
+      for (int i = 0; i < windowSize; i++) {
+        numFeatures += featureIndices[i].size();
+      }
 
-    featureIndex = new HashIndex<String>();
-    map = new int[numFeatures];
-    for (int i = 0; i < windowSize; i++) {
-      featureIndex.addAll(featureIndices[i]);
-      for (String str : featureIndices[i]) {
-        map[featureIndex.indexOf(str)] = i;
+      featureIndex = new ConcurrentHashIndex<String>(numFeatures);
+      map = new int[numFeatures];
+      for (int i = 0; i < windowSize; i++) {
+        featureIndex.addAll(featureIndices[i]);
+        for (String str : featureIndices[i]) {
+          map[featureIndex.indexOf(str)] = i;
+        }
       }
     }
 
@@ -767,7 +962,14 @@ public class CRFClassifier<IN extends CoreMap> extends AbstractSequenceClassifie
       }
     }
 
-    if (VERBOSE) {
+    if (flags.featureHashBits > 0) {
+      // the rows of each clique are sized by its labelIndex, so this is done last
+      makeFeatureHasher();
+      featureHasher.printCollisionStatistics(featureIndices);
+      map = featureHasher.map();
+    }
+
+    if (VERBOSE && featureIndex != null) {
       for (int i = 0, fiSize = featureIndex.size(); i < fiSize; i++) {
         System.out.println(i + ": " + featureIndex.get(i));
       }
@@ -1004,8 +1206,7 @@ public class CRFClassifier<IN extends CoreMap> extends AbstractSequenceClassifie
     Pair<int[][][], int[]> p = documentDataAndLabels;
     int[][][] data = p.first();
 
-    CRFCliqueTree cliqueTree = CRFCliqueTree.getCalibratedCliqueTree(weights, data, labelIndices, classIndex.size(),
-        classIndex, flags.backgroundSymbol);
+    CRFCliqueTree cliqueTree = getCalibratedCliqueTree(data);
 
     // Scorer scorer = new Scorer(factorTables);
     return new TestSequenceModel(cliqueTree);
@@ -1025,18 +1226,88 @@ public class CRFClassifier<IN extends CoreMap> extends AbstractSequenceClassifie
       return document;
     }
 
-    SequenceModel model = getSequenceModel(document);
-    return classifyMaxEnt(document, model);
+    return classifyMaxEnt(document, documentToDataAndLabels(document));
   }
 
   private List<IN> classifyMaxEnt(List<IN> document, Pair<int[][][], int[]> documentDataAndLabels) {
     if (document.isEmpty()) {
       return document;
     }
+    if (flags.inferenceType == null || flags.inferenceType.equalsIgnoreCase("Viterbi")) {
+      // only the best labels are needed, so skip the calibrated clique tree
+      int[][][] data = documentDataAndLabels.first();
+      int[] bestSequence = (flatWeights != null) ? viterbiDecoder().bestSequence(flatWeights, data) :
+          viterbiDecoder().bestSequence(weights, data);
+      return setAnswers(document, bestSequence, 0);
+    }
     SequenceModel model = getSequenceModel(document, documentDataAndLabels);
     return classifyMaxEnt(document, model);
   }
 
+  /** The calibrated clique tree of the data of a document, with the weights in use */
+  private CRFCliqueTree<String> getCalibratedCliqueTree(int[][][] data) {
+    if (flatWeights != null) {
+      return CRFCliqueTree.getCalibratedCliqueTree(flatWeights, data, labelIndices, classIndex.size(), classIndex,
+          flags.backgroundSymbol);
+    }
+    return CRFCliqueTree.getCalibratedCliqueTree(weights, data, labelIndices, classIndex.size(), classIndex,
+        flags.backgroundSymbol);
+  }
+
+  /**
+   * If flags.floatWeights is set, replaces the weights by their single
+   * precision copy, with which the classifier then classifies.  Training or
+   * changing the weights needs the double ones, so it won't work after this;
+   * serializing writes the float weights back as doubles.  Weights just
+   * loaded as double[][] drop the flat weights of an earlier model.
+   */
+  private void convertWeights() {
+    if (weights != null) {
+      flatWeights = null;
+      if (flags.floatWeights) {
+        flatWeights = new CRFFloatWeights(weights);
+        weights = null;
+      }
+    } else if (flags.floatWeights && flatWeights instanceof CRFMappedWeights) {
+      flatWeights = new CRFFloatWeights(flatWeights);
+    }
+  }
+
+  /**
+   * Overrides the flags of a loaded model with props, except featureHashBits:
+   * the weight rows of the model are those of the featureHashBits it was
+   * trained with, so a different value is ignored.
+   */
+  private void setLoadProperties(Properties props) {
+    int featureHashBits = flags.featureHashBits;
+    flags.setProperties(props, false);
+    if (flags.featureHashBits != featureHashBits) {
+      System.err.println("Ignoring featureHashBits=" + flags.featureHashBits + ": the model was trained with featureHashBits="
+          + featureHashBits);
+      flags.featureHashBits = featureHashBits;
+    }
+  }
+
+  /** Makes the feature hasher of the model from flags and labelIndices, if it hashes its features */
+  private void makeFeatureHasher() {
+    featureHasher = (flags.featureHashBits > 0) ? new CRFFeatureHasher(labelIndices, flags.featureHashBits) : null;
+  }
+
+  /** The weights as double[][], whether they are kept as double[][] or in one block */
+  private double[][] doubleWeights() {
+    return (flatWeights != null) ? flatWeights.toDoubles() : weights;
+  }
+
+  /** The decoder of the current thread for the current labels */
+  private CRFViterbiDecoder viterbiDecoder() {
+    CRFViterbiDecoder decoder = viterbiDecoders.get();
+    if (decoder == null || ! decoder.isFor(labelIndices, classIndex.size())) {
+      decoder = new CRFViterbiDecoder(labelIndices, classIndex.size(), classIndex.indexOf(flags.backgroundSymbol));
+      viterbiDecoders.set(decoder);
+    }
+    return decoder;
+  }
+
   private List<IN> classifyMaxEnt(List<IN> document, SequenceModel model) {
     if (document.isEmpty()) {
       return document;
@@ -1056,13 +1327,17 @@ public class CRFClassifier<IN extends CoreMap> extends AbstractSequenceClassifie
     }
 
     int[] bestSequence = tagInference.bestSequence(model);
+    return setAnswers(document, bestSequence, windowSize - 1);
+  }
 
+  /** Sets the answers of the document to the labels of bestSequence from offset on */
+  private List<IN> setAnswers(List<IN> document, int[] bestSequence, int offset) {
     if (flags.useReverse) {
       Collections.reverse(document);
     }
     for (int j = 0, docSize = document.size(); j < docSize; j++) {
       IN wi = document.get(j);
-      String guess = classIndex.get(bestSequence[j + windowSize - 1]);
+      String guess = classIndex.get(bestSequence[j + offset]);
       wi.set(AnswerAnnotation.class, guess);
     }
     if (flags.useReverse) {
@@ -1091,8 +1366,7 @@ public class CRFClassifier<IN extends CoreMap> extends AbstractSequenceClassifie
       Collections.reverse(document);
     }
 
-    CRFCliqueTree cliqueTree = CRFCliqueTree.getCalibratedCliqueTree(weights, data, labelIndices, classIndex.size(),
-        classIndex, flags.backgroundSymbol);
+    CRFCliqueTree cliqueTree = getCalibratedCliqueTree(data);
 
     SequenceModel model = cliqueTree;
     SequenceListener listener = cliqueTree;
@@ -1214,8 +1488,7 @@ public class CRFClassifier<IN extends CoreMap> extends AbstractSequenceClassifie
       Collections.reverse(sentence);
     }
 
-    CRFCliqueTree cliqueTree = CRFCliqueTree.getCalibratedCliqueTree(weights, data, labelIndices, classIndex.size(),
-        classIndex, flags.backgroundSymbol);
+    CRFCliqueTree cliqueTree = getCalibratedCliqueTree(data);
 
     SequenceModel model = cliqueTree;
     SequenceListener listener = cliqueTree;
@@ -1290,8 +1563,7 @@ public class CRFClassifier<IN extends CoreMap> extends AbstractSequenceClassifie
       Collections.reverse(newDocument);
     }
 
-    CRFCliqueTree cliqueTree = CRFCliqueTree.getCalibratedCliqueTree(weights, data, labelIndices, classIndex.size(),
-        classIndex, flags.backgroundSymbol);
+    CRFCliqueTree cliqueTree = getCalibratedCliqueTree(data);
 
     SequenceModel model = cliqueTree;
     SequenceListener listener = cliqueTree;
@@ -1360,8 +1632,7 @@ public class CRFClassifier<IN extends CoreMap> extends AbstractSequenceClassifie
     // FactorTable[] factorTables =
     // CRFLogConditionalObjectiveFunction.getCalibratedCliqueTree(weights, data,
     // labelIndices, classIndex.size());
-    CRFCliqueTree cliqueTree = CRFCliqueTree.getCalibratedCliqueTree(weights, data, labelIndices, classIndex.size(),
-        classIndex, flags.backgroundSymbol);
+    CRFCliqueTree cliqueTree = getCalibratedCliqueTree(data);
 
     // for (int i = 0; i < factorTables.length; i++) {
     for (int i = 0; i < cliqueTree.length(); i++) {
@@ -1440,8 +1711,7 @@ public class CRFClassifier<IN extends CoreMap> extends AbstractSequenceClassifie
     // FactorTable[] factorTables =
     // CRFLogConditionalObjectiveFunction.getCalibratedCliqueTree(weights, data,
     // labelIndices, classIndex.size());
-    return CRFCliqueTree.getCalibratedCliqueTree(weights, data, labelIndices, classIndex.size(), classIndex,
-        flags.backgroundSymbol);
+    return getCalibratedCliqueTree(data);
   }
 
   /**
@@ -1499,11 +1769,16 @@ public class CRFClassifier<IN extends CoreMap> extends AbstractSequenceClassifie
    */
   @Override
   public void train(Collection<List<IN>> docs, DocumentReaderAndWriter<IN> readerAndWriter) {
+    if (flags.featureHashBits > 0 && (flags.numTimesPruneFeatures > 0 || flags.exportFeatures != null ||
+        flags.removeBackgroundSingletonFeatures || flags.featureThreshold > 1)) {
+      throw new IllegalArgumentException("featureHashBits can't be used with numTimesPruneFeatures, exportFeatures, " +
+          "removeBackgroundSingletonFeatures or featureThreshold, which need the featureIndex");
+    }
     Timing timer = new Timing();
     timer.start();
     makeAnswerArraysAndTagIndex(docs);
     long elapsedMs = timer.stop();
-    System.err.println("Time to convert docs to feature indices: " + Timing.toSecondsString(elapsedMs) + " seconds");
+    System.err.println("Time to convert docs to feature indices: " + Timing.toSecondsString(elapsedMs) + " seconds" + conversionSpeedup(elapsedMs));
     if (flags.exportFeatures != null) {
       timer.start();
       CRFFeatureExporter<IN> featureExporter = new CRFFeatureExporter<IN>(this);
@@ -1515,7 +1790,7 @@ public class CRFClassifier<IN extends CoreMap> extends AbstractSequenceClassifie
       timer.start();
       Pair<int[][][][], int[][]> dataAndLabels = documentsToDataAndLabels(docs);
       elapsedMs = timer.stop();
-      System.err.println("Time to convert docs to data/labels: " + Timing.toSecondsString(elapsedMs) + " seconds");
+      System.err.println("Time to convert docs to data/labels: " + Timing.toSecondsString(elapsedMs) + " seconds" + conversionSpeedup(elapsedMs));
 
       Evaluator[] evaluators = null;
       if (flags.evaluateIters > 0) {
@@ -1677,6 +1952,7 @@ public class CRFClassifier<IN extends CoreMap> extends AbstractSequenceClassifie
         CRFLogConditionalObjectiveFunction func = new CRFLogConditionalObjectiveFunction(data, labels, featureIndex,
             windowSize, classIndex, labelIndices, map, flags.backgroundSymbol, flags.sigma);
         func.crfType = flags.crfType;
+        func.threads = flags.multiThreadGrad;
         if (evaluators != null) {
           for (Evaluator eval : evaluators) {
             if (eval instanceof CRFClassifierEvaluator) {
@@ -1776,6 +2052,9 @@ public class CRFClassifier<IN extends CoreMap> extends AbstractSequenceClassifie
       } else {
         minimizer = sgdMinimizer;
       }
+    } else if (flags.useHogwildSGD) {
+      minimizer = new HogwildSGDMinimizer<AbstractStochasticCachingDiffUpdateFunction>(flags.sigma, flags.SGDPasses,
+          flags.stochasticBatchSize, flags.tuneSampleSize, flags.multiThreadGrad, flags.hogwildAveraging);
     } else if (flags.useSGDtoQN) {
       minimizer = new SGDToQNMinimizer(flags.initialGain, flags.stochasticBatchSize,
                                        flags.SGDPasses, flags.QNPasses, flags.SGD2QNhessSamples,
@@ -1887,10 +2166,10 @@ public class CRFClassifier<IN extends CoreMap> extends AbstractSequenceClassifie
             for (String feature : features) {
               // System.err.println("feature " + feature);
               // if (featureIndex.indexOf(feature)) ;
-              if (featureIndex == null) {
+              if (featureIndex == null && featureHasher == null) {
                 System.out.println("Feature is NULL!");
               }
-              data[dataIndex][j][k][m] = featureIndex.indexOf(feature);
+              data[dataIndex][j][k][m] = featureId(feature, k);
               m++;
             }
           } catch (Exception e) {
@@ -2131,6 +2410,7 @@ public class CRFClassifier<IN extends CoreMap> extends AbstractSequenceClassifie
     if (line != null) {
       throw new RuntimeException("weights format error");
     }
+    convertWeights();
   }
 
   /**
@@ -2142,6 +2422,9 @@ public class CRFClassifier<IN extends CoreMap> extends AbstractSequenceClassifie
    *          File to write text format of classifier to.
    */
   public void serializeTextClassifier(String serializePath) {
+    if (featureHasher != null) {
+      throw new UnsupportedOperationException("The text format needs the featureIndex, which a model with hashed features has not");
+    }
     System.err.print("Serializing Text classifier to " + serializePath + "...");
     try {
       PrintWriter pw = new PrintWriter(new GZIPOutputStream(new FileOutputStream(serializePath)));
@@ -2179,6 +2462,7 @@ public class CRFClassifier<IN extends CoreMap> extends AbstractSequenceClassifie
 
       pw.printf("<windowSize> %d </windowSize>\n", windowSize);
 
+      double[][] weights = doubleWeights();
       pw.printf("weights.length=\t%d\n", weights.length);
       for (double[] ws : weights) {
         ArrayList<Double> list = new ArrayList<Double>();
@@ -2216,7 +2500,7 @@ public class CRFClassifier<IN extends CoreMap> extends AbstractSequenceClassifie
       oos.writeObject(flags);
       oos.writeObject(featureFactory);
       oos.writeInt(windowSize);
-      oos.writeObject(weights);
+      oos.writeObject(doubleWeights());
       // oos.writeObject(WordShapeClassifier.getKnownLowerCaseWords());
 
       oos.writeObject(knownLCWords);
@@ -2255,12 +2539,14 @@ public class CRFClassifier<IN extends CoreMap> extends AbstractSequenceClassifie
     featureFactory = (edu.stanford.nlp.sequences.FeatureFactory) ois.readObject();
 
     if (props != null) {
-      flags.setProperties(props, false);
+      setLoadProperties(props);
     }
     reinit();
 
     windowSize = ois.readInt();
+    makeFeatureHasher();
     weights = (double[][]) ois.readObject();
+    convertWeights();
 
     // WordShapeClassifier.setKnownLowerCaseWords((Set) ois.readObject());
     knownLCWords = (Set<String>) ois.readObject();
@@ -2271,6 +2557,100 @@ public class CRFClassifier<IN extends CoreMap> extends AbstractSequenceClassifie
     }
   }
 
+  /**
+   * {@inheritDoc}
+   * The features are renumbered in the sorted order of the binary feature table.
+   */
+  @Override
+  public void serializeBinaryClassifier(String serializePath) throws IOException {
+    System.err.print("Serializing binary classifier to " + serializePath + "...");
+    BinaryModel.Writer model = new BinaryModel.Writer();
+    Properties header = new Properties();
+    header.setProperty("classifier", CRFClassifier.class.getName());
+    header.setProperty("windowSize", Integer.toString(windowSize));
+    model.putProperties("header", header);
+    model.putProperties("flags", BinaryModel.flagsToProperties(flags));
+    model.putObject("featureFactory", featureFactory);
+    model.putStrings("classIndex", classIndex.objectsList());
+    if (featureHasher != null) {
+      model.putMatrix("weights", doubleWeights());
+    } else {
+      model.putSortedIndex("featureIndex", featureIndex, "weights", doubleWeights());
+    }
+    // labelIndices: their number, then for each its size and the labels, each as its length and values
+    List<Integer> labels = new ArrayList<Integer>();
+    labels.add(labelIndices.length);
+    for (Index<CRFLabel> labelIndex : labelIndices) {
+      labels.add(labelIndex.size());
+      for (CRFLabel label : labelIndex) {
+        labels.add(label.getLabel().length);
+        for (int l : label.getLabel()) {
+          labels.add(l);
+        }
+      }
+    }
+    int[] labelInts = new int[labels.size()];
+    for (int i = 0; i < labelInts.length; i++) {
+      labelInts[i] = labels.get(i);
+    }
+    model.putInts("labelIndices", labelInts);
+    if (knownLCWords != null) {
+      model.putStrings("knownLCWords", knownLCWords);
+    }
+    model.save(serializePath);
+    System.err.println("done.");
+  }
+
+  /**
+   * Loads a binary model. The feature index and the weights come from the
+   * mapped file, and the weights are read from it in place when classifying
+   * (unless flags.floatWeights copies them); the rest is as in
+   * {@link #loadClassifier(ObjectInputStream, Properties)}.
+   */
+  @Override
+  @SuppressWarnings("unchecked")
+  protected void loadBinaryClassifier(BinaryModel model, Properties props) throws IOException, ClassNotFoundException {
+    Properties header = model.getProperties("header");
+    if (!CRFClassifier.class.getName().equals(header.getProperty("classifier"))) {
+      throw new IOException(model.source() + " is a binary model of " + header.getProperty("classifier"));
+    }
+    int[] labels = model.getInts("labelIndices");
+    int pos = 0;
+    labelIndices = ErasureUtils.mkTArray(Index.class, labels[pos++]);
+    for (int i = 0; i < labelIndices.length; i++) {
+      labelIndices[i] = new HashIndex<CRFLabel>();
+      int size = labels[pos++];
+      for (int j = 0; j < size; j++) {
+        int[] label = new int[labels[pos++]];
+        for (int k = 0; k < label.length; k++) {
+          label[k] = labels[pos++];
+        }
+        labelIndices[i].add(new CRFLabel(label));
+      }
+    }
+    classIndex = new HashIndex<String>(model.getStrings("classIndex"));
+    featureIndex = model.has("featureIndex") ? model.getIndex("featureIndex") : null;
+    flags = BinaryModel.propertiesToFlags(model.getProperties("flags"));
+    featureFactory = (edu.stanford.nlp.sequences.FeatureFactory) model.getObject("featureFactory");
+
+    if (props != null) {
+      setLoadProperties(props);
+    }
+    reinit();
+
+    windowSize = Integer.parseInt(header.getProperty("windowSize"));
+    makeFeatureHasher();
+    weights = null;
+    flatWeights = new CRFMappedWeights(model.getMappedMatrix("weights"));
+    convertWeights();
+    if (model.has("knownLCWords")) {
+      knownLCWords = Collections.newSetFromMap(new ConcurrentHashMap<String,Boolean>());
+      knownLCWords.addAll(model.getStrings("knownLCWords"));
+    } else {
+      knownLCWords = null;
+    }
+  }
+
   /**
    * This is used to load the default supplied classifier stored within the jar
    * file. THIS FUNCTION WILL ONLY WORK IF THE CODE WAS LOADED FROM A JAR FILE
@@ -2406,6 +2786,7 @@ public class CRFClassifier<IN extends CoreMap> extends AbstractSequenceClassifie
     String loadTextPath = crf.flags.loadTextClassifier;
     String serializeTo = crf.flags.serializeTo;
     String serializeToText = crf.flags.serializeToText;
+    String serializeToBinary = crf.flags.serializeToBinary;
 
     if (loadPath != null) {
       crf.loadClassifierNoExceptions(loadPath, props);
@@ -2438,6 +2819,10 @@ public class CRFClassifier<IN extends CoreMap> extends AbstractSequenceClassifie
       crf.serializeTextClassifier(serializeToText);
     }
 
+    if (serializeToBinary != null) {
+      crf.serializeBinaryClassifier(serializeToBinary);
+    }
+
     if (testFile != null) {
       DocumentReaderAndWriter<CoreLabel> readerAndWriter = crf.makeReaderAndWriter();
       if (crf.flags.searchGraphPrefix != null) {
@@ -2471,6 +2856,10 @@ public class CRFClassifier<IN extends CoreMap> extends AbstractSequenceClassifie
   }
 
   public void writeWeights(PrintStream p) {
+    if (featureIndex == null) {
+      throw new UnsupportedOperationException("The weights of hashed features have no feature names");
+    }
+    double[][] weights = doubleWeights();
     for (String feature : featureIndex) {
       int index = featureIndex.indexOf(feature);
       // line.add(feature+"["+(-p)+"]");
@@ -513,15 +513,32 @@ public class CRFCliqueTree<E> implements SequenceModel, SequenceListener {
       int numClasses, Index<E> classIndex, E backgroundSymbol) {
 
     FactorTable[] factorTables = new FactorTable[data.length];
-    FactorTable[] messages = new FactorTable[data.length - 1];
+    for (int i = 0; i < data.length; i++) {
+      factorTables[i] = getFactorTable(weights, data[i], labelIndices, numClasses);
+    }
+    return calibrate(factorTables, classIndex, backgroundSymbol);
+  }
 
+  /**
+   * @return a new CRFCliqueTree for the flat weights on the data
+   */
+  static <E> CRFCliqueTree<E> getCalibratedCliqueTree(CRFFlatWeights weights, int[][][] data,
+      Index<CRFLabel>[] labelIndices, int numClasses, Index<E> classIndex, E backgroundSymbol) {
+
+    FactorTable[] factorTables = new FactorTable[data.length];
     for (int i = 0; i < data.length; i++) {
       factorTables[i] = getFactorTable(weights, data[i], labelIndices, numClasses);
+    }
+    return calibrate(factorTables, classIndex, backgroundSymbol);
+  }
 
-      if (i > 0) {
-        messages[i - 1] = factorTables[i - 1].sumOutFront();
-        factorTables[i].multiplyInFront(messages[i - 1]);
-      }
+  /** Passes the messages between the factor tables of a document, both ways */
+  private static <E> CRFCliqueTree<E> calibrate(FactorTable[] factorTables, Index<E> classIndex, E backgroundSymbol) {
+    FactorTable[] messages = new FactorTable[factorTables.length - 1];
+
+    for (int i = 1; i < factorTables.length; i++) {
+      messages[i - 1] = factorTables[i - 1].sumOutFront();
+      factorTables[i].multiplyInFront(messages[i - 1]);
     }
 
     for (int i = factorTables.length - 2; i >= 0; i--) {
@@ -636,6 +653,35 @@ public class CRFCliqueTree<E> implements SequenceModel, SequenceListener {
     return factorTable;
   }
 
+  private static FactorTable getFactorTable(CRFFlatWeights weights, int[][] data, Index<CRFLabel>[] labelIndices,
+      int numClasses) {
+
+    int[] offsets = weights.offsets;
+    FactorTable factorTable = null;
+
+    for (int j = 0; j < labelIndices.length; j++) {
+      Index<CRFLabel> labelIndex = labelIndices[j];
+      FactorTable ft = new FactorTable(numClasses, j + 1);
+
+      // ... and each possible labeling for that clique
+      for (int k = 0, liSize = labelIndex.size(); k < liSize; k++) {
+        int[] label = labelIndex.get(k).getLabel();
+        double weight = 0.0;
+        for (int m = 0; m < data[j].length; m++) {
+          weight += weights.weight(offsets[data[j][m]] + k);
+        }
+        ft.setValue(label, weight);
+      }
+      if (j > 0) {
+        ft.multiplyInEnd(factorTable);
+      }
+      factorTable = ft;
+
+    }
+
+    return factorTable;
+  }
+
   // SEQUENCE MODEL METHODS
 
   /**
@@ -0,0 +1,136 @@
+package edu.stanford.nlp.ie.crf;
+
+import java.text.DecimalFormat;
+import java.text.NumberFormat;
+import java.util.Arrays;
+import java.util.Collection;
+
+import edu.stanford.nlp.util.Index;
+
+/**
+ * Maps the String features of a CRF to weight rows by hashing, instead of
+ * through a feature Index (the "hashing trick").  Each clique size has its own
+ * space of rows, as the rows of a clique have one weight for each of its
+ * labelings: the row of feature f of clique k is
+ * <code>first[k] + (hash(f) mod 2<sup>bits[k]</sup>)</code>.  The first clique
+ * gets <code>2<sup>bits</sup></code> rows, and each larger clique, whose rows
+ * are wider, as many fewer (to a power of 2) as keep its weights about as many.
+ * <p>
+ * No feature strings are kept, so a model needs no featureIndex, and finding a
+ * row hashes the characters of the feature once, without a table lookup.  The
+ * price is that features which hash to the same row share its weights; see
+ * {@link #printCollisionStatistics}.  Any feature also has a row, so features
+ * that were never seen in training still get the weights of their row.
+ */
+class CRFFeatureHasher {
+
+  /** The log2 of the number of rows of each clique */
+  private final int[] bits;
+  /** The first row of each clique; first[bits.length] is the number of rows */
+  private final int[] first;
+
+  /**
+   * @param labelIndices The labelings of each clique, as in CRFClassifier
+   * @param bits The log2 of the number of rows of the first clique
+   */
+  CRFFeatureHasher(Index<CRFLabel>[] labelIndices, int bits) {
+    if (bits < 1 || bits > 26) {
+      throw new IllegalArgumentException("featureHashBits must be from 1 to 26, not " + bits);
+    }
+    this.bits = new int[labelIndices.length];
+    first = new int[labelIndices.length + 1];
+    for (int k = 0; k < labelIndices.length; k++) {
+      int widthRatio = labelIndices[k].size() / labelIndices[0].size();
+      this.bits[k] = Math.max(1, bits - (31 - Integer.numberOfLeadingZeros(Math.max(1, widthRatio))));
+      first[k + 1] = first[k] + (1 << this.bits[k]);
+    }
+  }
+
+  /** The number of weight rows, for all the clique sizes */
+  int numFeatures() {
+    return first[bits.length];
+  }
+
+  /** The weight row of a feature of the given clique */
+  int indexOf(String feature, int clique) {
+    return first[clique] + (hash(feature) & ((1 << bits[clique]) - 1));
+  }
+
+  /** The clique of each weight row, as CRFClassifier.map */
+  int[] map() {
+    int[] map = new int[numFeatures()];
+    for (int k = 0; k < bits.length; k++) {
+      Arrays.fill(map, first[k], first[k + 1], k);
+    }
+    return map;
+  }
+
+  /**
+   * MurmurHash3 (x86, 32 bit) of the characters of s, two at a time; it mixes
+   * all the bits into the low ones that pick the row, which String.hashCode
+   * does poorly for the similar strings that features are.
+   */
+  static int hash(String s) {
+    int h = 0x5bd1e995;
+    int length = s.length();
+    int i = 0;
+    for (; i + 1 < length; i += 2) {
+      h = mixIntoHash(h, s.charAt(i) | (s.charAt(i + 1) << 16));
+    }
+    if (i < length) {
+      int k = s.charAt(i) * 0xcc9e2d51;
+      k = Integer.rotateLeft(k, 15) * 0x1b873593;
+      h ^= k;
+    }
+    h ^= length * 2;
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    h ^= h >>> 16;
+    return h;
+  }
+
+  private static int mixIntoHash(int h, int k) {
+    k *= 0xcc9e2d51;
+    k = Integer.rotateLeft(k, 15);
+    k *= 0x1b873593;
+    h ^= k;
+    h = Integer.rotateLeft(h, 13);
+    return h * 5 + 0xe6546b64;
+  }
+
+  /**
+   * Prints, for each clique, how many distinct training features there are,
+   * how many rows they take, and how many of them share a row with another.
+   *
+   * @param features The distinct features of each clique
+   */
+  void printCollisionStatistics(Collection<String>[] features) {
+    NumberFormat nf = new DecimalFormat("0.00");
+    for (int k = 0; k < features.length; k++) {
+      int rows = 1 << bits[k];
+      int[] counts = new int[rows];
+      for (String feature : features[k]) {
+        counts[hash(feature) & (rows - 1)]++;
+      }
+      int used = 0;
+      int shared = 0;
+      int maxPerRow = 0;
+      for (int count : counts) {
+        if (count > 0) {
+          used++;
+        }
+        if (count > 1) {
+          shared += count;
+        }
+        maxPerRow = Math.max(maxPerRow, count);
+      }
+      int n = features[k].size();
+      System.err.println("Feature hashing, clique " + (k + 1) + ": " + n + " features in " + used + " of " + rows +
+          " rows (" + nf.format(100.0 * used / rows) + "% used), " + shared + " features (" +
+          nf.format(n == 0 ? 0.0 : 100.0 * shared / n) + "%) share a row, at most " + maxPerRow + " in one");
+    }
+  }
+
+}
@@ -0,0 +1,43 @@
+package edu.stanford.nlp.ie.crf;
+
+/**
+ * The weights of a CRF for classifying, all in one block, feature after
+ * feature, so there is no array object per feature: the weight of feature f
+ * for clique labeling k is <code>weight(offsets[f] + k)</code>.  A
+ * CRFClassifier that has them keeps no double[][] weights; see
+ * {@link CRFFloatWeights} and {@link CRFMappedWeights}.
+ */
+abstract class CRFFlatWeights {
+
+  /** Where the weights of each feature start; offsets[numFeatures()] is the number of weights */
+  final int[] offsets;
+
+  CRFFlatWeights(int[] offsets) {
+    this.offsets = offsets;
+  }
+
+  /** The weight at the given place of the block */
+  abstract double weight(int i);
+
+  int numFeatures() {
+    return offsets.length - 1;
+  }
+
+  int numWeights() {
+    return offsets[numFeatures()];
+  }
+
+  /** The weights as double[][], as CRFClassifier keeps them */
+  double[][] toDoubles() {
+    double[][] doubleWeights = new double[numFeatures()][];
+    for (int f = 0; f < doubleWeights.length; f++) {
+      int offset = offsets[f];
+      doubleWeights[f] = new double[offsets[f + 1] - offset];
+      for (int k = 0; k < doubleWeights[f].length; k++) {
+        doubleWeights[f][k] = weight(offset + k);
+      }
+    }
+    return doubleWeights;
+  }
+
+}
@@ -0,0 +1,49 @@
+package edu.stanford.nlp.ie.crf;
+
+/**
+ * The weights of a CRF in single precision, for classifying with half the
+ * memory of the double[][] weights that training makes.
+ * <p>
+ * Only the stored weights lose precision; sums of them are still taken in
+ * double, so the labels found differ from those of the double weights only
+ * where two labelings score within float rounding of each other.
+ */
+class CRFFloatWeights extends CRFFlatWeights {
+
+  final float[] weights;
+
+  CRFFloatWeights(double[][] doubleWeights) {
+    super(offsetsOf(doubleWeights));
+    weights = new float[numWeights()];
+    for (int f = 0; f < doubleWeights.length; f++) {
+      double[] row = doubleWeights[f];
+      int offset = offsets[f];
+      for (int k = 0; k < row.length; k++) {
+        weights[offset + k] = (float) row[k];
+      }
+    }
+  }
+
+  /** A single precision copy of other flat weights */
+  CRFFloatWeights(CRFFlatWeights other) {
+    super(other.offsets);
+    weights = new float[numWeights()];
+    for (int i = 0; i < weights.length; i++) {
+      weights[i] = (float) other.weight(i);
+    }
+  }
+
+  private static int[] offsetsOf(double[][] doubleWeights) {
+    int[] offsets = new int[doubleWeights.length + 1];
+    for (int f = 0; f < doubleWeights.length; f++) {
+      offsets[f + 1] = offsets[f] + doubleWeights[f].length;
+    }
+    return offsets;
+  }
+
+  @Override
+  double weight(int i) {
+    return weights[i];
+  }
+
+}
@@ -4,7 +4,13 @@ import edu.stanford.nlp.math.ArrayMath;
 import edu.stanford.nlp.optimization.AbstractStochasticCachingDiffUpdateFunction;
 import edu.stanford.nlp.util.Index;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 /**
  * @author Jenny Finkel
@@ -38,6 +44,12 @@ public class CRFLogConditionalObjectiveFunction extends AbstractStochasticCachin
   String crfType = "maxent";
   String backgroundSymbol;
 
+  /** Number of threads computing the gradient in calculate() */
+  int threads = 1;
+  private ForkJoinPool pool;
+  private int[] shareStarts;
+  private double[][][] shareE;
+
   public static boolean VERBOSE = false;
 
   public static int getPriorType(String priorTypeStr)
@@ -199,52 +211,12 @@ public class CRFLogConditionalObjectiveFunction extends AbstractStochasticCachin
     // first index is feature index, second index is of possible labeling
     double[][] E = empty2D();
 
-    // iterate over all the documents
-    for (int m = 0; m < data.length; m++) {
-      int[][][] docData = data[m];
-      int[] docLabels = labels[m];
-
-      // make a clique tree for this document
-      CRFCliqueTree cliqueTree = CRFCliqueTree.getCalibratedCliqueTree(weights, docData, labelIndices, numClasses, classIndex, backgroundSymbol);
-
-      // compute the log probability of the document given the model with the parameters x
-      int[] given = new int[window - 1];
-      Arrays.fill(given, classIndex.indexOf(backgroundSymbol));
-      if (docLabels.length>docData.length) { // only true for self-training
-        // fill the given array with the extra docLabels
-        System.arraycopy(docLabels, 0, given, 0, given.length);
-        // shift the docLabels array left
-        int[] newDocLabels = new int[docData.length];
-        System.arraycopy(docLabels, docLabels.length-newDocLabels.length, newDocLabels, 0, newDocLabels.length);
-        docLabels = newDocLabels;
-      }
-      // iterate over the positions in this document
-      for (int i = 0; i < docData.length; i++) {
-        int label = docLabels[i];
-        double p = cliqueTree.condLogProbGivenPrevious(i, label, given);
-        if (VERBOSE) {
-          System.err.println("P(" + label + "|" + ArrayMath.toString(given) + ")=" + p);
-        }
-        prob += p;
-        System.arraycopy(given, 1, given, 0, given.length - 1);
-        given[given.length - 1] = label;
-      }
-
-      // compute the expected counts for this document, which we will need to compute the derivative
-      // iterate over the positions in this document
-      for (int i = 0; i < data[m].length; i++) {
-        // for each possible clique at this position
-        for (int j = 0; j < data[m][i].length; j++) {
-          Index<CRFLabel> labelIndex = labelIndices[j];
-          // for each possible labeling for that clique
-          for (int k = 0; k < labelIndex.size(); k++) {
-            int[] label = labelIndex.get(k).getLabel();
-            double p = cliqueTree.prob(i, label); // probability of these labels occurring in this clique with these features
-            for (int n = 0; n < data[m][i][j].length; n++) {
-              E[data[m][i][j][n]][k] += p;
-            }
-          }
-        }
+    if (threads > 1 && data.length > 1) {
+      prob = parallelExpectedCountsAndValue(E, weights);
+    } else {
+      // iterate over all the documents
+      for (int m = 0; m < data.length; m++) {
+        prob += expectedCountsAndValueForADoc(E, weights, m);
       }
     }
 
@@ -303,6 +275,143 @@ public class CRFLogConditionalObjectiveFunction extends AbstractStochasticCachin
 
   }
 
+  /**
+   * Adds the expected counts of the features in document m to E; returns the log probability of its labels.
+   */
+  private double expectedCountsAndValueForADoc(double[][] E, double[][] weights, int m) {
+    double prob = 0.0;
+    int[][][] docData = data[m];
+    int[] docLabels = labels[m];
+
+    // make a clique tree for this document
+    CRFCliqueTree cliqueTree = CRFCliqueTree.getCalibratedCliqueTree(weights, docData, labelIndices, numClasses, classIndex, backgroundSymbol);
+
+    // compute the log probability of the document given the model with the parameters x
+    int[] given = new int[window - 1];
+    Arrays.fill(given, classIndex.indexOf(backgroundSymbol));
+    if (docLabels.length>docData.length) { // only true for self-training
+      // fill the given array with the extra docLabels
+      System.arraycopy(docLabels, 0, given, 0, given.length);
+      // shift the docLabels array left
+      int[] newDocLabels = new int[docData.length];
+      System.arraycopy(docLabels, docLabels.length-newDocLabels.length, newDocLabels, 0, newDocLabels.length);
+      docLabels = newDocLabels;
+    }
+    // iterate over the positions in this document
+    for (int i = 0; i < docData.length; i++) {
+      int label = docLabels[i];
+      double p = cliqueTree.condLogProbGivenPrevious(i, label, given);
+      if (VERBOSE) {
+        System.err.println("P(" + label + "|" + ArrayMath.toString(given) + ")=" + p);
+      }
+      prob += p;
+      System.arraycopy(given, 1, given, 0, given.length - 1);
+      given[given.length - 1] = label;
+    }
+
+    // compute the expected counts for this document, which we will need to compute the derivative
+    // iterate over the positions in this document
+    for (int i = 0; i < docData.length; i++) {
+      // for each possible clique at this position
+      for (int j = 0; j < docData[i].length; j++) {
+        Index<CRFLabel> labelIndex = labelIndices[j];
+        // for each possible labeling for that clique
+        for (int k = 0; k < labelIndex.size(); k++) {
+          int[] label = labelIndex.get(k).getLabel();
+          double p = cliqueTree.prob(i, label); // probability of these labels occurring in this clique with these features
+          for (int n = 0; n < docData[i][j].length; n++) {
+            E[docData[i][j][n]][k] += p;
+          }
+        }
+      }
+    }
+    return prob;
+  }
+
+  /**
+   * Computes the expected counts and the log probability of all the documents on <code>threads</code> threads.
+   * The documents are split into contiguous shares with about the same number of tokens; each share is summed
+   * into its own buffer, and the buffers are added up in share order, so the result does not depend on scheduling.
+   * It differs from the serial sum only by the rounding of the different summation order.
+   */
+  private double parallelExpectedCountsAndValue(double[][] E, final double[][] weights) {
+    if (pool == null) {
+      pool = new ForkJoinPool(threads);
+      shareStarts = shareStarts(threads);
+      shareE = new double[shareStarts.length - 1][][];
+      for (int t = 1; t < shareE.length; t++) {
+        shareE[t] = empty2D();
+      }
+    }
+    shareE[0] = E; // the first share goes straight into E
+    List<Callable<Double>> shares = new ArrayList<Callable<Double>>();
+    for (int t = 0; t < shareE.length; t++) {
+      final double[][] buffer = shareE[t];
+      final int from = shareStarts[t];
+      final int to = shareStarts[t + 1];
+      final boolean reused = (t > 0);
+      shares.add(new Callable<Double>() {
+        public Double call() {
+          if (reused) {
+            for (double[] row : buffer) {
+              Arrays.fill(row, 0.0);
+            }
+          }
+          double prob = 0.0;
+          for (int m = from; m < to; m++) {
+            prob += expectedCountsAndValueForADoc(buffer, weights, m);
+          }
+          return prob;
+        }
+      });
+    }
+
+    double prob = 0.0;
+    try {
+      List<Future<Double>> results = pool.invokeAll(shares);
+      for (Future<Double> result : results) {
+        prob += result.get();
+      }
+    } catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException("Error computing the gradient", e.getCause());
+    }
+    for (int t = 1; t < shareE.length; t++) {
+      for (int i = 0; i < E.length; i++) {
+        ArrayMath.pairwiseAddInPlace(E[i], shareE[t][i]);
+      }
+    }
+    return prob;
+  }
+
+  /**
+   * Splits the documents into (at most) the given number of contiguous shares with about the same number of tokens.
+   * Share t holds the documents from shareStarts[t] up to shareStarts[t+1].
+   */
+  private int[] shareStarts(int shares) {
+    long tokens = 0;
+    for (int[][][] doc : data) {
+      tokens += doc.length;
+    }
+    List<Integer> starts = new ArrayList<Integer>();
+    starts.add(0);
+    long seen = 0;
+    for (int m = 0; m < data.length; m++) {
+      seen += data[m].length;
+      // close the share once it has reached its part of the tokens, but keep the last document for the last share
+      if (starts.size() < shares && seen * shares >= tokens * starts.size() && m + 1 < data.length) {
+        starts.add(m + 1);
+      }
+    }
+    starts.add(data.length);
+    int[] result = new int[starts.size()];
+    for (int t = 0; t < result.length; t++) {
+      result[t] = starts.get(t);
+    }
+    return result;
+  }
+
   @Override
   public void calculateStochastic(double[] x, double [] v, int[] batch){
     calculateStochasticGradientOnly(x,batch);
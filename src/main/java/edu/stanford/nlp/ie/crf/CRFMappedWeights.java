@@ -0,0 +1,25 @@
+package edu.stanford.nlp.ie.crf;
+
+import edu.stanford.nlp.ie.BinaryModel;
+
+/**
+ * The weights of a CRF loaded from a binary model, read in place from the
+ * weight block of the mapped file.  Processes that load the same model file
+ * share its pages rather than each keeping a heap copy; only the offsets of
+ * the features are on the heap.
+ */
+class CRFMappedWeights extends CRFFlatWeights {
+
+  private final java.nio.DoubleBuffer values;
+
+  CRFMappedWeights(BinaryModel.MappedMatrix matrix) {
+    super(matrix.offsets);
+    values = matrix.values;
+  }
+
+  @Override
+  double weight(int i) {
+    return values.get(i);
+  }
+
+}
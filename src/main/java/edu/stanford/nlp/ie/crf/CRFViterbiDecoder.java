@@ -0,0 +1,199 @@
+package edu.stanford.nlp.ie.crf;
+
+import java.util.Arrays;
+
+import edu.stanford.nlp.util.Index;
+
+/**
+ * Finds the most likely label sequence of a document for a CRF by
+ * max-product Viterbi directly over the log potentials of its windows.
+ * <p>
+ * The usual route, a calibrated {@link CRFCliqueTree} searched by an
+ * ExactBestSequenceFinder, first runs forward-backward over FactorTables to
+ * get the conditional probabilities that the search then sums.  The best
+ * sequence under those conditionals is the one with the highest total
+ * potential, with the labels before the document fixed to the background
+ * class, so this decoder only sums the weights of each window (as
+ * CRFCliqueTree.getFactorTable does) and maximizes over them, keeping its
+ * work arrays between documents.  Probabilities still need the clique tree.
+ * <p>
+ * The weights may also be {@link CRFFlatWeights}, in single precision or
+ * mapped from a binary model; the potentials are summed in double either way.
+ * <p>
+ * A decoder keeps state between calls, so each thread needs its own.
+ */
+class CRFViterbiDecoder {
+
+  private final Index<CRFLabel>[] labelIndices;
+  private final int numClasses;
+  private final int window;
+  private final int background;
+  /** For each clique size, the potential table index of each of its labelings */
+  private final int[][] cliqueLabels;
+  /** numClasses to the power of 1 .. window */
+  private final int[] powers;
+
+  private double[] potentials = new double[0];
+  private double[] scratch = new double[0];
+  private double[] best = new double[0];
+  private double[] nextBest = new double[0];
+  private int[] backpointers = new int[0];
+
+  CRFViterbiDecoder(Index<CRFLabel>[] labelIndices, int numClasses, int background) {
+    this.labelIndices = labelIndices;
+    this.numClasses = numClasses;
+    this.window = labelIndices.length;
+    this.background = background;
+    powers = new int[window + 1];
+    powers[0] = 1;
+    for (int i = 1; i <= window; i++) {
+      powers[i] = powers[i - 1] * numClasses;
+    }
+    cliqueLabels = new int[window][];
+    for (int j = 0; j < window; j++) {
+      cliqueLabels[j] = new int[labelIndices[j].size()];
+      for (int k = 0; k < cliqueLabels[j].length; k++) {
+        int index = 0;
+        for (int label : labelIndices[j].get(k).getLabel()) {
+          index = index * numClasses + label;
+        }
+        cliqueLabels[j][k] = index;
+      }
+    }
+  }
+
+  /** Whether this decoder was made for the given label indices */
+  boolean isFor(Index<CRFLabel>[] labelIndices, int numClasses) {
+    return this.labelIndices == labelIndices && this.numClasses == numClasses;
+  }
+
+  /**
+   * The best labels of a document, one for each position of data
+   *
+   * @param weights The CRF weights, by feature and clique labeling
+   * @param data The features of the document, as in CRFClassifier.documentToDataAndLabels
+   */
+  int[] bestSequence(double[][] weights, int[][][] data) {
+    return bestSequence(weights, null, data);
+  }
+
+  /**
+   * The best labels of a document, one for each position of data
+   *
+   * @param weights The CRF weights, in one block
+   * @param data The features of the document, as in CRFClassifier.documentToDataAndLabels
+   */
+  int[] bestSequence(CRFFlatWeights weights, int[][][] data) {
+    return bestSequence(null, weights, data);
+  }
+
+  /** Decodes with whichever of the weights is not null */
+  private int[] bestSequence(double[][] weights, CRFFlatWeights flatWeights, int[][][] data) {
+    int length = data.length;
+    int tuples = powers[window];
+    int states = powers[window - 1]; // the labels of the last window - 1 positions
+    if (potentials.length < tuples) {
+      potentials = new double[tuples];
+      scratch = new double[tuples];
+    }
+    if (best.length < states) {
+      best = new double[states];
+      nextBest = new double[states];
+    }
+    if (backpointers.length < length * states) {
+      backpointers = new int[Math.max(length * states, 2 * backpointers.length)];
+    }
+
+    // before the document, all the labels are background
+    int start = 0;
+    for (int i = 0; i < window - 1; i++) {
+      start = start * numClasses + background;
+    }
+    Arrays.fill(best, 0, states, Double.NEGATIVE_INFINITY);
+    best[start] = 0.0;
+
+    for (int pos = 0; pos < length; pos++) {
+      windowPotentials(weights, flatWeights, data[pos]);
+      Arrays.fill(nextBest, 0, states, Double.NEGATIVE_INFINITY);
+      int offset = pos * states;
+      for (int t = 0; t < tuples; t++) {
+        int from = t / numClasses;
+        if (best[from] == Double.NEGATIVE_INFINITY) {
+          continue;
+        }
+        int to = t % states;
+        double score = best[from] + potentials[t];
+        if (score > nextBest[to]) {
+          nextBest[to] = score;
+          backpointers[offset + to] = from;
+        }
+      }
+      double[] swap = best;
+      best = nextBest;
+      nextBest = swap;
+    }
+
+    int state = 0;
+    for (int s = 1; s < states; s++) {
+      if (best[s] > best[state]) {
+        state = s;
+      }
+    }
+    int[] labels = new int[length];
+    for (int pos = length - 1; pos >= 0; pos--) {
+      labels[pos] = state % numClasses;
+      state = backpointers[pos * states + state];
+    }
+    return labels;
+  }
+
+  /**
+   * Sums the weights of the features of one position into the log
+   * potential of each labeling of its window, in the order of
+   * CRFCliqueTree.getFactorTable: each clique's table is added to the
+   * table of the next larger clique.
+   */
+  private void windowPotentials(double[][] weights, CRFFlatWeights flatWeights, int[][] cliqueData) {
+    double[] smaller = scratch;
+    double[] table = potentials;
+    for (int j = 0; j < window; j++) {
+      int size = powers[j + 1];
+      Arrays.fill(table, 0, size, 0.0);
+      int[] features = cliqueData[j];
+      int[] labels = cliqueLabels[j];
+      if (flatWeights == null) {
+        for (int k = 0; k < labels.length; k++) {
+          double weight = 0.0;
+          for (int m = 0; m < features.length; m++) {
+            weight += weights[features[m]][k];
+          }
+          table[labels[k]] = weight;
+        }
+      } else {
+        int[] offsets = flatWeights.offsets;
+        for (int k = 0; k < labels.length; k++) {
+          double weight = 0.0;
+          for (int m = 0; m < features.length; m++) {
+            weight += flatWeights.weight(offsets[features[m]] + k);
+          }
+          table[labels[k]] = weight;
+        }
+      }
+      if (j > 0) {
+        int divisor = powers[j];
+        for (int i = 0; i < size; i++) {
+          table[i] += smaller[i % divisor];
+        }
+      }
+      double[] swap = smaller;
+      smaller = table;
+      table = swap;
+    }
+    // the last table written is in smaller
+    if (smaller != potentials) {
+      scratch = potentials;
+      potentials = smaller;
+    }
+  }
+
+}
@@ -29,11 +29,14 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
 import edu.stanford.nlp.classify.Dataset;
@@ -44,6 +47,7 @@ import edu.stanford.nlp.classify.NBLinearClassifierFactory;
 import edu.stanford.nlp.classify.ProbabilisticClassifier;
 import edu.stanford.nlp.classify.SVMLightClassifierFactory;
 import edu.stanford.nlp.ie.AbstractSequenceClassifier;
+import edu.stanford.nlp.ie.BinaryModel;
 import edu.stanford.nlp.ie.NERFeatureFactory;
 import edu.stanford.nlp.io.IOUtils;
 import edu.stanford.nlp.ling.BasicDatum;
@@ -138,6 +142,11 @@ public class CMMClassifier<IN extends CoreLabel> extends AbstractSequenceClassif
    */
   Set<List<String>> answerArrays;
 
+  /** Integer form of the classifier used for scoring sequences; built on
+   *  first use by {@link #compiledModel()}.
+   */
+  private volatile CompiledModel compiledModel;
+
   /** Default place to look in Jar file for classifier. */
   public static final String DEFAULT_CLASSIFIER = "/classifiers/ner-eng-ie.cmm-3-all2006.ser.gz";
 
@@ -163,6 +172,9 @@ public class CMMClassifier<IN extends CoreLabel> extends AbstractSequenceClassif
 
   /**
    * Classify a {@link List} of {@link CoreLabel}s.
+   * Classification does not modify the classifier, so a single loaded model
+   * may be used by several threads at once, each tagging its own document
+   * (except when <code>flags.printFeatures</code> is set).
    *
    * @param document A {@link List} of {@link CoreLabel}s
    *                 to be classified.
@@ -1092,6 +1104,94 @@ public class CMMClassifier<IN extends CoreLabel> extends AbstractSequenceClassif
     knownLCWords = (Set<String>) ois.readObject();
   }
 
+  /**
+   * {@inheritDoc}
+   * The features are renumbered in the sorted order of the binary feature table.
+   */
+  @Override
+  @SuppressWarnings("unchecked")
+  public void serializeBinaryClassifier(String serializePath) throws IOException {
+    if (!(classifier instanceof LinearClassifier)) {
+      throw new UnsupportedOperationException("Only a LinearClassifier can be saved as a binary model");
+    }
+    LinearClassifier<String, String> lc = (LinearClassifier<String, String>) classifier;
+    System.err.print("Serializing binary classifier to " + serializePath + "...");
+    BinaryModel.Writer model = new BinaryModel.Writer();
+    Properties header = new Properties();
+    header.setProperty("classifier", CMMClassifier.class.getName());
+    model.putProperties("header", header);
+    model.putSortedIndex("featureIndex", lc.featureIndex(), "weights", lc.weights());
+    model.putStrings("labelIndex", lc.labelIndex().objectsList());
+    model.putDoubles("thresholds", lc.thresholds());
+    model.putProperties("flags", BinaryModel.flagsToProperties(flags));
+    model.putObject("featureFactory", featureFactory);
+    model.putStrings("classIndex", classIndex.objectsList());
+    // answerArrays: the lengths of the arrays, and all their elements in a row
+    int[] lengths = new int[answerArrays.size()];
+    List<String> answers = new ArrayList<String>();
+    int i = 0;
+    for (List<String> answerArray : answerArrays) {
+      lengths[i++] = answerArray.size();
+      answers.addAll(answerArray);
+    }
+    model.putInts("answerArrayLengths", lengths);
+    model.putStrings("answerArrays", answers);
+    if (knownLCWords != null) {
+      model.putStrings("knownLCWords", knownLCWords);
+    }
+    model.save(serializePath);
+    System.err.println("done.");
+  }
+
+  /**
+   * Loads a binary model. The feature index and the weights of the classifier
+   * stay in the mapped file, which it reads in place; the rest is as in
+   * {@link #loadClassifier(ObjectInputStream, Properties)}.
+   */
+  @Override
+  @SuppressWarnings("unchecked")
+  protected void loadBinaryClassifier(BinaryModel model, Properties props) throws IOException, ClassNotFoundException {
+    Properties header = model.getProperties("header");
+    if (!CMMClassifier.class.getName().equals(header.getProperty("classifier"))) {
+      throw new IOException(model.source() + " is a binary model of " + header.getProperty("classifier"));
+    }
+    Index<String> labelIndex = new HashIndex<String>(model.getStrings("labelIndex"));
+    BinaryModel.MappedMatrix weights = model.getMappedMatrix("weights");
+    for (int f = 0; f <= weights.rows(); f++) {
+      if (weights.offsets[f] != f * labelIndex.size()) {
+        throw new IOException(model.source() + ": weight row " + f + " does not have a weight for each label");
+      }
+    }
+    LinearClassifier<String, String> lc = LinearClassifier.fromFlatWeights(weights.values,
+        model.getIndex("featureIndex"), labelIndex);
+    double[] thresholds = model.getDoubles("thresholds");
+    System.arraycopy(thresholds, 0, lc.thresholds(), 0, thresholds.length);
+    classifier = lc;
+    flags = BinaryModel.propertiesToFlags(model.getProperties("flags"));
+    featureFactory = (FeatureFactory) model.getObject("featureFactory");
+
+    if (props != null) {
+      flags.setProperties(props);
+    }
+    reinit();
+
+    classIndex = new HashIndex<String>(model.getStrings("classIndex"));
+    int[] lengths = model.getInts("answerArrayLengths");
+    List<String> answers = model.getStrings("answerArrays");
+    answerArrays = new HashSet<List<String>>();
+    int pos = 0;
+    for (int length : lengths) {
+      answerArrays.add(new ArrayList<String>(answers.subList(pos, pos + length)));
+      pos += length;
+    }
+    if (model.has("knownLCWords")) {
+      knownLCWords = Collections.newSetFromMap(new ConcurrentHashMap<String,Boolean>());
+      knownLCWords.addAll(model.getStrings("knownLCWords"));
+    } else {
+      knownLCWords = null;
+    }
+  }
+
 
   public static CMMClassifier getClassifierNoExceptions(File file) {
     CMMClassifier cmm = new CMMClassifier();
@@ -1182,13 +1282,23 @@ public class CMMClassifier<IN extends CoreLabel> extends AbstractSequenceClassif
    *  @return A Datum (BasicDatum) representing this data instance
    */
   public <T extends CoreLabel> Datum<String, String> makeDatum(List<IN> info, int loc, FeatureFactory featureFactory) {
+    return makeDatum(info, loc, featureFactory, null);
+  }
+
+  /** Make an individual Datum out of the data list info, focused at position
+   *  loc, with the classes of the other positions taken from answers
+   *  instead of the AnswerAnnotation of the tokens.
+   *  @param answers The classes currently assumed for each position of info,
+   *                 or null to use the AnswerAnnotation of the tokens
+   */
+  private Datum<String, String> makeDatum(List<IN> info, int loc, FeatureFactory featureFactory, String[] answers) {
     PaddedList<IN> pInfo = new PaddedList<IN>(info, pad);
 
     Collection<String> features = new ArrayList<String>();
     List<Clique> cliques = featureFactory.getCliques();
     for (Clique c : cliques) {
       Collection<String> feats = featureFactory.getCliqueFeatures(pInfo, loc, c);
-      feats = addOtherClasses(feats, pInfo, loc, c);
+      feats = addOtherClasses(feats, pInfo, answers, loc, c);
       features.addAll(feats);
     }
 
@@ -1207,47 +1317,85 @@ public class CMMClassifier<IN extends CoreLabel> extends AbstractSequenceClassif
    *          into the feature name.
    */
   private static Collection<String> addOtherClasses(Collection<String> feats, List<? extends CoreLabel> info,
-                                     int loc, Clique c) {
-    String addend = null;
-    String pAnswer = info.get(loc - 1).get(AnswerAnnotation.class);
-    String p2Answer = info.get(loc - 2).get(AnswerAnnotation.class);
-    String p3Answer = info.get(loc - 3).get(AnswerAnnotation.class);
-    String p4Answer = info.get(loc - 4).get(AnswerAnnotation.class);
-    String p5Answer = info.get(loc - 5).get(AnswerAnnotation.class);
-    String nAnswer = info.get(loc + 1).get(AnswerAnnotation.class);
+                                     String[] answers, int loc, Clique c) {
+    String addend = otherClassesOf(info, answers, loc, c);
+    if (addend == null) {
+      return feats;
+    }
+    Collection<String> newFeats = new HashSet<String>();
+    for (String feat : feats) {
+      String newFeat = feat + addend;
+      newFeats.add(newFeat);
+    }
+    return newFeats;
+  }
+
+
+  /** The suffix that {@link #addOtherClasses} appends to the features of
+   *  clique c at position loc, or null if the clique involves no other class.
+   */
+  private static String otherClassesOf(List<? extends CoreLabel> info, String[] answers, int loc, Clique c) {
     // cdm 2009: Is this really right? Do we not need to differentiate names that would collide???
+    int[] offsets = otherClassOffsets(c);
+    if (offsets == null) {
+      return null;
+    }
+    StringBuilder suffix = new StringBuilder();
+    for (int i = 0; i < offsets.length; i++) {
+      suffix.append(i == 0 ? '|' : '-').append(answerOf(info, answers, loc + offsets[i]));
+    }
+    return suffix.toString();
+  }
+
+
+  /** The positions, relative to the current one, of the other classes of
+   *  clique c, in the order {@link #otherClassesOf} names them, or null if
+   *  the clique involves no other class.
+   */
+  static int[] otherClassOffsets(Clique c) {
     if (c == FeatureFactory.cliqueCpC) {
-      addend = '|' + pAnswer;
+      return new int[]{-1};
     } else if (c == FeatureFactory.cliqueCp2C) {
-      addend = '|' + p2Answer;
+      return new int[]{-2};
     } else if (c == FeatureFactory.cliqueCp3C) {
-      addend = '|' + p3Answer;
+      return new int[]{-3};
     } else if (c == FeatureFactory.cliqueCp4C) {
-      addend = '|' + p4Answer;
+      return new int[]{-4};
     } else if (c == FeatureFactory.cliqueCp5C) {
-      addend = '|' + p5Answer;
+      return new int[]{-5};
     } else if (c == FeatureFactory.cliqueCpCp2C) {
-      addend = '|' + pAnswer + '-' + p2Answer;
+      return new int[]{-1, -2};
     } else if (c == FeatureFactory.cliqueCpCp2Cp3C) {
-      addend = '|' + pAnswer + '-' + p2Answer + '-' + p3Answer;
+      return new int[]{-1, -2, -3};
     } else if (c == FeatureFactory.cliqueCpCp2Cp3Cp4C) {
-      addend = '|' + pAnswer + '-' + p2Answer + '-' + p3Answer + '-' + p4Answer;
+      return new int[]{-1, -2, -3, -4};
     } else if (c == FeatureFactory.cliqueCpCp2Cp3Cp4Cp5C) {
-      addend = '|' + pAnswer + '-' + p2Answer + '-' + p3Answer + '-' + p4Answer + '-' + p5Answer;
+      return new int[]{-1, -2, -3, -4, -5};
     } else if (c == FeatureFactory.cliqueCnC) {
-      addend = '|' + nAnswer;
+      return new int[]{1};
     } else if (c == FeatureFactory.cliqueCpCnC) {
-      addend = '|' + pAnswer + '-' + nAnswer;
-    }
-    if (addend == null) {
-      return feats;
+      return new int[]{-1, 1};
     }
-    Collection<String> newFeats = new HashSet<String>();
-    for (String feat : feats) {
-      String newFeat = feat + addend;
-      newFeats.add(newFeat);
+    return null;
+  }
+
+
+  /** Whether the features of clique c are conditioned on other classes
+   *  (that is, whether {@link #otherClassesOf} returns a suffix for it).
+   */
+  private static boolean hasOtherClasses(Clique c) {
+    return c != FeatureFactory.cliqueC && FeatureFactory.knownCliques.contains(c);
+  }
+
+
+  /** The class at position pos: from answers if it covers that position,
+   *  otherwise the AnswerAnnotation of the (possibly padding) token.
+   */
+  private static String answerOf(List<? extends CoreLabel> info, String[] answers, int pos) {
+    if (answers != null && pos >= 0 && pos < answers.length) {
+      return answers[pos];
     }
-    return newFeats;
+    return info.get(pos).get(AnswerAnnotation.class);
   }
 
 
@@ -1326,6 +1474,12 @@ public class CMMClassifier<IN extends CoreLabel> extends AbstractSequenceClassif
     trainSemiSup(dataset, biasedDataset, confusionMatrix);
   }
 
+  /**
+   * The per-document state of a sequence search. A Scorer is made for each
+   * classify call and keeps all that call's mutable state (the score cache
+   * and the classes under consideration) to itself, so a single classifier
+   * can be shared by several threads that tag different documents.
+   */
   static class Scorer implements SequenceModel {
     private CMMClassifier classifier = null;
 
@@ -1333,10 +1487,29 @@ public class CMMClassifier<IN extends CoreLabel> extends AbstractSequenceClassif
     private int[] backgroundTags = null;
     private Index<String> tagIndex = null;
     private List<? extends CoreLabel> lineInfos = null;
+    /** Classes of the positions under consideration; the tokens themselves are not modified while searching */
+    private String[] docAnswers = null;
     private int pre = 0;
     private int post = 0;
     private Set<List<String>> legalTags = null;
 
+    /** Compiled form of the classifier, or null to score through feature Datums */
+    private CompiledModel model = null;
+    /** For each clique, the positions of its other classes relative to the current one, or null */
+    private int[][] historyOffsets = null;
+    /** The classes of docAnswers as class ids of the model */
+    private int[] docClasses = null;
+    /** Compiled features of each position */
+    private int[][][] positionFeatures = null;
+    /** For each position, the rows into which the feature ids of a class
+     *  history are looked up, one for each clique conditioned on other classes */
+    private int[][][] historyFeatures = null;
+    /** Scores of each position from its cliques that don't depend on the
+     *  other classes, the same for every class history: those of position
+     *  pos start at pos * model.numLabels() */
+    private double[] positionBase = null;
+    private double[] labelScores = null;
+
     private static final boolean VERBOSE = false;
 
     void buildTagArray() {
@@ -1380,7 +1553,7 @@ public class CMMClassifier<IN extends CoreLabel> extends AbstractSequenceClassif
 
     private double[] scoreCache = null;
     private int[] lastWindow = null;
-    //private int lastPos = -1;
+    private int lastPos = -1;
 
     public double scoreOf(int[] tags, int pos) {
       if (false) {
@@ -1440,8 +1613,10 @@ public class CMMClassifier<IN extends CoreLabel> extends AbstractSequenceClassif
           continue;
         }
         answers[i] = tagIndex.get(tags[absPos]);
-        CoreLabel li = lineInfos.get(absPos);
-        li.set(AnswerAnnotation.class, answers[i]);
+        docAnswers[absPos] = answers[i];
+        if (docClasses != null) {
+          docClasses[absPos] = tags[absPos];
+        }
         if (i < leftWindow()) {
           pre[i] = answers[i];
         }
@@ -1456,7 +1631,26 @@ public class CMMClassifier<IN extends CoreLabel> extends AbstractSequenceClassif
       }
       num++;
       hit++;
-      Counter<String> c = classifier.scoresOf(lineInfos, pos);
+      if (model != null) {
+        CMMClassifier.scoresOf(model, historyOffsets, positionFeatures[pos], historyFeatures[pos], positionBase, pos * labelScores.length,
+                               docClasses, pos, labelScores);
+        int[] tA = getPossibleValues(pos);
+        for (int l = 0; l < labelScores.length; l++) {
+          int t = model.tagOfLabel[l];
+          if (t > -1) {
+            for (int j = 0; j < tA.length; j++) {
+              if (tA[j] == t) {
+                scores[j] = labelScores[l];
+              }
+            }
+          }
+        }
+        if (classifier.normalize()) {
+          ArrayMath.logNormalize(scores);
+        }
+        return scores;
+      }
+      Counter<String> c = classifier.scoresOf(lineInfos, docAnswers, pos);
       //System.out.println("Pos "+pos+" hist "+Arrays.asList(pre)+" result "+c);
       //System.out.println(c);
       //if (false && flags.justify) {
@@ -1518,6 +1712,42 @@ public class CMMClassifier<IN extends CoreLabel> extends AbstractSequenceClassif
       this.classifier = classifier;
       this.legalTags = legalTags;
       backgroundTags = new int[]{tagIndex.indexOf(classifier.flags.backgroundSymbol)};
+      docAnswers = new String[lineInfos.size()];
+      for (int i = 0; i < docAnswers.length; i++) {
+        docAnswers[i] = lineInfos.get(i).get(AnswerAnnotation.class);
+      }
+      model = classifier.compiledModel();
+      if (model != null) {
+        @SuppressWarnings("unchecked") // so is the feature factory of the raw classifier
+        List<Clique> cliques = classifier.featureFactory.getCliques();
+        PaddedList<CoreLabel> paddedInfos = new PaddedList<CoreLabel>(Collections.<CoreLabel>unmodifiableList(lineInfos), (CoreLabel) classifier.pad);
+        historyOffsets = new int[cliques.size()][];
+        for (int i = 0; i < historyOffsets.length; i++) {
+          historyOffsets[i] = otherClassOffsets(cliques.get(i));
+        }
+        docClasses = new int[docAnswers.length];
+        for (int i = 0; i < docClasses.length; i++) {
+          docClasses[i] = model.classId(docAnswers[i]);
+        }
+        positionFeatures = new int[lineInfos.size()][][];
+        historyFeatures = new int[lineInfos.size()][][];
+        int[][] shared = new int[lineInfos.size()][];
+        for (int pos = 0; pos < shared.length; pos++) {
+          @SuppressWarnings("unchecked") // classifier is a raw CMMClassifier
+          int[][] features = classifier.compiledFeatures(model, cliques, paddedInfos, pos);
+          positionFeatures[pos] = features;
+          historyFeatures[pos] = new int[features.length][];
+          for (int i = 0; i < features.length; i++) {
+            if (historyOffsets[i] != null) {
+              historyFeatures[pos][i] = new int[features[i].length];
+            }
+          }
+          shared[pos] = sharedFeatures(cliques, features);
+        }
+        labelScores = new double[model.numLabels()];
+        positionBase = new double[shared.length * labelScores.length];
+        model.scoresOf(shared, positionBase);
+      }
     }
 
   } // end class Scorer
@@ -1526,8 +1756,6 @@ public class CMMClassifier<IN extends CoreLabel> extends AbstractSequenceClassif
     return flags.normalize;
   }
 
-  static int lastPos = -1;
-
   public Counter<String> scoresOf(List<IN> lineInfos, int pos) {
 //     if (pos != lastPos) {
 //       System.err.print(pos+".");
@@ -1538,6 +1766,456 @@ public class CMMClassifier<IN extends CoreLabel> extends AbstractSequenceClassif
     return classifier.logProbabilityOf(d);
   }
 
+  /** As scoresOf(lineInfos, pos), but with the classes of the surrounding
+   *  positions given by answers rather than read from the tokens.
+   */
+  Counter<String> scoresOf(List<IN> lineInfos, String[] answers, int pos) {
+    Datum<String, String> d = makeDatum(lineInfos, pos, featureFactory, answers);
+    return classifier.logProbabilityOf(d);
+  }
+
+  /** Returns the compiled form of the current classifier, or null if
+   *  sequences are to be scored through String feature Datums (because it
+   *  is not a LinearClassifier, features are being printed,
+   *  <code>flags.cmmStringScoring</code> is set, or there are too many
+   *  classes for the class histories of its cliques to fit in a long key).
+   */
+  @SuppressWarnings("unchecked")
+  CompiledModel compiledModel() {
+    if (flags.cmmStringScoring || (flags.printFeatures != null && flags.printFeaturesUpto > 0) ||
+        ! (classifier instanceof LinearClassifier)) {
+      return null;
+    }
+    CompiledModel model = compiledModel;
+    if (model == null || ! model.isCompiledFrom(classifier)) {
+      synchronized (this) {
+        model = compiledModel;
+        if (model == null || ! model.isCompiledFrom(classifier)) {
+          int maxOthers = 0;
+          for (Clique c : featureFactory.getCliques()) {
+            int[] offsets = otherClassOffsets(c);
+            if (offsets != null) {
+              maxOthers = Math.max(maxOthers, offsets.length);
+            }
+          }
+          if ( ! CompiledModel.fits(classIndex.size(), maxOthers)) {
+            return null;
+          }
+          model = new CompiledModel((LinearClassifier<String, String>) classifier, classIndex,
+                                    String.valueOf(pad.get(AnswerAnnotation.class)), maxOthers);
+          compiledModel = model;
+        }
+      }
+    }
+    return model;
+  }
+
+  /** The features of position loc in compiled form: for each clique, the
+   *  ids of its features, or for the cliques conditioned on other classes,
+   *  the ids of the observation parts of its features.  Features unknown to
+   *  the model are left out.
+   */
+  int[][] compiledFeatures(CompiledModel model, List<Clique> cliques, PaddedList<IN> info, int loc) {
+    int[][] ids = new int[cliques.size()][];
+    for (int i = 0; i < ids.length; i++) {
+      Clique c = cliques.get(i);
+      Collection<String> feats = featureFactory.getCliqueFeatures(info, loc, c);
+      boolean other = hasOtherClasses(c);
+      int[] cliqueIds = new int[feats.size()];
+      int n = 0;
+      for (String feat : feats) {
+        int id = other ? model.observationId(feat) : model.featureId(feat);
+        if (id >= 0) {
+          cliqueIds[n++] = id;
+        }
+      }
+      ids[i] = Arrays.copyOf(cliqueIds, n);
+    }
+    return ids;
+  }
+
+  /** The ids of the compiled features of a position from the cliques that
+   *  don't depend on the other classes: their scores are the same for every
+   *  class history of the position.
+   */
+  static int[] sharedFeatures(List<Clique> cliques, int[][] features) {
+    int size = 0;
+    for (int i = 0; i < features.length; i++) {
+      if ( ! hasOtherClasses(cliques.get(i))) {
+        size += features[i].length;
+      }
+    }
+    int[] shared = new int[size];
+    int n = 0;
+    for (int i = 0; i < features.length; i++) {
+      if ( ! hasOtherClasses(cliques.get(i))) {
+        System.arraycopy(features[i], 0, shared, n, features[i].length);
+        n += features[i].length;
+      }
+    }
+    return shared;
+  }
+
+  /** As scoresOf(lineInfos, answers, pos), but from the compiled features
+   *  of the position and its shared scores, which start at
+   *  base[baseOffset] (see {@link #sharedFeatures}), so only the cliques
+   *  conditioned on other classes (those with offsets, from
+   *  {@link #otherClassOffsets}) are summed for each class history.  The
+   *  classes of the positions are given as class ids of the model; the
+   *  feature ids of a history are looked up into the rows of history.  The
+   *  log probabilities are written into scores, indexed like the labels of
+   *  the compiled model.
+   */
+  static void scoresOf(CompiledModel model, int[][] offsets, int[][] features, int[][] history,
+                       double[] base, int baseOffset, int[] classes, int pos, double[] scores) {
+    System.arraycopy(base, baseOffset, scores, 0, scores.length);
+    for (int i = 0; i < features.length; i++) {
+      if (offsets[i] == null) {
+        continue;
+      }
+      long key = model.historyKey(offsets[i], classes, pos);
+      int[] ids = history[i];
+      for (int j = 0; j < ids.length; j++) {
+        ids[j] = model.featureId(features[i][j], key);
+      }
+      model.addScores(ids, scores);
+    }
+    double logTotal = ArrayMath.logSum(scores);
+    for (int i = 0; i < scores.length; i++) {
+      scores[i] -= logTotal;
+    }
+  }
+
+
+  /**
+   * The LinearClassifier in the form used for scoring sequences.  The
+   * features of a position are looked up once, as integer ids, and for each
+   * class history considered by the search they are combined with the
+   * classes of the other positions through integer keys, rather than by
+   * building, hashing and looking up a new String for every feature.
+   * <p/>
+   * A feature whose name splits at a '|' into an observation part and a
+   * suffix that reads as class names joined by '-' (as
+   * {@link #addOtherClasses} appends them) is registered under that
+   * observation and the key of those classes (see {@link #historyKey}).
+   * The observations are not copied: each is kept as the id of a feature
+   * and the length of its name's prefix, in an open addressing table, and
+   * the keys and features of all the observations are in flat sorted arrays.
+   */
+  static class CompiledModel {
+
+    private final LinearClassifier<String, String> source;
+    private final Index<String> featureIndex;
+    /** The size of featureIndex when compiled, past which the observations are out of date */
+    private final int numFeatures;
+    /** The position in the tag index of each label of the classifier, or -1 */
+    final int[] tagOfLabel;
+    /** Class ids: those of the tag index, then the padding class unless it is a tag, then unknown classes */
+    private final Map<String, Integer> classIds = new HashMap<String, Integer>();
+    private final int padClass;
+    private final int unknownClass;
+    /** powers[i] is the weight of the (i+1)th other class in a history key */
+    private final long[] powers;
+
+    /** The observations: a feature whose name starts with it, its length and its hash code */
+    private int[] observationFeature = new int[1024];
+    private int[] observationLength = new int[1024];
+    private int[] observationHash = new int[1024];
+    private int observations = 0;
+    /** Open addressing table of observation ids + 1, 0 for an empty slot */
+    private int[] observationTable = new int[2048];
+
+    /** The history keys of observation o, sorted, are in
+     *  historyKeys[historyStart[o] ... historyStart[o + 1]), and the
+     *  corresponding feature ids at the same places in historyFeatures */
+    private final int[] historyStart;
+    private final long[] historyKeys;
+    private final int[] historyFeatures;
+
+    /**
+     * @param padClass The class of the positions outside the document
+     * @param maxOthers The largest number of other classes in a clique
+     */
+    CompiledModel(LinearClassifier<String, String> lc, Index<String> tagIndex, String padClass, int maxOthers) {
+      source = lc;
+      featureIndex = lc.featureIndex();
+      numFeatures = featureIndex.size();
+      Index<String> labelIndex = lc.labelIndex();
+      tagOfLabel = new int[labelIndex.size()];
+      for (int i = 0; i < tagOfLabel.length; i++) {
+        tagOfLabel[i] = tagIndex.indexOf(labelIndex.get(i));
+      }
+      for (int i = 0, size = tagIndex.size(); i < size; i++) {
+        classIds.put(tagIndex.get(i), i);
+      }
+      if ( ! classIds.containsKey(padClass)) {
+        classIds.put(padClass, tagIndex.size());
+      }
+      this.padClass = classIds.get(padClass);
+      unknownClass = tagIndex.size() + 1;
+      powers = new long[maxOthers];
+      for (int i = 0; i < maxOthers; i++) {
+        powers[i] = (i == 0) ? 1 : powers[i - 1] * radix(tagIndex.size());
+      }
+
+      // the (observation, key, feature) triples in the order they are found
+      int[] tripleObservations = new int[1024];
+      long[] tripleKeys = new long[1024];
+      int[] tripleFeatures = new int[1024];
+      int triples = 0;
+      long[] keys = new long[4];
+      for (int f = 0, size = featureIndex.size(); f < size; f++) {
+        String feature = featureIndex.get(f);
+        for (int split = feature.indexOf('|'); split >= 0; split = feature.indexOf('|', split + 1)) {
+          keys = historyKeys(feature, split + 1, 0, 0L, keys);
+          int found = (int) keys[0];
+          if (found == 0) {
+            continue;
+          }
+          int observation = observationId(feature, split, f);
+          if (triples + found > tripleKeys.length) {
+            int capacity = Math.max(2 * tripleKeys.length, triples + found);
+            tripleObservations = Arrays.copyOf(tripleObservations, capacity);
+            tripleKeys = Arrays.copyOf(tripleKeys, capacity);
+            tripleFeatures = Arrays.copyOf(tripleFeatures, capacity);
+          }
+          for (int i = 1; i <= found; i++) {
+            tripleObservations[triples] = observation;
+            tripleKeys[triples] = keys[i];
+            tripleFeatures[triples] = f;
+            triples++;
+          }
+        }
+      }
+
+      historyStart = new int[observations + 1];
+      for (int i = 0; i < triples; i++) {
+        historyStart[tripleObservations[i] + 1]++;
+      }
+      for (int o = 0; o < observations; o++) {
+        historyStart[o + 1] += historyStart[o];
+      }
+      historyKeys = new long[triples];
+      historyFeatures = new int[triples];
+      int[] next = Arrays.copyOf(historyStart, observations);
+      for (int i = 0; i < triples; i++) {
+        int at = next[tripleObservations[i]]++;
+        historyKeys[at] = tripleKeys[i];
+        historyFeatures[at] = tripleFeatures[i];
+      }
+      for (int o = 0; o < observations; o++) {
+        sortByKey(historyKeys, historyFeatures, historyStart[o], historyStart[o + 1]);
+      }
+      observationFeature = Arrays.copyOf(observationFeature, observations);
+      observationLength = Arrays.copyOf(observationLength, observations);
+      observationHash = Arrays.copyOf(observationHash, observations);
+    }
+
+    private static long radix(int tags) {
+      return tags + 3; // the digits are the class ids + 1: tags, padding and unknown classes
+    }
+
+    /** Whether the history keys of cliques with up to maxOthers other
+     *  classes fit in a long */
+    static boolean fits(int tags, int maxOthers) {
+      long radix = radix(tags);
+      long power = 1;
+      for (int i = 0; i < maxOthers; i++) {
+        if (power > Long.MAX_VALUE / radix) {
+          return false;
+        }
+        power *= radix;
+      }
+      return true;
+    }
+
+    /** Adds to keys (keys[0] is the count) the history key of each way of
+     *  reading name from start on as class names joined by '-', the first
+     *  depth of them already in key, and at most powers.length in all.
+     *  Returns keys, or a larger copy of it.
+     */
+    private long[] historyKeys(String name, int start, int depth, long key, long[] keys) {
+      if (depth == 0) {
+        keys[0] = 0;
+        if (powers.length == 0) {
+          return keys;
+        }
+      }
+      for (int end = name.indexOf('-', start); ; end = name.indexOf('-', end + 1)) {
+        int stop = (end < 0) ? name.length() : end;
+        Integer id = classIds.get(name.substring(start, stop));
+        if (id != null) {
+          long k = key + (id + 1) * powers[depth];
+          if (end < 0) {
+            int n = (int) ++keys[0];
+            if (n == keys.length) {
+              keys = Arrays.copyOf(keys, 2 * n);
+            }
+            keys[n] = k;
+          } else if (depth + 1 < powers.length) {
+            keys = historyKeys(name, end + 1, depth + 1, k, keys);
+          }
+        }
+        if (end < 0) {
+          return keys;
+        }
+      }
+    }
+
+    /** Sorts keys[from ... to) and the values at the same places by key */
+    private static void sortByKey(long[] keys, int[] values, int from, int to) {
+      while (to - from > 16) {
+        long pivot = keys[(from + to) >>> 1];
+        int i = from;
+        int j = to - 1;
+        while (i <= j) {
+          while (keys[i] < pivot) {
+            i++;
+          }
+          while (keys[j] > pivot) {
+            j--;
+          }
+          if (i <= j) {
+            long key = keys[i];
+            keys[i] = keys[j];
+            keys[j] = key;
+            int value = values[i];
+            values[i] = values[j];
+            values[j] = value;
+            i++;
+            j--;
+          }
+        }
+        sortByKey(keys, values, from, j + 1);
+        from = i;
+      }
+      for (int i = from + 1; i < to; i++) {
+        long key = keys[i];
+        int value = values[i];
+        int j = i - 1;
+        while (j >= from && keys[j] > key) {
+          keys[j + 1] = keys[j];
+          values[j + 1] = values[j];
+          j--;
+        }
+        keys[j + 1] = key;
+        values[j + 1] = value;
+      }
+    }
+
+    private static int hash(String s, int length) {
+      int h = 0;
+      for (int i = 0; i < length; i++) {
+        h = 31 * h + s.charAt(i);
+      }
+      return h;
+    }
+
+    /** The slot of observationTable where the observation with the given
+     *  name prefix is, or the empty slot where it would go */
+    private int slotOf(String name, int length, int hash) {
+      int mask = observationTable.length - 1;
+      for (int slot = (hash ^ (hash >>> 16)) & mask; ; slot = (slot + 1) & mask) {
+        int id = observationTable[slot] - 1;
+        if (id < 0 || (observationHash[id] == hash && observationLength[id] == length &&
+                       featureIndex.get(observationFeature[id]).regionMatches(0, name, 0, length))) {
+          return slot;
+        }
+      }
+    }
+
+    /** The id of the observation name[0 ... length), added with the given feature if it is new */
+    private int observationId(String name, int length, int feature) {
+      int hash = hash(name, length);
+      int slot = slotOf(name, length, hash);
+      if (observationTable[slot] > 0) {
+        return observationTable[slot] - 1;
+      }
+      if (observations == observationFeature.length) {
+        observationFeature = Arrays.copyOf(observationFeature, 2 * observations);
+        observationLength = Arrays.copyOf(observationLength, 2 * observations);
+        observationHash = Arrays.copyOf(observationHash, 2 * observations);
+      }
+      observationFeature[observations] = feature;
+      observationLength[observations] = length;
+      observationHash[observations] = hash;
+      observationTable[slot] = ++observations;
+      if (2 * observations > observationTable.length) {
+        observationTable = new int[2 * observationTable.length];
+        int mask = observationTable.length - 1;
+        for (int id = 0; id < observations; id++) {
+          int h = observationHash[id];
+          int s = (h ^ (h >>> 16)) & mask;
+          while (observationTable[s] != 0) {
+            s = (s + 1) & mask;
+          }
+          observationTable[s] = id + 1;
+        }
+      }
+      return observations - 1;
+    }
+
+    /**
+     * Whether this is still the current form of the given classifier.  The
+     * weights are read from the classifier when scoring, so only its
+     * features matter (and asking for its weights would copy mapped ones).
+     */
+    boolean isCompiledFrom(Object classifier) {
+      return classifier == source && featureIndex == source.featureIndex() && numFeatures == featureIndex.size();
+    }
+
+    int numLabels() {
+      return tagOfLabel.length;
+    }
+
+    int featureId(String feature) {
+      return featureIndex.indexOf(feature);
+    }
+
+    int observationId(String observation) {
+      int slot = slotOf(observation, observation.length(), observation.hashCode());
+      return observationTable[slot] - 1;
+    }
+
+    /** The class id of the given answer, for {@link #historyKey} */
+    int classId(String answer) {
+      Integer id = classIds.get(answer);
+      return (id == null) ? unknownClass : id;
+    }
+
+    /** The key of the classes at pos + offsets[i], in that order, as
+     *  answerOf reads them: from classes (class ids) for the positions of
+     *  the document, and the padding class outside it.
+     */
+    long historyKey(int[] offsets, int[] classes, int pos) {
+      long key = 0;
+      for (int i = 0; i < offsets.length; i++) {
+        int p = pos + offsets[i];
+        int id = (p >= 0 && p < classes.length) ? classes[p] : padClass;
+        key += (id + 1) * powers[i];
+      }
+      return key;
+    }
+
+    /** The id of the feature with the given observation and class history key, or -1 */
+    int featureId(int observation, long key) {
+      int i = Arrays.binarySearch(historyKeys, historyStart[observation], historyStart[observation + 1], key);
+      return (i < 0) ? -1 : historyFeatures[i];
+    }
+
+    /** Scores each row of feature ids into scores, with the thresholds;
+     *  see {@link LinearClassifier#scoresOf(int[][], double[])} */
+    void scoresOf(int[][] features, double[] scores) {
+      source.scoresOf(features, scores);
+    }
+
+    /** Adds the weights of the given features; ids below 0 (unknown features) are skipped */
+    void addScores(int[] features, double[] scores) {
+      source.addScores(features, scores, 0);
+    }
+
+  } // end class CompiledModel
+
 
   /**
    * Takes a {@link List} of {@link CoreLabel}s and prints the likelihood
@@ -1566,6 +2244,7 @@ public class CMMClassifier<IN extends CoreLabel> extends AbstractSequenceClassif
     String textFile = cmm.flags.textFile;
     String loadPath = cmm.flags.loadClassifier;
     String serializeTo = cmm.flags.serializeTo;
+    String serializeToBinary = cmm.flags.serializeToBinary;
 
     // cmm.crossValidateTrainAndTest(trainFile);
     if (loadPath != null) {
@@ -1586,6 +2265,10 @@ public class CMMClassifier<IN extends CoreLabel> extends AbstractSequenceClassif
       cmm.serializeClassifier(serializeTo);
     }
 
+    if (serializeToBinary != null) {
+      cmm.serializeBinaryClassifier(serializeToBinary);
+    }
+
     if (testFile != null) {
       cmm.classifyAndWriteAnswers(testFile, cmm.makeReaderAndWriter());
     } else if (cmm.flags.testFiles != null) {
@@ -11,8 +11,11 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.Properties;
 
@@ -98,6 +101,7 @@ public class RegexNERSequenceClassifier extends AbstractSequenceClassifier<CoreL
     this.classIndex = new HashIndex<String>(myLabels);
     //System.err.println("RegexNERSequenceClassifier using labels: " +
     //                   myLabels);
+    compile();
   }
 
   private static class Entry implements Comparable<Entry> {
@@ -105,6 +109,10 @@ public class RegexNERSequenceClassifier extends AbstractSequenceClassifier<CoreL
     public String type; // the associated type
     public Set<String> overwritableTypes;
     public double priority;
+    /** for each regex token: the string it matches if it is a literal (see literal()), else null */
+    String[] literals;
+    /** for each regex token that is not a literal: its id in regexes */
+    int[] regexIds;
 
     public Entry(List<Pattern> regex, String type, Set<String> overwritableTypes, double priority) {
       this.regex = regex;
@@ -146,28 +154,217 @@ public class RegexNERSequenceClassifier extends AbstractSequenceClassifier<CoreL
     return false;
   }
 
+  /** The distinct regex tokens that are not literals, in the order of their ids */
+  private List<Pattern> regexes;
+  /** Ids of the entries (indexes in entries) whose first token is the given literal, in ascending order */
+  private Map<String, int[]> entriesByFirstLiteral;
+  /** Ids of the non-literal regexes that are the first token of some entry, and the ids of those entries */
+  private int[] firstRegexes;
+  private int[][] entriesByFirstRegex;
+
+  private static final String REGEX_METACHARACTERS = "\\^$.|?*+()[]{}";
+
+  /**
+   * If the pattern matches just one string - it has no regex metacharacters - returns the form of that string
+   * that is compared to the form of a token given by key(); otherwise null.
+   */
+  private String literal(Pattern pattern) {
+    String regex = pattern.pattern();
+    for (int i = 0; i < regex.length(); i++) {
+      if (REGEX_METACHARACTERS.indexOf(regex.charAt(i)) >= 0) {
+        return null;
+      }
+    }
+    return key(regex);
+  }
+
+  /**
+   * The form of a lemma compared to literals. Pattern.CASE_INSENSITIVE only folds the case of US-ASCII
+   * characters, and so does this.
+   */
+  private String key(String lemma) {
+    if (!ignoreCase || lemma == null) {
+      return lemma;
+    }
+    char[] chars = null;
+    for (int i = 0; i < lemma.length(); i++) {
+      char c = lemma.charAt(i);
+      if (c >= 'A' && c <= 'Z') {
+        if (chars == null) {
+          chars = lemma.toCharArray();
+        }
+        chars[i] = (char) (c + ('a' - 'A'));
+      }
+    }
+    return (chars == null) ? lemma : new String(chars);
+  }
+
+  /**
+   * Indexes the entries by their first token: entries that start with a literal are looked up by the token,
+   * the others by the distinct regexes they start with. The regex tokens are shared by all the entries
+   * that use the same regex, so that each is tried on a token at most once.
+   */
+  private void compile() {
+    regexes = new ArrayList<Pattern>();
+    Map<String, Integer> regexIds = new HashMap<String, Integer>();
+    Map<String, List<Integer>> byLiteral = new HashMap<String, List<Integer>>();
+    Map<Integer, List<Integer>> byRegex = new LinkedHashMap<Integer, List<Integer>>();
+    for (int e = 0; e < entries.size(); e++) {
+      Entry entry = entries.get(e);
+      int length = entry.regex.size();
+      entry.literals = new String[length];
+      entry.regexIds = new int[length];
+      for (int i = 0; i < length; i++) {
+        Pattern pattern = entry.regex.get(i);
+        entry.literals[i] = literal(pattern);
+        entry.regexIds[i] = -1;
+        if (entry.literals[i] == null) {
+          Integer id = regexIds.get(pattern.pattern());
+          if (id == null) {
+            id = regexes.size();
+            regexes.add(pattern);
+            regexIds.put(pattern.pattern(), id);
+          }
+          entry.regexIds[i] = id;
+        }
+      }
+      if (length == 0) {
+        continue;
+      }
+      if (entry.literals[0] != null) {
+        List<Integer> ids = byLiteral.get(entry.literals[0]);
+        if (ids == null) {
+          ids = new ArrayList<Integer>();
+          byLiteral.put(entry.literals[0], ids);
+        }
+        ids.add(e);
+      } else {
+        List<Integer> ids = byRegex.get(entry.regexIds[0]);
+        if (ids == null) {
+          ids = new ArrayList<Integer>();
+          byRegex.put(entry.regexIds[0], ids);
+        }
+        ids.add(e);
+      }
+    }
+    entriesByFirstLiteral = new HashMap<String, int[]>();
+    for (Map.Entry<String, List<Integer>> literal : byLiteral.entrySet()) {
+      entriesByFirstLiteral.put(literal.getKey(), toArray(literal.getValue()));
+    }
+    firstRegexes = new int[byRegex.size()];
+    entriesByFirstRegex = new int[byRegex.size()][];
+    int i = 0;
+    for (Map.Entry<Integer, List<Integer>> regex : byRegex.entrySet()) {
+      firstRegexes[i] = regex.getKey();
+      entriesByFirstRegex[i] = toArray(regex.getValue());
+      i++;
+    }
+  }
+
+  private static int[] toArray(List<Integer> list) {
+    int[] array = new int[list.size()];
+    for (int i = 0; i < array.length; i++) {
+      array[i] = list.get(i);
+    }
+    return array;
+  }
+
+  /**
+   * The tokens of one document as they are matched: the lemma keys, and the results of the regexes,
+   * which are run on a token only when some entry asks for them.
+   */
+  private class Tokens {
+    final List<CoreLabel> document;
+    final String[] keys;
+    /** regex results per token: 0 = not tried yet, 1 = matches, 2 = doesn't */
+    final byte[][] regexResults;
+
+    Tokens(List<CoreLabel> document) {
+      this.document = document;
+      keys = new String[document.size()];
+      regexResults = new byte[document.size()][];
+      for (int i = 0; i < keys.length; i++) {
+        keys[i] = key(document.get(i).lemma());
+      }
+    }
+
+    boolean matches(int regex, int token) {
+      if (regexResults[token] == null) {
+        regexResults[token] = new byte[regexes.size()];
+      }
+      if (regexResults[token][regex] == 0) {
+        boolean matches = regexes.get(regex).matcher(document.get(token).lemma()).matches();
+        regexResults[token][regex] = matches ? (byte) 1 : (byte) 2;
+      }
+      return regexResults[token][regex] == 1;
+    }
+
+    /**
+     * Checks if the entry's regex sequence matches the document from the token start on. Also requires that
+     * each token's current NER-type be overwritable.
+     */
+    boolean matchesAt(Entry entry, int start) {
+      if (start + entry.literals.length > keys.length) {
+        return false;
+      }
+      for (int i = 0; i < entry.literals.length; i++) {
+        int token = start + i;
+        boolean tokenMatches = (entry.literals[i] != null) ? entry.literals[i].equals(keys[token]) : matches(entry.regexIds[i], token);
+        String NERType = document.get(token).get(NamedEntityTagAnnotation.class);
+        if (!tokenMatches || !(entry.overwritableTypes.contains(NERType) || myLabels.contains(NERType))) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Labels every match of every entry. The matches are all found in a single pass over the document, with the
+   * entries that may start at each token looked up by their first token. They are then applied in the order of
+   * the entries, and of their position in the document, so a later match overwrites the labels of an earlier one.
+   */
   @Override
   public List<CoreLabel> classify(List<CoreLabel> document) {
-    for (Entry entry : entries) {
-      int start = 0; // the index of the token from which we begin our search each iteration
-
-      while (true) {
-        // only search the part of the document that we haven't yet considered
-        // System.err.println("REGEX FIND MATCH FOR " + entry.regex.toString());
-        start = findStartIndex(entry, document, start, myLabels);
-        if (start == -1) break; // no match found
-
-        // make sure we annotate only valid POS tags
-        //if (containsValidPos(document, start, start + entry.regex.size())) {
-          // annotate each matching token
-          for (int i = start; i < start + entry.regex.size(); i++) {
-            CoreLabel token = document.get(i);
-            token.set(AnswerAnnotation.class, entry.type);
+    Tokens tokens = new Tokens(document);
+    long[] matches = new long[16]; // entry id << 32 | start
+    int matchCount = 0;
+    for (int start = 0; start < document.size(); start++) {
+      int[] literalEntries = entriesByFirstLiteral.get(tokens.keys[start]);
+      for (int r = -1; r < firstRegexes.length; r++) {
+        int[] candidates;
+        if (r < 0) {
+          candidates = literalEntries;
+        } else {
+          candidates = tokens.matches(firstRegexes[r], start) ? entriesByFirstRegex[r] : null;
+        }
+        if (candidates == null) {
+          continue;
+        }
+        for (int e : candidates) {
+          if (tokens.matchesAt(entries.get(e), start)) {
+            if (matchCount == matches.length) {
+              matches = Arrays.copyOf(matches, matchCount * 2);
+            }
+            matches[matchCount++] = ((long) e << 32) | start;
           }
-        //}
-        start++;
+        }
       }
     }
+
+    Arrays.sort(matches, 0, matchCount);
+    for (int m = 0; m < matchCount; m++) {
+      Entry entry = entries.get((int) (matches[m] >>> 32));
+      int start = (int) matches[m];
+      // make sure we annotate only valid POS tags
+      //if (containsValidPos(document, start, start + entry.regex.size())) {
+        // annotate each matching token
+        for (int i = start; i < start + entry.regex.size(); i++) {
+          CoreLabel token = document.get(i);
+          token.set(AnswerAnnotation.class, entry.type);
+        }
+      //}
+    }
     return document;
   }
 
@@ -240,44 +437,6 @@ public class RegexNERSequenceClassifier extends AbstractSequenceClassifier<CoreL
     return entries;
   }
 
-  /**
-   * Checks if the entry's regex sequence is contained in the tokenized document, starting the search
-   * from index searchStart. Also requires that each token's current NER-type be overwritable,
-   * and that each token has not yet been Answer-annotated.
-   * @param entry
-   * @param document
-   * @return on success, the index of the first token in the matching sequence, otherwise -1
-   */
-  private static int findStartIndex(Entry entry, List<CoreLabel> document, int searchStart, Set<String> myLabels) {
-    List<Pattern> regex = entry.regex;
-    for (int start = searchStart; start <= document.size() - regex.size(); start++) {
-      boolean failed = false;
-      for (int i = 0; i < regex.size(); i++) {
-        Pattern pattern = regex.get(i);
-        CoreLabel token = document.get(start + i);        
-        String NERType = token.get(NamedEntityTagAnnotation.class);
-        String currentType = token.get(AnswerAnnotation.class);
-
-        if (! pattern.matcher(token.lemma()).matches() ||
-            //currentType != null ||
-            ! (entry.overwritableTypes.contains(NERType) ||
-               myLabels.contains(NERType) 
-               //|| NERType.equals("O")
-               )) {
-          failed = true;
-          break;
-        }
-      }
-      if(! failed) {
-//        System.err.print("MATCHED REGEX:");
-//        for(int i = start; i < start + regex.size(); i ++) System.err.print(" " + document.get(i).word());
-//        System.err.println();
-        return start;
-      }
-    }
-    return -1;
-  }
-
   @Override
   public List<CoreLabel> classifyWithGlobalInformation(List<CoreLabel> tokenSeq, final CoreMap doc, final CoreMap sent) {
     return classify(tokenSeq);
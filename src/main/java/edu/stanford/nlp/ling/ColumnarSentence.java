@@ -0,0 +1,515 @@
+package edu.stanford.nlp.ling;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.Set;
+
+import edu.stanford.nlp.ling.CoreAnnotations.AnswerAnnotation;
+import edu.stanford.nlp.ling.CoreAnnotations.AnswersAnnotation;
+import edu.stanford.nlp.ling.CoreAnnotations.DistSimAnnotation;
+import edu.stanford.nlp.ling.CoreAnnotations.ExtraColumnAnnotation;
+import edu.stanford.nlp.ling.CoreAnnotations.GoldAnswerAnnotation;
+import edu.stanford.nlp.ling.CoreAnnotations.IndexAnnotation;
+import edu.stanford.nlp.ling.CoreAnnotations.LVFullTagAnnotation;
+import edu.stanford.nlp.ling.CoreAnnotations.LVMorphologyAnalysis;
+import edu.stanford.nlp.ling.CoreAnnotations.LVMorphologyAnalysisBest;
+import edu.stanford.nlp.ling.CoreAnnotations.LabelAnnotation;
+import edu.stanford.nlp.ling.CoreAnnotations.LemmaAnnotation;
+import edu.stanford.nlp.ling.CoreAnnotations.MorphologyFeatureStringAnnotation;
+import edu.stanford.nlp.ling.CoreAnnotations.NamedEntityTagAnnotation;
+import edu.stanford.nlp.ling.CoreAnnotations.NamedEntityTagGoldAnnotation;
+import edu.stanford.nlp.ling.CoreAnnotations.ParentAnnotation;
+import edu.stanford.nlp.ling.CoreAnnotations.PartOfSpeechAnnotation;
+import edu.stanford.nlp.ling.CoreAnnotations.ShapeAnnotation;
+import edu.stanford.nlp.ling.CoreAnnotations.TextAnnotation;
+import edu.stanford.nlp.util.ArrayCoreMap;
+import edu.stanford.nlp.util.CoreMap;
+import edu.stanford.nlp.util.HashableCoreMap;
+import edu.stanford.nlp.util.TypesafeMap.Key;
+
+/**
+ * A sentence (or document) of tokens stored by column instead of as one
+ * {@link CoreLabel} per token: the annotations that the Latvian readers and
+ * feature factories use each get one array over all the tokens - a String[]
+ * for string annotations, an int[] for the token index - and any other
+ * annotation goes to a small {@link ArrayCoreMap} made only for the tokens
+ * that have one.  A per-token bit mask records which of the column
+ * annotations are set, so a key set to <code>null</code> is still
+ * distinguished from a missing key, as in ArrayCoreMap.  Unlike there, the
+ * key set lists the column annotations first, in a fixed order, and then the
+ * others in the order they were set.
+ * <p>
+ * The list elements are CoreLabel views of the columns, so the sentence can be
+ * passed anywhere a <code>List&lt;CoreLabel&gt;</code> is expected (readers,
+ * feature factories, classifiers); reading and writing annotations on a view
+ * reads and writes the columns.  A view is made on first access and then kept,
+ * so the same token is always the same object.  Finding the column of a key is a
+ * chain of identity comparisons that the JIT compiler folds to a constant at
+ * the call sites that pass a constant key - nearly all of them - so a lookup
+ * costs about as much as an array access, whether or not the token has the
+ * annotation, where ArrayCoreMap scans all its keys for a missing one.
+ * <p>
+ * Tokens are added with {@link #addToken()}, which returns the new (empty)
+ * view to fill, or with <code>add</code>, which copies the annotations of the
+ * given CoreMap.  Tokens cannot be removed or replaced.  Serializing a view,
+ * or the sentence, writes ordinary CoreLabels.
+ */
+public class ColumnarSentence extends AbstractList<CoreLabel> implements RandomAccess, Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * The annotations kept in columns: the String valued ones first, then the
+   * other objects.  {@link #column} has to follow the same order.
+   */
+  private static final Class<?>[] COLUMN_KEYS = {
+    TextAnnotation.class, LemmaAnnotation.class, PartOfSpeechAnnotation.class, ShapeAnnotation.class,
+    AnswerAnnotation.class, GoldAnswerAnnotation.class, NamedEntityTagAnnotation.class,
+    NamedEntityTagGoldAnnotation.class, LVFullTagAnnotation.class, MorphologyFeatureStringAnnotation.class,
+    ParentAnnotation.class, LabelAnnotation.class, ExtraColumnAnnotation.class, DistSimAnnotation.class,
+    LVMorphologyAnalysis.class, LVMorphologyAnalysisBest.class, AnswersAnnotation.class,
+  };
+  private static final int STRING_COLUMNS = 14;
+  /** The bit of IndexAnnotation in the presence mask; it is kept in its own int[] */
+  private static final int INDEX_COLUMN = COLUMN_KEYS.length;
+
+  private int size; // = 0;
+  /** Column arrays, allocated when the first token sets that annotation */
+  private final Object[][] columns = new Object[COLUMN_KEYS.length][];
+  private int[] indexes;
+  /** Which tokens have IndexAnnotation set to null; made when the first one is */
+  private boolean[] nullIndexes;
+  /** Which columns are set, one bit per column for each token */
+  private long[] present;
+  /** Annotations that have no column; null for tokens that have none */
+  private ArrayCoreMap[] others;
+  private Token[] views;
+
+  public ColumnarSentence() {
+    this(16);
+  }
+
+  /**
+   * @param capacity Number of tokens to make room for; the arrays grow if necessary
+   */
+  public ColumnarSentence(int capacity) {
+    capacity = Math.max(capacity, 1);
+    present = new long[capacity];
+    views = new Token[capacity];
+  }
+
+  /**
+   * Copies the tokens of a list of CoreMaps.
+   */
+  public ColumnarSentence(List<? extends CoreMap> tokens) {
+    this(tokens.size());
+    for (CoreMap token : tokens) {
+      add(token);
+    }
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public CoreLabel get(int i) {
+    if (i < 0 || i >= size) {
+      throw new IndexOutOfBoundsException("Index " + i + " outside of 0.." + size);
+    }
+    Token view = views[i];
+    if (view == null) {
+      view = new Token(i);
+      views[i] = view;
+    }
+    return view;
+  }
+
+  /**
+   * Appends a token without annotations.
+   * @return The view of the new token, to set its annotations on
+   */
+  public CoreLabel addToken() {
+    if (size == present.length) {
+      grow();
+    }
+    size++;
+    modCount++;
+    return get(size - 1);
+  }
+
+  /**
+   * Appends a token with the annotations parsed from strings, as the
+   * {@link CoreLabel#CoreLabel(String[], String[])} constructor does.
+   * @return The view of the new token
+   */
+  public CoreLabel addToken(String[] keys, String[] values) {
+    Token token = (Token) addToken();
+    token.initFromStrings(keys, values);
+    return token;
+  }
+
+  /**
+   * Appends a token with a copy of the annotations of the given CoreMap; the
+   * element added to the list is the view of the copy, not the argument.
+   */
+  @Override
+  public boolean add(CoreLabel token) {
+    add((CoreMap) token);
+    return true;
+  }
+
+  private void add(CoreMap token) {
+    addToken();
+    for (Class<?> key : token.keySet()) {
+      tokenSet(size - 1, key, token.get(anyKey(key)));
+    }
+  }
+
+  /** The key as the CoreMap methods take it, for passing values around as Objects */
+  @SuppressWarnings("unchecked")
+  private static Class<Key<CoreMap, Object>> anyKey(Class<?> key) {
+    return (Class<Key<CoreMap, Object>>) key;
+  }
+
+  private void grow() {
+    int capacity = present.length + (present.length >> 1) + 1;
+    present = Arrays.copyOf(present, capacity);
+    views = Arrays.copyOf(views, capacity);
+    for (int c = 0; c < columns.length; c++) {
+      if (columns[c] != null) {
+        columns[c] = Arrays.copyOf(columns[c], capacity);
+      }
+    }
+    if (indexes != null) {
+      indexes = Arrays.copyOf(indexes, capacity);
+    }
+    if (nullIndexes != null) {
+      nullIndexes = Arrays.copyOf(nullIndexes, capacity);
+    }
+    if (others != null) {
+      others = Arrays.copyOf(others, capacity);
+    }
+  }
+
+  /**
+   * The column of the key, or -1 if it has none.  The comparisons go in the
+   * order of COLUMN_KEYS; when the key is a constant, as in the CoreLabel
+   * accessors, the JIT compiler folds them all away after inlining.
+   */
+  private static int column(Class<?> key) {
+    if (key == TextAnnotation.class) return 0;
+    if (key == LemmaAnnotation.class) return 1;
+    if (key == PartOfSpeechAnnotation.class) return 2;
+    if (key == ShapeAnnotation.class) return 3;
+    if (key == AnswerAnnotation.class) return 4;
+    if (key == GoldAnswerAnnotation.class) return 5;
+    if (key == NamedEntityTagAnnotation.class) return 6;
+    if (key == NamedEntityTagGoldAnnotation.class) return 7;
+    if (key == LVFullTagAnnotation.class) return 8;
+    if (key == MorphologyFeatureStringAnnotation.class) return 9;
+    if (key == ParentAnnotation.class) return 10;
+    if (key == LabelAnnotation.class) return 11;
+    if (key == ExtraColumnAnnotation.class) return 12;
+    if (key == DistSimAnnotation.class) return 13;
+    if (key == LVMorphologyAnalysis.class) return 14;
+    if (key == LVMorphologyAnalysisBest.class) return 15;
+    if (key == AnswersAnnotation.class) return 16;
+    if (key == IndexAnnotation.class) return INDEX_COLUMN;
+    return -1;
+  }
+
+  private Object tokenGet(int i, Class<?> key) {
+    int c = column(key);
+    if (c < 0) {
+      return (others == null || others[i] == null) ? null : others[i].get(anyKey(key));
+    }
+    if ((present[i] & (1L << c)) == 0) {
+      return null;
+    }
+    if (c == INDEX_COLUMN) {
+      return (nullIndexes != null && nullIndexes[i]) ? null : Integer.valueOf(indexes[i]);
+    }
+    return columns[c][i];
+  }
+
+  private boolean tokenHas(int i, Class<?> key) {
+    int c = column(key);
+    if (c < 0) {
+      return others != null && others[i] != null && others[i].has(anyKey(key));
+    }
+    return (present[i] & (1L << c)) != 0;
+  }
+
+  private Object tokenSet(int i, Class<?> key, Object value) {
+    int c = column(key);
+    if (c < 0) {
+      if (others == null) {
+        others = new ArrayCoreMap[present.length];
+      }
+      if (others[i] == null) {
+        others[i] = new ArrayCoreMap(2);
+      }
+      return others[i].set(anyKey(key), value);
+    }
+    Object old = tokenGet(i, key);
+    if (c == INDEX_COLUMN) {
+      if (indexes == null) {
+        indexes = new int[present.length];
+      }
+      if (value == null) {
+        if (nullIndexes == null) {
+          nullIndexes = new boolean[present.length];
+        }
+        nullIndexes[i] = true;
+      } else {
+        indexes[i] = (Integer) value;
+        if (nullIndexes != null) {
+          nullIndexes[i] = false;
+        }
+      }
+    } else {
+      if (columns[c] == null) {
+        columns[c] = (c < STRING_COLUMNS) ? new String[present.length] : new Object[present.length];
+      }
+      columns[c][i] = value;
+    }
+    present[i] |= 1L << c;
+    return old;
+  }
+
+  private Object tokenRemove(int i, Class<?> key) {
+    int c = column(key);
+    if (c < 0) {
+      return (others == null || others[i] == null) ? null : others[i].remove(anyKey(key));
+    }
+    Object old = tokenGet(i, key);
+    if (c != INDEX_COLUMN && columns[c] != null) {
+      columns[c][i] = null;
+    } else if (c == INDEX_COLUMN && nullIndexes != null) {
+      nullIndexes[i] = false;
+    }
+    present[i] &= ~(1L << c);
+    return old;
+  }
+
+  private int keyCount(int i) {
+    return Long.bitCount(present[i]) + ((others == null || others[i] == null) ? 0 : others[i].size());
+  }
+
+  private List<Class<?>> keys(int i) {
+    List<Class<?>> keys = new ArrayList<Class<?>>(keyCount(i));
+    for (long mask = present[i]; mask != 0; mask &= mask - 1) {
+      int c = Long.numberOfTrailingZeros(mask);
+      keys.add(c == INDEX_COLUMN ? IndexAnnotation.class : COLUMN_KEYS[c]);
+    }
+    if (others != null && others[i] != null) {
+      keys.addAll(others[i].keySet());
+    }
+    return keys;
+  }
+
+  private Object writeReplace() {
+    List<CoreLabel> tokens = new ArrayList<CoreLabel>(size);
+    for (int i = 0; i < size; i++) {
+      tokens.add(new CoreLabel(get(i)));
+    }
+    return tokens;
+  }
+
+  /**
+   * The CoreLabel view of one token.  It keeps nothing of its own: every
+   * CoreMap method goes to the columns of the sentence.
+   */
+  public final class Token extends CoreLabel {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int i;
+
+    private Token(int i) {
+      super(0);
+      this.i = i;
+    }
+
+    /** The sentence this token belongs to */
+    public ColumnarSentence sentence() {
+      return ColumnarSentence.this;
+    }
+
+    /** The position of this token in its sentence */
+    public int position() {
+      return i;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <VALUE, KEY extends Key<CoreMap, VALUE>> VALUE get(Class<KEY> key) {
+      return (VALUE) tokenGet(i, key);
+    }
+
+    @Override
+    public <VALUE, KEY extends Key<CoreMap, VALUE>> boolean has(Class<KEY> key) {
+      return tokenHas(i, key);
+    }
+
+    @Override
+    public <VALUE, KEY extends Key<CoreMap, VALUE>> boolean containsKey(Class<KEY> key) {
+      return tokenHas(i, key);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <VALUEBASE, VALUE extends VALUEBASE, KEY extends Key<CoreMap, VALUEBASE>>
+      VALUE set(Class<KEY> key, VALUE value) {
+      return (VALUE) tokenSet(i, key, value);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <VALUE, KEY extends Key<CoreMap, VALUE>> VALUE remove(Class<KEY> key) {
+      return (VALUE) tokenRemove(i, key);
+    }
+
+    @Override
+    public Set<Class<?>> keySet() {
+      return new AbstractSet<Class<?>>() {
+        @Override
+        public Iterator<Class<?>> iterator() {
+          final Iterator<Class<?>> keys = keys(i).iterator();
+          return new Iterator<Class<?>>() {
+            private Class<?> last; // = null;
+
+            public boolean hasNext() {
+              return keys.hasNext();
+            }
+
+            public Class<?> next() {
+              last = keys.next();
+              return last;
+            }
+
+            public void remove() {
+              if (last == null) {
+                throw new NoSuchElementException();
+              }
+              tokenRemove(i, last);
+              last = null;
+            }
+          };
+        }
+
+        @Override
+        public int size() {
+          return keyCount(i);
+        }
+      };
+    }
+
+    @Override
+    public int size() {
+      return keyCount(i);
+    }
+
+    /** Nothing to compact: the storage belongs to the sentence. */
+    @Override
+    public void compact() {
+    }
+
+    @Override
+    public void setCapacity(int newSize) {
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (obj == this) {
+        return true;
+      }
+      if (!(obj instanceof CoreMap)) {
+        return false;
+      }
+      if (obj instanceof HashableCoreMap) {
+        return obj.equals(this);
+      }
+      CoreMap other = (CoreMap) obj;
+      if (other.size() != size()) {
+        return false;
+      }
+      for (Class<?> key : keys(i)) {
+        if (!other.has(anyKey(key))) {
+          return false;
+        }
+        Object thisV = tokenGet(i, key);
+        Object otherV = other.get(anyKey(key));
+        if (thisV == null ? otherV != null : !thisV.equals(otherV)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public int hashCode() {
+      int keyscode = 0;
+      int valuescode = 0;
+      for (Class<?> key : keys(i)) {
+        Object value = tokenGet(i, key);
+        keyscode += key.hashCode();
+        valuescode += (value != null ? value.hashCode() : 0);
+      }
+      return keyscode * 37 + valuescode;
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder s = new StringBuilder("[");
+      for (Class<?> key : keys(i)) {
+        if (s.length() > 1) {
+          s.append(' ');
+        }
+        s.append(key.getSimpleName()).append('=').append(tokenGet(i, key));
+      }
+      s.append(']');
+      return s.toString();
+    }
+
+    @Override
+    public String toShorterString(String... what) {
+      StringBuilder s = new StringBuilder("[");
+      for (Class<?> key : keys(i)) {
+        String name = key.getSimpleName();
+        int annoIdx = name.lastIndexOf("Annotation");
+        if (annoIdx >= 0) {
+          name = name.substring(0, annoIdx);
+        }
+        if (what.length == 0 || Arrays.asList(what).contains(name)) {
+          if (s.length() > 1) {
+            s.append(' ');
+          }
+          s.append(name).append('=').append(tokenGet(i, key));
+        }
+      }
+      s.append(']');
+      return s.toString();
+    }
+
+    /** The annotations are in the columns of the sentence, see ArrayCoreMap.equals */
+    @Override
+    protected boolean isArrayBacked() {
+      return false;
+    }
+
+    private Object writeReplace() {
+      return new CoreLabel(this);
+    }
+  }
+
+}
@@ -144,7 +144,7 @@ HasContext, HasIndex, HasOffset {
 
 
   @SuppressWarnings("unchecked")
-  private void initFromStrings(String[] keys, String[] values) {
+  void initFromStrings(String[] keys, String[] values) {
     for (int i = 0; i < Math.min(keys.length, values.length); i++) {
       String key = keys[i];
       String value = values[i];
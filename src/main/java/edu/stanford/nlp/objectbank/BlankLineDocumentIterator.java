@@ -0,0 +1,398 @@
+package edu.stanford.nlp.objectbank;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import edu.stanford.nlp.io.RuntimeIOException;
+import edu.stanford.nlp.util.AbstractIterator;
+
+/**
+ * An Iterator over the documents of a Reader, where documents are separated by
+ * blank lines - as in CoNLL style column files.  It splits the text exactly as
+ * a {@link DelimitRegExIterator} with the delimiter <code>"\n(?:\\s*\n)+"</code>
+ * does, but without reading the whole text into one String and without regular
+ * expressions: the text is read into a char buffer, the lines of a document are
+ * kept as offsets into it, and a {@link DocumentParser} makes the document
+ * from the lines - usually creating Strings only for the fields it keeps.
+ * <p>
+ * The splitting rules, which are those of DelimitRegExIterator: lines end at
+ * "\n", "\r" or "\r\n", as for BufferedReader.readLine; a line of only
+ * whitespace (\s) separates documents; the text as a whole is trimmed, so
+ * lines before the first and after the last character above ' ' are dropped,
+ * and that first and last line lose their leading and trailing characters up
+ * to ' ' respectively.  A text with no such character gives one document of
+ * one empty line.
+ *
+ * @param <T> The type of the documents returned
+ */
+public class BlankLineDocumentIterator<T> extends AbstractIterator<T> {
+
+  /**
+   * Makes a document from its lines.
+   */
+  public interface DocumentParser<T> {
+    T parse(Lines lines);
+  }
+
+  private static final int BLANK = 0; // only whitespace, a document separator
+  private static final int CONTROL = 1; // only characters up to ' ', but not all of them whitespace
+  private static final int CONTENT = 2;
+
+  private final Reader in;
+  private final DocumentParser<T> parser;
+
+  private char[] buf = new char[65536];
+  private int limit; // = 0; end of the data in buf
+  private int pos; // = 0; start of the unread data in buf
+  private boolean eof; // = false;
+  private boolean skipLF; // = false; the last line ended with '\r', so a '\n' that follows belongs to it
+
+  /**
+   * Lines read but not yet handed to the document: the last content line
+   * and any lines after it, because trimming the end of the text may still
+   * change them.  queueReady of them, from queueHead, may be used.
+   */
+  private int[] queue = new int[3 * 64]; // start, end and type of each line
+  private int queueHead; // = 0;
+  private int queueSize; // = 0;
+  private int queueReady; // = 0;
+  private boolean endTrimmed; // = false;
+
+  private boolean started; // = false; whether the first content line has been seen
+  private int documents; // = 0;
+  private final Lines lines = new Lines();
+  private T nextDocument;
+
+  public BlankLineDocumentIterator(Reader in, DocumentParser<T> parser) {
+    this.in = in;
+    this.parser = parser;
+    nextDocument = readDocument();
+  }
+
+  @Override
+  public boolean hasNext() {
+    return nextDocument != null;
+  }
+
+  @Override
+  public T next() {
+    if (nextDocument == null) {
+      throw new NoSuchElementException("BlankLineDocumentIterator exhausted");
+    }
+    T document = nextDocument;
+    nextDocument = readDocument();
+    return document;
+  }
+
+  private T readDocument() {
+    lines.size = 0;
+    try {
+      while (nextLine()) {
+        int start = queue[3 * queueHead - 3];
+        int end = queue[3 * queueHead - 2];
+        int type = queue[3 * queueHead - 1];
+        if (!started) {
+          if (type != CONTENT) {
+            continue;
+          }
+          while (buf[start] <= ' ') {
+            start++;
+          }
+          started = true;
+        }
+        if (type == BLANK) {
+          if (lines.size > 0) {
+            break;
+          }
+          continue;
+        }
+        lines.add(start, end);
+      }
+    } catch (IOException e) {
+      throw new RuntimeIOException(e);
+    }
+    if (lines.size == 0) {
+      if (documents > 0) {
+        return null;
+      }
+      lines.add(0, 0); // an empty text still makes one (empty) document
+    }
+    documents++;
+    lines.buf = buf;
+    return parser.parse(lines);
+  }
+
+  /**
+   * Moves to the next line that can be used, which is then the one just before queueHead.
+   * @return false at the end of the text
+   */
+  private boolean nextLine() throws IOException {
+    while (queueReady == 0) {
+      if (!readRawLine()) {
+        if (endTrimmed) {
+          return false;
+        }
+        endTrimmed = true;
+        // the end of the text: drop the lines after the last content line, and trim that
+        int last = queueSize - 1;
+        while (last >= 0 && queue[3 * (queueHead + last) + 2] != CONTENT) {
+          last--;
+        }
+        queueSize = last + 1;
+        if (queueSize == 0) {
+          return false;
+        }
+        int at = 3 * (queueHead + last);
+        while (buf[queue[at + 1] - 1] <= ' ') {
+          queue[at + 1]--;
+        }
+        queueReady = queueSize;
+      }
+    }
+    queueHead++;
+    queueSize--;
+    queueReady--;
+    return true;
+  }
+
+  /**
+   * Reads one line into the queue.
+   * @return false if the text has ended
+   */
+  private boolean readRawLine() throws IOException {
+    if (skipLF) {
+      if (pos == limit) {
+        fill();
+      }
+      if (pos < limit && buf[pos] == '\n') {
+        pos++;
+      }
+      skipLF = false;
+    }
+    int i = pos;
+    while (true) {
+      for (; i < limit; i++) {
+        char c = buf[i];
+        if (c == '\n' || c == '\r') {
+          enqueue(pos, i);
+          skipLF = (c == '\r');
+          pos = i + 1;
+          return true;
+        }
+      }
+      if (eof) {
+        if (pos < limit) {
+          enqueue(pos, limit);
+          pos = limit;
+          return true;
+        }
+        return false;
+      }
+      int scanned = i - pos;
+      fill();
+      i = pos + scanned;
+    }
+  }
+
+  private void enqueue(int start, int end) {
+    int type = BLANK;
+    for (int i = start; i < end; i++) {
+      char c = buf[i];
+      if (c > ' ') {
+        type = CONTENT;
+        break;
+      } else if (c != ' ' && c != '\t' && c != '\u000B' && c != '\f') {
+        type = CONTROL;
+      }
+    }
+    if (3 * (queueHead + queueSize + 1) > queue.length) {
+      System.arraycopy(queue, 3 * queueHead, queue, 0, 3 * queueSize);
+      queueHead = 0;
+      if (3 * (queueSize + 1) > queue.length) {
+        queue = Arrays.copyOf(queue, queue.length * 2);
+      }
+    }
+    int at = 3 * (queueHead + queueSize);
+    queue[at] = start;
+    queue[at + 1] = end;
+    queue[at + 2] = type;
+    queueSize++;
+    if (type == CONTENT) {
+      // the lines before this one are no longer at the end of the text
+      queueReady = queueSize - 1;
+    }
+  }
+
+  /**
+   * Reads more of the text, first moving the data still in use to the start of
+   * the buffer (or growing it, if all of it is in use).
+   */
+  private void fill() throws IOException {
+    int keep = pos;
+    if (lines.size > 0) {
+      keep = lines.starts[0];
+    } else if (queueSize > 0) {
+      keep = queue[3 * queueHead];
+    }
+    if (keep > 0) {
+      System.arraycopy(buf, keep, buf, 0, limit - keep);
+      limit -= keep;
+      pos -= keep;
+      for (int i = 0; i < lines.size; i++) {
+        lines.starts[i] -= keep;
+        lines.ends[i] -= keep;
+      }
+      for (int i = 0; i < queueSize; i++) {
+        queue[3 * (queueHead + i)] -= keep;
+        queue[3 * (queueHead + i) + 1] -= keep;
+      }
+    }
+    if (limit == buf.length) {
+      buf = Arrays.copyOf(buf, buf.length * 2);
+    }
+    int n = in.read(buf, limit, buf.length - limit);
+    if (n < 0) {
+      eof = true;
+    } else {
+      limit += n;
+    }
+  }
+
+  /**
+   * The lines of one document, as offsets into the buffer.  It is only valid
+   * during {@link DocumentParser#parse}.
+   */
+  public static class Lines {
+    private char[] buf;
+    private int[] starts = new int[64];
+    private int[] ends = new int[64];
+    private int size;
+
+    private void add(int start, int end) {
+      if (size == starts.length) {
+        starts = Arrays.copyOf(starts, size * 2);
+        ends = Arrays.copyOf(ends, size * 2);
+      }
+      starts[size] = start;
+      ends[size] = end;
+      size++;
+    }
+
+    /** The number of lines */
+    public int size() {
+      return size;
+    }
+
+    /** The i-th line, without its line terminator */
+    public String line(int i) {
+      return new String(buf, starts[i], ends[i] - starts[i]);
+    }
+
+    /** Whether the line is empty after <code>trim()</code> */
+    public boolean isBlank(int i) {
+      for (int j = starts[i]; j < ends[i]; j++) {
+        if (buf[j] > ' ') {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /** Whether the line contains s */
+    public boolean contains(int i, String s) {
+      int last = ends[i] - s.length();
+      OUTER:
+      for (int j = starts[i]; j <= last; j++) {
+        for (int k = 0; k < s.length(); k++) {
+          if (buf[j + k] != s.charAt(k)) {
+            continue OUTER;
+          }
+        }
+        return true;
+      }
+      return false;
+    }
+
+    /**
+     * Splits the line into tab separated fields, as <code>line.split("\t")</code>
+     * does, or <code>line.split("\t+")</code> if tabs are merged: trailing empty
+     * fields are dropped, and a line without tabs is one field, even if it is empty.
+     *
+     * @param i The line
+     * @param trim Whether to <code>trim()</code> the line first
+     * @param mergeTabs Whether a run of tabs is one separator
+     */
+    public String[] split(int i, boolean trim, boolean mergeTabs) {
+      int start = starts[i];
+      int end = ends[i];
+      if (trim) {
+        while (start < end && buf[start] <= ' ') {
+          start++;
+        }
+        while (end > start && buf[end - 1] <= ' ') {
+          end--;
+        }
+      }
+      int fields = 1;
+      for (int j = start; j < end; j++) {
+        if (buf[j] == '\t' && !(mergeTabs && j > start && buf[j - 1] == '\t')) {
+          fields++;
+        }
+      }
+      if (fields == 1) {
+        return new String[] { new String(buf, start, end - start) };
+      }
+      // trailing empty fields are dropped
+      int last = end;
+      while (last > start && buf[last - 1] == '\t') {
+        last--;
+      }
+      String[] result = new String[fields];
+      int n = 0;
+      int fieldStart = start;
+      for (int j = start; j <= last; j++) {
+        if (j == last || buf[j] == '\t') {
+          result[n++] = new String(buf, fieldStart, j - fieldStart);
+          if (mergeTabs) {
+            while (j + 1 < last && buf[j + 1] == '\t') {
+              j++;
+            }
+          }
+          fieldStart = j + 1;
+        }
+      }
+      if (last == start) {
+        n = 0; // nothing but tabs
+      }
+      return (n == fields) ? result : Arrays.copyOf(result, n);
+    }
+  }
+
+  /**
+   * Returns a factory that vends BlankLineDocumentIterators with the given parser.
+   */
+  public static <T> IteratorFromReaderFactory<T> getFactory(DocumentParser<T> parser) {
+    return new BlankLineDocumentIteratorFactory<T>(parser);
+  }
+
+  public static class BlankLineDocumentIteratorFactory<T> implements IteratorFromReaderFactory<T>, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final DocumentParser<T> parser;
+
+    public BlankLineDocumentIteratorFactory(DocumentParser<T> parser) {
+      this.parser = parser;
+    }
+
+    public Iterator<T> getIterator(Reader r) {
+      return new BlankLineDocumentIterator<T>(r, parser);
+    }
+
+  }
+
+}
@@ -0,0 +1,295 @@
+package edu.stanford.nlp.optimization;
+
+import edu.stanford.nlp.util.Timing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Multi-threaded in place Stochastic Gradient Descent Minimizer.
+ * <ul>
+ * <li> Each pass goes over the data in a random order, cut into disjoint minibatches
+ *   of bSize samples, which several threads process with
+ *   {@link AbstractStochasticCachingDiffUpdateFunction#calculateStochasticUpdate}.
+ * <li> By default the threads update the one shared weight array without any locks
+ *   ("Hogwild!", Niu et al. 2011): with sparse features, as in a CRF, two minibatches
+ *   seldom change the same weights, so the updates that get lost are few and the
+ *   passes get faster with every thread.  The result depends on thread timing.
+ * <li> With an averaging interval, each thread instead updates its own copy of the
+ *   weights, over that many minibatches, and then the copies are averaged into the
+ *   shared weights (iterative parameter mixing).  The minibatches of each thread are
+ *   fixed, so for a given number of threads the result is reproducible.
+ * <li> The learning rate schedule, its tuning and the L2 regularization are those of
+ *   {@link StochasticInPlaceMinimizer}; the rate of a minibatch depends on its place in
+ *   the pass, not on when it is processed.
+ * </ul>
+ */
+public class HogwildSGDMinimizer<T extends Function> extends StochasticInPlaceMinimizer<T> {
+
+  private final int threads;
+  private final int averagingInterval;
+
+  /** The weight copies of the threads in averaging mode */
+  private double[][] copies;
+  private double[] copyScales;
+
+  /**
+   * @param sigma The sigma of the L2 prior
+   * @param numPasses Passes over the data (if not positive, the StochasticInPlaceMinimizer default)
+   * @param batchSize Samples in a minibatch
+   * @param tuningSamples Samples used to tune the learning rate (if not positive, the default)
+   * @param threads Threads processing minibatches
+   * @param averagingInterval If positive, the threads update their own weights and these are
+   *   averaged after this many minibatches of each thread; otherwise they update the shared weights
+   */
+  public HogwildSGDMinimizer(double sigma, int numPasses, int batchSize, int tuningSamples, int threads,
+                             int averagingInterval) {
+    super(sigma, numPasses, tuningSamples);
+    this.bSize = Math.max(1, batchSize);
+    this.threads = Math.max(1, threads);
+    this.averagingInterval = averagingInterval;
+  }
+
+  @Override
+  protected String getName() {
+    return "SGD_Hogwild_t" + threads + (averagingInterval > 0 ? "_avg" + averagingInterval : "") +
+        "_b" + bSize + "_lambda" + lambda;
+  }
+
+  @Override
+  public double[] minimize(Function f, double functionTolerance, double[] initial, int maxIterations) {
+    if (!(f instanceof AbstractStochasticCachingDiffUpdateFunction)) {
+      throw new UnsupportedOperationException();
+    }
+    AbstractStochasticCachingDiffUpdateFunction function = (AbstractStochasticCachingDiffUpdateFunction) f;
+    int totalSamples = function.dataDimension();
+    int tuneSampleSize = Math.min(totalSamples, tuningSamples);
+    if (tuneSampleSize < tuningSamples) {
+      System.err.println("WARNING: Total number of samples=" + totalSamples +
+              " is smaller than requested tuning sample size=" + tuningSamples + "!!!");
+    }
+    lambda = 1.0/(sigma*totalSamples);
+    sayln("Using sigma=" + sigma + " lambda=" + lambda + " tuning sample size " + tuneSampleSize);
+    tune(function, initial, tuneSampleSize, 0.1);
+
+    x = new double[initial.length];
+    System.arraycopy(initial, 0, x, 0, x.length);
+    xscale = 1;
+    xnorm = getNorm(x);
+    int numBatches = (totalSamples + bSize - 1) / bSize;
+
+    init(function);
+
+    sayln("       Threads: " + threads + (averagingInterval > 0 ?
+        ", averaging every " + averagingInterval + " batches" : ", lock-free"));
+    sayln("       Batchsize of: " + bSize);
+    sayln("       Data dimension of: " + totalSamples);
+    sayln("       Batches per pass through data:  " + numBatches);
+    sayln("       Number of passes is = " + numPasses);
+
+    int[] order = new int[totalSamples];
+    for (int i = 0; i < totalSamples; i++) {
+      order[i] = i;
+    }
+
+    Timing total = new Timing();
+    Timing current = new Timing();
+    total.start();
+    current.start();
+    long t = t0;
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    try {
+      for (int pass = 0; pass < numPasses; pass++) {
+        if (pass > 0 && evaluateIters > 0 && pass % evaluateIters == 0) {
+          rescale();
+          doEvaluation(x);
+        }
+        say("Pass " + pass + " ... ");
+
+        shuffle(order);
+        double totalValue;
+        if (averagingInterval > 0) {
+          totalValue = averagedPass(pool, function, order, t);
+        } else {
+          totalValue = lockFreePass(pool, function, order, t);
+        }
+        t += totalSamples;
+
+        if (xscale < 1e-6) {
+          rescale();
+        }
+        try {
+          ensureFinite(x, "x");
+        } catch (InvalidElementException e) {
+          System.err.println(e.toString());
+          Arrays.fill(x, Double.NaN);
+          break;
+        }
+        xnorm = getNorm(x)*xscale*xscale;
+        // Calculate loss based on L2 regularization
+        double loss = totalValue + 0.5 * xnorm * lambda * totalSamples;
+        say(numBatches + " batches ");
+        say("[" + (total.report())/1000.0 + " s ");
+        say("{" + (current.restart()/1000.0) + " s}] ");
+        sayln(" " + totalValue + " " + loss);
+
+        if (total.report() >= maxTime) {
+          sayln("Stochastic Optimization complete.  Stopped after max time");
+          break;
+        }
+      }
+    } finally {
+      pool.shutdown();
+    }
+    rescale();
+
+    if (evaluateIters > 0) {
+      // do final evaluation
+      doEvaluation(x);
+    }
+
+    sayln("Completed in: " + Timing.toSecondsString(total.report()) + " s");
+
+    return x;
+  }
+
+  private void shuffle(int[] order) {
+    for (int i = order.length - 1; i > 0; i--) {
+      int j = gen.nextInt(i + 1);
+      int swap = order[i];
+      order[i] = order[j];
+      order[j] = swap;
+    }
+  }
+
+  /** The minibatch b of the pass */
+  private int[] batch(int[] order, int b) {
+    return Arrays.copyOfRange(order, b * bSize, Math.min((b + 1) * bSize, order.length));
+  }
+
+  /** The learning rate of the minibatch b of a pass starting at sample count t */
+  private double eta(long t, int b) {
+    return 1 / (lambda * (t + (long) b * bSize));
+  }
+
+  /**
+   * One pass where the threads take the next minibatch as they are free and
+   * update x in place, without locks.  The weight decay goes into one shared
+   * scale, which is changed atomically; an update computed with a scale that
+   * another thread has decayed meanwhile is off by that decay, a tiny amount.
+   *
+   * @return The sum of the values of the minibatches
+   */
+  private double lockFreePass(ForkJoinPool pool, final AbstractStochasticCachingDiffUpdateFunction function,
+                              final int[] order, final long t) {
+    final int numBatches = (order.length + bSize - 1) / bSize;
+    final AtomicInteger next = new AtomicInteger();
+    final AtomicLong scale = new AtomicLong(Double.doubleToLongBits(xscale));
+    List<Callable<Double>> workers = new ArrayList<Callable<Double>>();
+    for (int w = 0; w < threads; w++) {
+      workers.add(new Callable<Double>() {
+        public Double call() {
+          double value = 0;
+          for (int b = next.getAndIncrement(); b < numBatches; b = next.getAndIncrement()) {
+            int[] batch = batch(order, b);
+            double eta = eta(t, b);
+            double s = Double.longBitsToDouble(scale.get());
+            value += function.calculateStochasticUpdate(x, s, batch, eta/s);
+            // weight decay (for L2 regularization)
+            double decay = 1 - eta * lambda * batch.length;
+            while (true) {
+              long bits = scale.get();
+              if (scale.compareAndSet(bits, Double.doubleToLongBits(Double.longBitsToDouble(bits) * decay))) {
+                break;
+              }
+            }
+          }
+          return value;
+        }
+      });
+    }
+    double value = run(pool, workers);
+    xscale = Double.longBitsToDouble(scale.get());
+    return value;
+  }
+
+  /**
+   * One pass in rounds: in each, thread w updates its own copy of the weights
+   * over the averagingInterval minibatches from w * averagingInterval on, and
+   * then the copies of the threads that had minibatches are averaged into x.
+   *
+   * @return The sum of the values of the minibatches
+   */
+  private double averagedPass(ForkJoinPool pool, final AbstractStochasticCachingDiffUpdateFunction function,
+                              final int[] order, final long t) {
+    final int numBatches = (order.length + bSize - 1) / bSize;
+    if (copies == null || copies[0].length != x.length) {
+      copies = new double[threads][x.length];
+      copyScales = new double[threads];
+    }
+    double value = 0;
+    for (int round = 0; round < numBatches; round += threads * averagingInterval) {
+      List<Callable<Double>> workers = new ArrayList<Callable<Double>>();
+      int active = 0;
+      for (int w = 0; w < threads; w++) {
+        final int first = round + w * averagingInterval;
+        if (first >= numBatches) {
+          break;
+        }
+        final int last = Math.min(first + averagingInterval, numBatches);
+        final double[] copy = copies[w];
+        final int worker = w;
+        final double startScale = xscale;
+        active++;
+        workers.add(new Callable<Double>() {
+          public Double call() {
+            System.arraycopy(x, 0, copy, 0, x.length);
+            double s = startScale;
+            double value = 0;
+            for (int b = first; b < last; b++) {
+              int[] batch = batch(order, b);
+              double eta = eta(t, b);
+              value += function.calculateStochasticUpdate(copy, s, batch, eta/s);
+              // weight decay (for L2 regularization)
+              s *= (1 - eta * lambda * batch.length);
+            }
+            copyScales[worker] = s;
+            return value;
+          }
+        });
+      }
+      value += run(pool, workers);
+      for (int i = 0; i < x.length; i++) {
+        double sum = 0;
+        for (int w = 0; w < active; w++) {
+          sum += copies[w][i] * copyScales[w];
+        }
+        x[i] = sum / active;
+      }
+      xscale = 1;
+    }
+    return value;
+  }
+
+  private static double run(ForkJoinPool pool, List<Callable<Double>> workers) {
+    double value = 0;
+    try {
+      for (Future<Double> result : pool.invokeAll(workers)) {
+        value += result.get();
+      }
+    } catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException("Error in a stochastic update", e.getCause());
+    }
+    return value;
+  }
+
+}
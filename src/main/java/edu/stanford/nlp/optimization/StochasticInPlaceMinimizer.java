@@ -33,7 +33,7 @@ public class StochasticInPlaceMinimizer<T extends Function> implements Minimizer
   protected Random gen = new Random(1);
   protected long maxTime = Long.MAX_VALUE;
 
-  private int evaluateIters = 0;    // Evaluate every x iterations (0 = no evaluation)
+  protected int evaluateIters = 0;    // Evaluate every x iterations (0 = no evaluation)
   private Evaluator[] evaluators;  // separate set of evaluators to check how optimization is going
 
 
@@ -104,7 +104,7 @@ public class StochasticInPlaceMinimizer<T extends Function> implements Minimizer
     }
   }
 
-  private static void ensureFinite(double[] vect, String name) throws InvalidElementException {
+  protected static void ensureFinite(double[] vect, String name) throws InvalidElementException {
     for(int i=0;i<vect.length;i++){
       if(Double.isNaN(vect[i])){
         throw new InvalidElementException("NAN found in " + name + " element " + i);
@@ -203,7 +203,7 @@ public class StochasticInPlaceMinimizer<T extends Function> implements Minimizer
   }
 
   // really this is the square of the L2 norm....
-  private static double getNorm(double[] w)
+  protected static double getNorm(double[] w)
   {
     double norm = 0;
     for (int i = 0; i < w.length; i++) {
@@ -212,7 +212,7 @@ public class StochasticInPlaceMinimizer<T extends Function> implements Minimizer
     return norm;
   }
 
-  private void rescale()
+  protected void rescale()
   {
     if (xscale == 1) return;
     for (int i = 0; i < x.length; i++) {
@@ -221,7 +221,7 @@ public class StochasticInPlaceMinimizer<T extends Function> implements Minimizer
     xscale = 1;
   }
 
-  private void doEvaluation(double[] x) {
+  protected void doEvaluation(double[] x) {
     // Evaluate solution
     if (evaluators == null) return;
     for (Evaluator eval:evaluators) {
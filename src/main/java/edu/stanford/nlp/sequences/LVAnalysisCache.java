@@ -0,0 +1,125 @@
+package edu.stanford.nlp.sequences;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import lv.semti.morphology.analyzer.Word;
+import lv.semti.morphology.analyzer.Wordform;
+
+/**
+ * Bounded cache of morphological analyses for LVMorphologyReaderAndWriter: token -> analyzed Word and the index of its
+ * statistically most likely wordform.
+ * The entries are split among independently locked LRU segments, so that several tagging threads seldom wait for each other;
+ * a full segment drops its least recently used entry.
+ * Every lookup returns a fresh copy of the cached analysis, so that the callers may modify what they get
+ * (e.g. Wordform.removeNonlexicalAttributes in MorphoPipe) without affecting the cache.
+ */
+class LVAnalysisCache {
+	private static final int SEGMENTS = 16;
+
+	/** A cached analysis; best is the index of the most likely wordform, or -1 if there are none */
+	private static class CachedAnalysis {
+		final Word analysis;
+		final int best;
+
+		CachedAnalysis(Word analysis, int best) {
+			this.analysis = analysis;
+			this.best = best;
+		}
+	}
+
+	private final Segment[] segments;
+	private final int size;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	private static class Segment extends LinkedHashMap<String, CachedAnalysis> {
+		private static final long serialVersionUID = 1L;
+		private final int capacity;
+
+		Segment(int capacity) {
+			super(16, 0.75f, true); // access order, so the eldest entry is the least recently used
+			this.capacity = capacity;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, CachedAnalysis> eldest) {
+			return size() > capacity;
+		}
+	}
+
+	/**
+	 * @param size - maximum number of cached tokens; 0 disables the cache
+	 */
+	LVAnalysisCache(int size) {
+		this.size = size;
+		segments = new Segment[SEGMENTS];
+		int capacity = (size + SEGMENTS - 1) / SEGMENTS;
+		for (int i = 0; i < SEGMENTS; i++)
+			segments[i] = new Segment(capacity);
+	}
+
+	private Segment segmentFor(String token) {
+		int h = token.hashCode();
+		h ^= (h >>> 16);
+		return segments[h & (SEGMENTS - 1)];
+	}
+
+	/**
+	 * Returns a copy of the cached analysis of the token, or null if it is not in the cache.
+	 * The most likely wordform of the copy is put in best[0].
+	 */
+	Word get(String token, Wordform[] best) {
+		if (size == 0) return null;
+		Segment segment = segmentFor(token);
+		CachedAnalysis entry;
+		synchronized (segment) {
+			entry = segment.get(token);
+		}
+		if (entry == null) {
+			misses.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
+		Word copy = entry.analysis.clone();
+		best[0] = (entry.best < 0) ? null : copy.wordforms.get(entry.best);
+		return copy;
+	}
+
+	/**
+	 * Stores the analysis of the token. The cache keeps its own copy, so the caller may go on using and changing the analysis.
+	 * @param best - the most likely wordform of the analysis, or null
+	 */
+	void put(String token, Word analysis, Wordform best) {
+		if (size == 0) return;
+		int index = -1;
+		for (int i = 0; i < analysis.wordforms.size(); i++)
+			if (analysis.wordforms.get(i) == best) index = i;
+		CachedAnalysis entry = new CachedAnalysis(analysis.clone(), index);
+		Segment segment = segmentFor(token);
+		synchronized (segment) {
+			segment.put(token, entry);
+		}
+	}
+
+	void clear() {
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				segment.clear();
+			}
+		}
+	}
+
+	int size() {
+		return size;
+	}
+
+	long hits() {
+		return hits.get();
+	}
+
+	long misses() {
+		return misses.get();
+	}
+}
@@ -29,6 +29,7 @@ import java.util.List;
 import java.util.regex.Pattern;
 
 import edu.stanford.nlp.io.RuntimeIOException;
+import edu.stanford.nlp.ling.ColumnarSentence;
 import edu.stanford.nlp.ling.CoreAnnotations.AnswerAnnotation;
 import edu.stanford.nlp.ling.CoreAnnotations.AnswersAnnotation;
 import edu.stanford.nlp.ling.CoreAnnotations.DistSimAnnotation;
@@ -42,9 +43,8 @@ import edu.stanford.nlp.ling.CoreAnnotations.NamedEntityTagAnnotation;
 import edu.stanford.nlp.ling.CoreAnnotations.NamedEntityTagGoldAnnotation;
 import edu.stanford.nlp.ling.CoreAnnotations.ParentAnnotation;
 import edu.stanford.nlp.ling.CoreLabel;
-import edu.stanford.nlp.objectbank.DelimitRegExIterator;
+import edu.stanford.nlp.objectbank.BlankLineDocumentIterator;
 import edu.stanford.nlp.objectbank.IteratorFromReaderFactory;
-import edu.stanford.nlp.util.Function;
 import edu.stanford.nlp.util.StringUtils;
 
 
@@ -77,7 +77,7 @@ public class LVCoNLLDocumentReaderAndWriter implements DocumentReaderAndWriter<C
   
   public void init(SeqClassifierFlags flags) {
 	  this.flags = flags;
-	  factory = DelimitRegExIterator.getFactory("\n(?:\\s*\n)+", new ConlllDocParser());
+	  factory = BlankLineDocumentIterator.getFactory(new ConlllDocParser());
   }
 
 
@@ -88,36 +88,44 @@ public class LVCoNLLDocumentReaderAndWriter implements DocumentReaderAndWriter<C
   private int num; // = 0;
 
 
-  private class ConlllDocParser implements Serializable, Function<String,List<CoreLabel>> {
+  private class ConlllDocParser implements Serializable, BlankLineDocumentIterator.DocumentParser<List<CoreLabel>> {
 
     private static final long serialVersionUID = -6266332661459630572L;
     private final Pattern whitePattern = Pattern.compile("\\s+");
 
     int lineCount = 0;
 
-    public List<CoreLabel> apply(String doc) {
+    public List<CoreLabel> parse(BlankLineDocumentIterator.Lines lines) {
       if (num > 0 && num % 1000 == 0) { System.err.print("["+num+"]"); }
       num++;
 
-      List<CoreLabel> words = new ArrayList<CoreLabel>();
-
-      String[] lines = doc.split("\n");
+      ColumnarSentence columns = null;
+      List<CoreLabel> words;
+      if (flags != null && flags.columnarTokens) {
+        columns = new ColumnarSentence(lines.size());
+        words = columns;
+      } else {
+        words = new ArrayList<CoreLabel>();
+      }
 
-      for (String line : lines) {
+      for (int i = 0; i < lines.size(); i++) {
         ++lineCount;
 //        if (line.trim().length() == 0) {
 //          continue;
 //        }
         //String[] info = whitePattern.split(line);
         // todo: We could speed things up here by having one time only having converted map into an array of CoreLabel keys (Class<? extends CoreAnnotation<?>>) and then instantiating them. Need new constructor.
-        CoreLabel wi;
+        CoreLabel wi = (columns != null) ? columns.addToken() : new CoreLabel();
         try {
-          wi = makeCoreLabel(line);
+          // the fields are cut straight from the reader's buffer, without a String for the line
+          makeCoreLabel(lines.split(i, true, false), wi);
         } catch (RuntimeException e) {
-          System.err.println("Error on line " + lineCount + ": " + line);
+          System.err.println("Error on line " + lineCount + ": " + lines.line(i));
           throw e;
         }
-        words.add(wi);
+        if (columns == null) {
+          words.add(wi);
+        }
       }
       return words;
     }
@@ -145,7 +153,16 @@ public class LVCoNLLDocumentReaderAndWriter implements DocumentReaderAndWriter<C
 	  private CoreLabel makeCoreLabel(String line) {
 	    CoreLabel wi = new CoreLabel();
 	    line = line.trim();				//TODO empty simple morpho tag fix
-	    String[] bits = line.split("\t");//String[] bits = line.split("\\s+"); 
+	    makeCoreLabel(line.split("\t"), wi);//String[] bits = line.split("\\s+"); 
+	    return wi;
+	  }
+
+	  /**
+	   * Sets the annotations of a CoNLL input line on the given token
+	   *
+	   * @param bits The tab separated fields of the trimmed line
+	   */
+	  private void makeCoreLabel(String[] bits, CoreLabel wi) {
 	    if (bits.length <= 1) {
 	    	wi.setWord(BOUNDARY);
 	        wi.set(AnswerAnnotation.class, OTHER);
@@ -180,9 +197,8 @@ public class LVCoNLLDocumentReaderAndWriter implements DocumentReaderAndWriter<C
 	    		wi.set(ExtraColumnAnnotation.class, extraColumns.toString());
 	    	}	    	
 	    } else {
-	    	throw new RuntimeIOException("Unexpected conll input (field count) " + line);
+	    	throw new RuntimeIOException("Unexpected conll input (field count) " + StringUtils.join(bits, "\t"));
 	    }
-	    return wi;
 	  }
 
 	  private String intern(String s) {
@@ -23,18 +23,18 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
-import java.util.regex.Pattern;
 
+import edu.stanford.nlp.ling.ColumnarSentence;
 import edu.stanford.nlp.ling.CoreAnnotations.LVMorphologyAnalysis;
 import edu.stanford.nlp.ling.CoreAnnotations.LVMorphologyAnalysisBest;
 import edu.stanford.nlp.ling.CoreAnnotations.TextAnnotation;
 import edu.stanford.nlp.ling.CoreLabel;
 import edu.stanford.nlp.ling.CoreAnnotations.AnswerAnnotation;
 import edu.stanford.nlp.ling.CoreAnnotations.GoldAnswerAnnotation;
-import edu.stanford.nlp.objectbank.DelimitRegExIterator;
+import edu.stanford.nlp.objectbank.BlankLineDocumentIterator;
 import edu.stanford.nlp.objectbank.IteratorFromReaderFactory;
-import edu.stanford.nlp.util.Function;
 import edu.stanford.nlp.util.StringUtils;
 
 import lv.semti.morphology.analyzer.*;
@@ -53,9 +53,16 @@ public class LVMorphologyReaderAndWriter implements DocumentReaderAndWriter<Core
 
   private static final long serialVersionUID = 4858022869289996959L;
   private static transient Analyzer analyzer = null;
+  /** The analyzer keeps internal caches that are not safe for concurrent use, so taggers running
+   *  on several threads go through this lock for every tokenization or analysis call. */
+  private static final Object analyzerLock = new Object();
+  /** Default number of word types whose analysis is kept in the cache */
+  public static final int DEFAULT_CACHE_SIZE = 50000;
+  private static volatile LVAnalysisCache cache = new LVAnalysisCache(DEFAULT_CACHE_SIZE);
   private Collection<String> answerAttributes = null;
 
   private String[] map; // = null;
+  private boolean columnar; // = false;
   private IteratorFromReaderFactory<List<CoreLabel>> factory;
 
 
@@ -63,6 +70,7 @@ public class LVMorphologyReaderAndWriter implements DocumentReaderAndWriter<Core
 	  try {
 		  analyzer = new Analyzer(false);
 		  setAnalyzerDefaults();
+		  cache.clear();
 	  } catch (Exception e) {
 		  // TODO Auto-generated catch block
 		  e.printStackTrace();
@@ -76,20 +84,54 @@ public class LVMorphologyReaderAndWriter implements DocumentReaderAndWriter<Core
 		analyzer.enableAllGuesses = true; //TODO - check the effect on morphotagging accuracy
 	}
 
+	/**
+	 * Loads the analyzer on first use; synchronized so that taggers started on several threads load lexicon.xml only once.
+	 */
+	private static synchronized void ensureAnalyzer() {
+		if (analyzer == null) initAnalyzer();
+	}
+
 	/**
    * Instead of loading lexicon.xml in this class (as would happen automatically), provide a pre-loaded analyzer object to put in that singleton. 
    * @param preloaded
    */
   public static void setPreloadedAnalyzer(Analyzer preloaded){
 	  analyzer = preloaded;
+	  cache.clear();
   }
+
+	/**
+	 * Sets how many word types keep their analysis cached, discarding the current cache contents.
+	 * The cache serves the tokens that come already split (CoNLL input, analyzeSentence(List) and analyzeLabels);
+	 * the tokenizer analyzes the words of plain text itself, so analyzeSentence(String) and analyzeSentence2 do not use it.
+	 * The analyses done by the analyzer for the same token are identical, so the cache only saves time -
+	 * but if the analyzer settings are changed after some analysis, the cache should be reset by calling this again.
+	 * @param size - number of tokens; 0 turns the cache off
+	 */
+	public static void setAnalysisCacheSize(int size) {
+		cache = new LVAnalysisCache(size);
+	}
+
+	/**
+	 * Number of analyses served from the cache since it was created
+	 */
+	public static long getAnalysisCacheHits() {
+		return cache.hits();
+	}
+
+	/**
+	 * Number of tokens that were not found in the cache and had to be analyzed
+	 */
+	public static long getAnalysisCacheMisses() {
+		return cache.misses();
+	}
   
   /**
    * Getter for the currently used analyzer
    * @return
    */
   public static Analyzer getAnalyzer() {
-      if (analyzer == null ) initAnalyzer();
+      ensureAnalyzer();
       if (!analyzer.enableGuessing)
           System.err.println("Morphologic analyzer has disabled out-of-vocabulary guessing - this will reduce tagging accuracy");
       return analyzer;
@@ -97,17 +139,18 @@ public class LVMorphologyReaderAndWriter implements DocumentReaderAndWriter<Core
   
   public void init(SeqClassifierFlags flags) {
     this.map = StringUtils.mapStringToArray(flags.map);
-    if (analyzer == null ) initAnalyzer();
+    this.columnar = flags.columnarTokens;
+    ensureAnalyzer();
     //answerAttributes = Arrays.asList(AttributeNames.i_PartOfSpeech, AttributeNames.i_Gender, AttributeNames.i_Number, AttributeNames.i_Case, AttributeNames.i_Izteiksme);
     //answerAttributes = Arrays.asList(flags.lvMorphoAnalyzerTag);
-    factory = DelimitRegExIterator.getFactory("\n(?:\\s*\n)+", new LVColumnDocParser(answerAttributes));
+    factory = BlankLineDocumentIterator.getFactory(new LVColumnDocParser(answerAttributes));
   }
 
 
   public void init(String map) {
     this.map = StringUtils.mapStringToArray(map);
-    if (analyzer == null ) initAnalyzer();
-	factory = DelimitRegExIterator.getFactory("\n(?:\\s*\n)+", new LVColumnDocParser(answerAttributes));
+    ensureAnalyzer();
+	factory = BlankLineDocumentIterator.getFactory(new LVColumnDocParser(answerAttributes));
   }
 
   public Iterator<List<CoreLabel>> getIterator(Reader r) {
@@ -117,10 +160,9 @@ public class LVMorphologyReaderAndWriter implements DocumentReaderAndWriter<Core
   private int num; // = 0;
 
 
-  private class LVColumnDocParser implements Serializable, Function<String,List<CoreLabel>> {
+  private class LVColumnDocParser implements Serializable, BlankLineDocumentIterator.DocumentParser<List<CoreLabel>> {
 
     private static final long serialVersionUID = -6266312614596132573L;
-    private final Pattern whitePattern = Pattern.compile("\\t+");
     private Collection<String> answerAttributes;
 
     int lineCount = 0;
@@ -129,35 +171,42 @@ public class LVMorphologyReaderAndWriter implements DocumentReaderAndWriter<Core
     	answerAttributes = _answerAttributes;
     }
 
-    public List<CoreLabel> apply(String doc) {
+    public List<CoreLabel> parse(BlankLineDocumentIterator.Lines lines) {
       if (num > 0 && num % 1000 == 0) { System.err.print("["+num+"]"); }
       num++;
 
-      List<CoreLabel> words = new ArrayList<CoreLabel>();
-
-      String[] lines = doc.split("\n");
+      ColumnarSentence columns = null;
+      List<CoreLabel> words;
+      if (columnar) {
+        columns = new ColumnarSentence(lines.size());
+        words = columns;
+      } else {
+        words = new ArrayList<CoreLabel>();
+      }
 
       int wordCount = 0;
-      for (String line : lines) {
+      for (int i = 0; i < lines.size(); i++) {
         ++lineCount;
         //if (lineCount > 0 && lineCount % 1000 == 0) { System.err.print("["+lineCount+"]"); }
-        if (line.trim().length() == 0) continue;
-        if (line.contains("<g />")) continue;
-        if (!line.contains("<s>") && !line.contains("</s>")) wordCount++;
-        String[] info = whitePattern.split(line);
+        if (lines.isBlank(i)) continue;
+        if (lines.contains(i, "<g />")) continue;
+        if (!lines.contains(i, "<s>") && !lines.contains(i, "</s>")) wordCount++;
+        String[] info = lines.split(i, false, true);
         // todo: We could speed things up here by having one time only having converted map into an array of CoreLabel keys (Class<? extends CoreAnnotation<?>>) and then instantiating them. Need new constructor.
         CoreLabel wi;
         try {
-          wi = new CoreLabel(map, info);
+          wi = (columns != null) ? columns.addToken(map, info) : new CoreLabel(map, info);
         } catch (RuntimeException e) {
-          System.err.println("Error on line " + lineCount + ": " + line);
+          System.err.println("Error on line " + lineCount + ": " + lines.line(i));
           throw e;
         }
                 
         applyLVmorphoanalysis(wi, answerAttributes);
         
         //System.out.println(wi.word());
-        words.add(wi);        
+        if (columns == null) {
+          words.add(wi);
+        }
       }
       System.err.print("["+wordCount+"]");
       return words;
@@ -183,11 +232,40 @@ public class LVMorphologyReaderAndWriter implements DocumentReaderAndWriter<Core
    * @param answerAttributes
    */
   private static void applyLVmorphoanalysis(CoreLabel wi, Collection<String> answerAttributes) {
-	  Word analysis = analyzer.analyze(wi.word());
-	  applyLVmorphoanalysis(wi, analysis, answerAttributes);
+	  LVAnalysisCache cache = LVMorphologyReaderAndWriter.cache;
+	  Wordform[] best = new Wordform[1];
+	  Word analysis = cache.get(wi.word(), best);
+	  if (analysis == null) {
+		  ensureAnalyzer();
+		  synchronized (analyzerLock) {
+			  analysis = analyzer.analyze(wi.word());
+		  }
+		  best[0] = mostLikelyWordform(analysis);
+		  cache.put(wi.word(), analysis, best[0]);
+	  }
+	  applyLVmorphoanalysis(wi, analysis, best[0], answerAttributes);
   }
-  
-	private static void applyLVmorphoanalysis(CoreLabel wi, Word analysis, Collection<String> answerAttributes) {
+
+	/**
+	 * Picks the statistically most likely of the analysis options
+	 */
+	private static Wordform mostLikelyWordform(Word analysis) {
+        Wordform mainwf = null;
+		double max_likelihood = -1;
+		for (Wordform wf : analysis.wordforms) {  // Paskatamies visus atrastos variantus un ņemam statistiski ticamāko
+			double estimate = Statistics.getStatistics().getEstimate(wf);
+			if (estimate > max_likelihood) {
+				max_likelihood = estimate;
+				mainwf = wf;
+			}
+		}
+		return mainwf;
+	}
+
+	/**
+	 * @param mainwf - the most likely wordform of the analysis, or null to find it here
+	 */
+	private static void applyLVmorphoanalysis(CoreLabel wi, Word analysis, Wordform mainwf, Collection<String> answerAttributes) {
 		String token = wi.word();
 	    if (!token.contains("<s>")) {
 	        String answer = wi.get(AnswerAnnotation.class);
@@ -208,15 +286,8 @@ public class LVMorphologyReaderAndWriter implements DocumentReaderAndWriter<Core
 	        }
 	        wi.set(AnswerAnnotation.class, answer);
 	        	        
-	        Wordform mainwf = null;
-			double max_likelihood = -1;
-			for (Wordform wf : analysis.wordforms) {  // Paskatamies visus atrastos variantus un ņemam statistiski ticamāko
-				double estimate = Statistics.getStatistics().getEstimate(wf);
-				if (estimate > max_likelihood) {
-					max_likelihood = estimate;
-					mainwf = wf;
-				}
-			}
+	        if (mainwf == null)
+	        	mainwf = mostLikelyWordform(analysis);
 	        wi.set(LVMorphologyAnalysis.class, analysis);
 	        wi.set(LVMorphologyAnalysisBest.class, mainwf);
 	    }
@@ -249,12 +320,27 @@ public class LVMorphologyReaderAndWriter implements DocumentReaderAndWriter<Core
 	}
 
 	public static List<CoreLabel> analyzeSentence(String sentence) {
-	    if (analyzer == null ) initAnalyzer();
-	    List<Word> words = Splitting.tokenize(analyzer, sentence); 
+	    ensureAnalyzer();
+	    List<Word> words;
+	    synchronized (analyzerLock) {
+	    	words = Splitting.tokenize(analyzer, sentence);
+	    }
 	    
 	    return analyzeSentence2(words);
 	}
 
+	/**
+	 * Splits a paragraph in tokenized and analyzed sentences. Safe to call from several tagging threads at once.
+	 * @param text - the paragraph to split
+	 * @param lengthCap - maximum number of tokens in a sentence
+	 */
+	public static LinkedList<LinkedList<Word>> tokenizeSentences(String text, int lengthCap) {
+	    Analyzer a = getAnalyzer();
+	    synchronized (analyzerLock) {
+	    	return Splitting.tokenizeSentences(a, text, lengthCap);
+	    }
+	}
+
 	public static List<CoreLabel> analyzeSentence2(List<Word> sentence) {
 	    List<CoreLabel> result = new ArrayList<CoreLabel>();
 		CoreLabel s = new CoreLabel();
@@ -264,7 +350,7 @@ public class LVMorphologyReaderAndWriter implements DocumentReaderAndWriter<Core
 		for (Word w : sentence) {
 			CoreLabel word = new CoreLabel();
 			word.set(TextAnnotation.class, w.getToken());
-			applyLVmorphoanalysis(word, w, null); //answerAttributes varbūt jāpatjūnē
+			applyLVmorphoanalysis(word, w, null, null); //answerAttributes varbūt jāpatjūnē
 			result.add(word);
 		}
 		
@@ -68,6 +68,23 @@ import edu.stanford.nlp.util.ReflectionLoading;
  * </td>
  * </tr>
  * <tr>
+ * <td>useHogwildSGD</td>
+ * <td>boolean</td>
+ * <td>false</td>
+ * <td>Use in place SGD on multiThreadGrad threads, which update the weights
+ * without locks (or, with hogwildAveraging, their own copies of them), over
+ * minibatches of stochasticBatchSize documents. Implemented for CRFClassifier.
+ * NOTE: Remember to set useQN to false</td>
+ * </tr>
+ * <tr>
+ * <td>hogwildAveraging</td>
+ * <td>int</td>
+ * <td>0</td>
+ * <td>If this number is greater than 0, the useHogwildSGD threads each update
+ * their own copy of the weights, and the copies are averaged after this many
+ * minibatches of each thread (reproducible, but slower to converge).</td>
+ * </tr>
+ * <tr>
  * <td>tuneSampleSize</td>
  * <td>int</td>
  * <td>-1</td>
@@ -444,6 +461,7 @@ public class SeqClassifierFlags implements Serializable {
   public transient String loadAuxClassifier = null;
   public transient String serializeTo = null;
   public transient String serializeToText = null;
+  public transient String serializeToBinary = null;
   public transient int interimOutputFreq = 0;
   public transient String initialWeights = null;
   public transient List<String> gazettes = new ArrayList<String>();
@@ -474,6 +492,22 @@ public class SeqClassifierFlags implements Serializable {
   public String backgroundSymbol = DEFAULT_BACKGROUND_SYMBOL;
   // use
   public boolean useObservedSequencesOnly = false;
+  /** CMMClassifier: score class sequences through String feature Datums
+   *  instead of the compiled integer features (slower, gives the same tags) */
+  public transient boolean cmmStringScoring = false;
+  /** CRFClassifier: keep the weights of a loaded model as floats, in one flat array
+   *  (half the memory; labels may differ where two are scored within float rounding) */
+  public transient boolean floatWeights = false;
+  /** CRFClassifier training: number of threads computing the gradient, each over its own share of the documents
+   *  (or, with useHogwildSGD, processing minibatches) */
+  public int multiThreadGrad = 1;
+  /** CRFClassifier training: number of threads extracting the features of the documents */
+  public int featureThreads = 1;
+  /** CRFClassifier: if positive, features are hashed to weight rows instead of being kept in a
+   *  featureIndex, which the model then hasn't: 2^featureHashBits rows for the first clique, and
+   *  about as many weights for each larger one.  It is saved with the model, and can't be changed
+   *  when loading it */
+  public int featureHashBits = 0;
 
   public int maxDocSize = 0;
   public boolean printProbs = false;
@@ -738,6 +772,8 @@ public class SeqClassifierFlags implements Serializable {
 
   public String exportFeatures = null;
   public boolean useInPlaceSGD = false;
+  public boolean useHogwildSGD = false;
+  public int hogwildAveraging = 0;
   public boolean useTopics = false;
 
   // Number of iterations before evaluating weights (0 = don't evaluate)
@@ -843,6 +879,12 @@ public class SeqClassifierFlags implements Serializable {
   public boolean useLVMorphoAnalyzerPrev = false;
   public boolean useLVMorphoAnalyzerItemIDs = false;
 
+  /**
+   * Whether the LV document readers store each sentence in a ColumnarSentence
+   * instead of one CoreLabel per token
+   */
+  public transient boolean columnarTokens = false;
+
   // "ADD VARIABLES ABOVE HERE"
 
   public transient List<String> phraseGazettes = null;
@@ -1312,6 +1354,8 @@ public class SeqClassifierFlags implements Serializable {
         serializeTo = val;
       } else if (key.equalsIgnoreCase("serializeToText")) {
         serializeToText = val;
+      } else if (key.equalsIgnoreCase("serializeToBinary")) {
+        serializeToBinary = val;
       } else if (key.equalsIgnoreCase("serializeDatasetsDir")) {
         serializeDatasetsDir = val;
       } else if (key.equalsIgnoreCase("loadDatasetsDir")) {
@@ -1666,6 +1710,16 @@ public class SeqClassifierFlags implements Serializable {
         // end chinese word-segmenter features
       } else if (key.equalsIgnoreCase("useObservedSequencesOnly")) {
         useObservedSequencesOnly = Boolean.parseBoolean(val);
+      } else if (key.equalsIgnoreCase("cmmStringScoring")) {
+        cmmStringScoring = Boolean.parseBoolean(val);
+      } else if (key.equalsIgnoreCase("floatWeights")) {
+        floatWeights = Boolean.parseBoolean(val);
+      } else if (key.equalsIgnoreCase("multiThreadGrad")) {
+        multiThreadGrad = Integer.parseInt(val);
+      } else if (key.equalsIgnoreCase("featureThreads")) {
+        featureThreads = Integer.parseInt(val);
+      } else if (key.equalsIgnoreCase("featureHashBits")) {
+        featureHashBits = Integer.parseInt(val);
       } else if (key.equalsIgnoreCase("maxDocSize")) {
         maxDocSize = Integer.parseInt(val);
         splitDocuments = true;
@@ -1861,6 +1915,10 @@ public class SeqClassifierFlags implements Serializable {
         useSGD = Boolean.parseBoolean(val);
       } else if (key.equalsIgnoreCase("useInPlaceSGD")) {
         useInPlaceSGD = Boolean.parseBoolean(val);
+      } else if (key.equalsIgnoreCase("useHogwildSGD")) {
+        useHogwildSGD = Boolean.parseBoolean(val);
+      } else if (key.equalsIgnoreCase("hogwildAveraging")) {
+        hogwildAveraging = Integer.parseInt(val);
       } else if (key.equalsIgnoreCase("useSGDtoQN")) {
         useSGDtoQN = Boolean.parseBoolean(val);
       } else if (key.equalsIgnoreCase("SGDPasses")) {
@@ -2043,6 +2101,8 @@ public class SeqClassifierFlags implements Serializable {
     	  useMorphoLetaLemma = Boolean.parseBoolean(val);
       } else if (key.equalsIgnoreCase("useMorphoNumber")) {
     	  useMorphoNumber = Boolean.parseBoolean(val);
+      } else if (key.equalsIgnoreCase("columnarTokens")) {
+        columnarTokens = Boolean.parseBoolean(val);
 
         // ADD VALUE ABOVE HERE
       } else if (key.length() > 0 && !key.equals("prop")) {
@@ -48,6 +48,10 @@ public class ArrayCoreMap implements CoreMap, Serializable {
   /** Initial capacity of the array */
   private static final int INITIAL_CAPACITY = 4;
 
+  /** Shared by the maps made with capacity 0 until something is set */
+  private static final Class<?>[] EMPTY_KEYS = new Class<?>[0];
+  private static final Object[] EMPTY_VALUES = new Object[0];
+
   /** Array of keys */
   private Class<?>[] keys;
 
@@ -72,8 +76,13 @@ public class ArrayCoreMap implements CoreMap, Serializable {
    * @param capacity Initial capacity of object in key,value pairs
    */
   public ArrayCoreMap(int capacity) {
-    keys = new Class<?>[capacity];
-    values = new Object[capacity];
+    if (capacity == 0) {
+      keys = EMPTY_KEYS;
+      values = EMPTY_VALUES;
+    } else {
+      keys = new Class<?>[capacity];
+      values = new Object[capacity];
+    }
   }
 
   /**
@@ -347,7 +356,7 @@ public class ArrayCoreMap implements CoreMap, Serializable {
       return obj.equals(this);
     }
 
-    if (obj instanceof ArrayCoreMap) {
+    if (obj instanceof ArrayCoreMap && ((ArrayCoreMap) obj).isArrayBacked()) {
       // specialized equals for ArrayCoreMap
       return equals((ArrayCoreMap)obj);
     }
@@ -379,6 +388,15 @@ public class ArrayCoreMap implements CoreMap, Serializable {
     return true;
   }
 
+  /**
+   * Whether the annotations are kept in the arrays of this class.  Subclasses
+   * that keep them elsewhere override all the CoreMap methods and return
+   * false, so that other maps compare with them by the CoreMap methods.
+   */
+  protected boolean isArrayBacked() {
+    return true;
+  }
+
   private boolean equals(ArrayCoreMap other) {
     if (this.size != other.size) {
       return false;
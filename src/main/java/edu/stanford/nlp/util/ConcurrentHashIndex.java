@@ -0,0 +1,283 @@
+package edu.stanford.nlp.util;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.AbstractCollection;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An Index that several threads can add to at once, for building feature and
+ * label indices while extracting features on many threads.
+ * <p>
+ * Looking up an object that is already in the index takes no lock (it is a
+ * ConcurrentHashMap lookup), so once the index is complete, and in particular
+ * after {@link #lock()}, lookups cost no synchronization at all.  A new object
+ * is added under one of a number of lock stripes, chosen by its hash code, so
+ * threads adding different objects seldom wait for each other.  The objects
+ * themselves are kept in fixed size chunks that are never copied, so growing
+ * the index doesn't stop the readers either.
+ * <p>
+ * Ids are handed out in the order objects are added, which with several
+ * adding threads depends on their timing.  Where the ids have to be
+ * reproducible, as for the features of a trained model, add the objects from
+ * one thread in a fixed order and let the other threads only look them up.
+ * <p>
+ * <code>size</code>, <code>get</code> and iteration are exact once the
+ * adding threads have finished; while they are running, an id that another
+ * thread has just taken may not have its object yet.  Unlike HashIndex, the
+ * index cannot hold <code>null</code>.  It is serialized as a HashIndex with
+ * the same ids.
+ */
+public class ConcurrentHashIndex<E> extends AbstractCollection<E> implements Index<E>, RandomAccess {
+
+  private static final long serialVersionUID = 1L;
+
+  private static final int CHUNK_BITS = 12;
+  private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+  private static final int STRIPES = 64;
+
+  private final ConcurrentHashMap<E,Integer> indexes;
+  private final AtomicInteger size = new AtomicInteger();
+  /**
+   * The objects by id, in chunks of CHUNK_SIZE.  The objects are written into
+   * their chunk in place, but the array of chunks is replaced by a copy, never
+   * modified, when a chunk is added.
+   */
+  private volatile Object[][] chunks;
+  private final Object[] stripes = new Object[STRIPES];
+  private volatile boolean locked; // = false;
+
+  public ConcurrentHashIndex() {
+    this(16);
+  }
+
+  /**
+   * @param capacity Expected number of objects
+   */
+  public ConcurrentHashIndex(int capacity) {
+    indexes = new ConcurrentHashMap<E,Integer>(capacity, 0.75f, STRIPES);
+    chunks = new Object[capacity / CHUNK_SIZE + 1][];
+    for (int i = 0; i < STRIPES; i++) {
+      stripes[i] = new Object();
+    }
+  }
+
+  /**
+   * Creates an index with the members of c, in their iteration order.
+   */
+  public ConcurrentHashIndex(Collection<? extends E> c) {
+    this(c.size());
+    addAll(c);
+  }
+
+  @Override
+  public int size() {
+    return size.get();
+  }
+
+  @SuppressWarnings("unchecked")
+  public E get(int i) {
+    if (i < 0 || i >= size.get()) {
+      throw new ArrayIndexOutOfBoundsException("Index " + i + " outside the bounds [0," + size() + ")");
+    }
+    return (E) chunks[i >>> CHUNK_BITS][i & (CHUNK_SIZE - 1)];
+  }
+
+  public int indexOf(E o) {
+    if (o == null) {
+      return -1;
+    }
+    Integer index = indexes.get(o);
+    return (index == null) ? -1 : index;
+  }
+
+  public int indexOf(E o, boolean add) {
+    if (o == null) {
+      return -1;
+    }
+    Integer index = indexes.get(o);
+    if (index != null) {
+      return index;
+    }
+    if (!add || locked) {
+      return -1;
+    }
+    int id = insert(o);
+    return (id < 0) ? ~id : id;
+  }
+
+  /**
+   * Adds the object under its lock stripe.
+   * @return The new id, or the complement (~id) of the id the object already had
+   */
+  private int insert(E o) {
+    synchronized (stripes[(o.hashCode() & 0x7fffffff) % STRIPES]) {
+      Integer index = indexes.get(o);
+      if (index != null) {
+        return ~index;
+      }
+      int id = size.getAndIncrement();
+      store(id, o);
+      // the store above is visible to every thread that finds the mapping
+      indexes.put(o, id);
+      return id;
+    }
+  }
+
+  private void store(int id, E o) {
+    int chunk = id >>> CHUNK_BITS;
+    Object[][] current = chunks;
+    if (chunk >= current.length || current[chunk] == null) {
+      synchronized (this) {
+        current = chunks;
+        if (chunk >= current.length || current[chunk] == null) {
+          current = Arrays.copyOf(current, (chunk < current.length) ? current.length : Math.max(chunk + 1, current.length * 2));
+          current[chunk] = new Object[CHUNK_SIZE];
+          chunks = current;
+        }
+      }
+    }
+    current[chunk][id & (CHUNK_SIZE - 1)] = o;
+  }
+
+  /**
+   * Adds an object to the index, unless it is already there or the index is locked.
+   * @return true if the object was added
+   */
+  @Override
+  public boolean add(E o) {
+    if (o == null) {
+      throw new NullPointerException("A ConcurrentHashIndex can't hold null");
+    }
+    if (locked || indexes.containsKey(o)) {
+      return false;
+    }
+    return insert(o) >= 0;
+  }
+
+  @Override
+  public boolean addAll(Collection<? extends E> c) {
+    boolean changed = false;
+    for (E element : c) {
+      changed |= add(element);
+    }
+    return changed;
+  }
+
+  @Override
+  public boolean contains(Object o) {
+    return o != null && indexes.containsKey(o);
+  }
+
+  public List<E> objectsList() {
+    return new ObjectList();
+  }
+
+  public Collection<E> objects(final int[] indices) {
+    return new AbstractList<E>() {
+      @Override
+      public E get(int index) {
+        return ConcurrentHashIndex.this.get(indices[index]);
+      }
+
+      @Override
+      public int size() {
+        return indices.length;
+      }
+    };
+  }
+
+  public boolean isLocked() {
+    return locked;
+  }
+
+  public void lock() {
+    locked = true;
+  }
+
+  public void unlock() {
+    locked = false;
+  }
+
+  /**
+   * Clears the index; it must not run while other threads use it.
+   */
+  @Override
+  public synchronized void clear() {
+    indexes.clear();
+    chunks = new Object[1][];
+    size.set(0);
+  }
+
+  @Override
+  public Iterator<E> iterator() {
+    return new ObjectList().iterator();
+  }
+
+  public void saveToWriter(Writer bw) throws IOException {
+    for (int i = 0, sz = size(); i < sz; i++) {
+      bw.write(i + "=" + get(i) + '\n');
+    }
+  }
+
+  public void saveToFilename(String file) {
+    BufferedWriter bw = null;
+    try {
+      bw = new BufferedWriter(new FileWriter(file));
+      saveToWriter(bw);
+    } catch (IOException e) {
+      e.printStackTrace();
+    } finally {
+      if (bw != null) {
+        try {
+          bw.close();
+        } catch (IOException ioe) {
+          // give up
+        }
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder buff = new StringBuilder("[");
+    for (int i = 0, sz = size(); i < sz; i++) {
+      if (i > 0) {
+        buff.append(',');
+      }
+      buff.append(i).append('=').append(get(i));
+    }
+    buff.append(']');
+    return buff.toString();
+  }
+
+  private class ObjectList extends AbstractList<E> implements RandomAccess {
+    @Override
+    public E get(int index) {
+      return ConcurrentHashIndex.this.get(index);
+    }
+
+    @Override
+    public int size() {
+      return ConcurrentHashIndex.this.size();
+    }
+  }
+
+  private Object writeReplace() {
+    HashIndex<E> index = new HashIndex<E>(objectsList());
+    if (locked) {
+      index.lock();
+    }
+    return index;
+  }
+
+}
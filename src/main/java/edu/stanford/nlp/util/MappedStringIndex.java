@@ -0,0 +1,317 @@
+package edu.stanford.nlp.util;
+
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.AbstractCollection;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A read-only Index of Strings kept in a ByteBuffer, normally a file mapped
+ * with FileChannel.map, so that the strings are not copied to the Java heap
+ * and processes that map the same file share its pages.
+ * <p>
+ * The table is laid out as: the number of strings n (int), n+1 byte offsets
+ * (int, relative to the start of the string data), followed by the string
+ * data, each string encoded as UTF-8. The index of a string is its position
+ * in the table. If the table is sorted (in the unsigned byte order of the
+ * UTF-8 encoding, which is also code point order; see {@link #sortedOrder}),
+ * <code>indexOf</code> does a binary search; otherwise only
+ * <code>get</code> may be used.
+ * <p>
+ * The index is always locked. Serializing it writes an ordinary
+ * {@link HashIndex} with the same contents.
+ */
+public class MappedStringIndex extends AbstractCollection<String> implements Index<String>, RandomAccess {
+
+  private static final long serialVersionUID = 1L;
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private final ByteBuffer offsets;
+  private final ByteBuffer data;
+  private final int size;
+  private final boolean sorted;
+
+  /**
+   * @param table The string table, from its position to its limit
+   * @param sorted Whether the strings in the table are sorted, which is needed for <code>indexOf</code>
+   */
+  public MappedStringIndex(ByteBuffer table, boolean sorted) {
+    table = table.slice();
+    size = table.getInt(0);
+    int dataStart = 4 + 4 * (size + 1);
+    table.position(4);
+    table.limit(dataStart);
+    offsets = table.slice();
+    table.limit(table.capacity());
+    table.position(dataStart);
+    data = table.slice();
+    this.sorted = sorted;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  public String get(int i) {
+    if (i < 0 || i >= size) {
+      throw new ArrayIndexOutOfBoundsException("Index " + i + " outside of 0.." + size);
+    }
+    int start = offsets.getInt(4 * i);
+    int end = offsets.getInt(4 * (i + 1));
+    if (data.hasArray()) {
+      return new String(data.array(), data.arrayOffset() + start, end - start, UTF8);
+    }
+    byte[] bytes = new byte[end - start];
+    ByteBuffer string = data.duplicate(); // the position of data is shared between threads
+    string.position(start);
+    string.get(bytes);
+    return new String(bytes, UTF8);
+  }
+
+  public int indexOf(String o) {
+    if (!sorted) {
+      throw new UnsupportedOperationException("indexOf needs a sorted string table");
+    }
+    if (o == null) {
+      return -1;
+    }
+    int low = 0;
+    int high = size - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int cmp = compareAt(mid, o);
+      if (cmp < 0) {
+        low = mid + 1;
+      } else if (cmp > 0) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Compares the i-th string to the key, both as unsigned UTF-8 bytes. The
+   * characters of the key are encoded as the comparison reaches them, the
+   * way String.getBytes would encode them (an unpaired surrogate as '?'),
+   * so a lookup makes no copy of the key.
+   */
+  private int compareAt(int i, String key) {
+    int p = offsets.getInt(4 * i);
+    int end = offsets.getInt(4 * (i + 1));
+    for (int j = 0, n = key.length(); j < n; j++) {
+      int c = key.charAt(j);
+      int length;
+      if (c < 0x80) {
+        length = 1;
+      } else if (c < 0x800) {
+        length = 2;
+      } else if (!Character.isSurrogate((char) c)) {
+        length = 3;
+      } else if (Character.isHighSurrogate((char) c) && j + 1 < n && Character.isLowSurrogate(key.charAt(j + 1))) {
+        c = Character.toCodePoint((char) c, key.charAt(++j));
+        length = 4;
+      } else {
+        c = '?';
+        length = 1;
+      }
+      for (int b = 0; b < length; b++) {
+        if (p == end) {
+          return -1;
+        }
+        int x = data.get(p++) & 0xff;
+        int y = utf8Byte(c, length, b);
+        if (x != y) {
+          return x - y;
+        }
+      }
+    }
+    return (p == end) ? 0 : 1;
+  }
+
+  /** Byte b of the UTF-8 encoding of the code point c, which takes length bytes. */
+  private static int utf8Byte(int c, int length, int b) {
+    int shift = 6 * (length - 1 - b);
+    if (b > 0) {
+      return 0x80 | ((c >> shift) & 0x3f);
+    }
+    switch (length) {
+      case 1:
+        return c;
+      case 2:
+        return 0xc0 | (c >> shift);
+      case 3:
+        return 0xe0 | (c >> shift);
+      default:
+        return 0xf0 | (c >> shift);
+    }
+  }
+
+  /** The index is read-only, so nothing is added: unknown strings give -1. */
+  public int indexOf(String o, boolean add) {
+    return indexOf(o);
+  }
+
+  public List<String> objectsList() {
+    return new StringList();
+  }
+
+  public Collection<String> objects(final int[] indices) {
+    return new AbstractList<String>() {
+      @Override
+      public String get(int index) {
+        return MappedStringIndex.this.get(indices[index]);
+      }
+
+      @Override
+      public int size() {
+        return indices.length;
+      }
+    };
+  }
+
+  public boolean isLocked() {
+    return true;
+  }
+
+  public void lock() {
+  }
+
+  public void unlock() {
+    throw new UnsupportedOperationException("A MappedStringIndex is read-only");
+  }
+
+  @Override
+  public Iterator<String> iterator() {
+    return new StringList().iterator();
+  }
+
+  @Override
+  public boolean contains(Object o) {
+    if (sorted) {
+      return (o instanceof String) && indexOf((String) o) >= 0;
+    }
+    return super.contains(o);
+  }
+
+  @Override
+  public void clear() {
+    throw new UnsupportedOperationException("A MappedStringIndex is read-only");
+  }
+
+  public void saveToWriter(Writer bw) throws IOException {
+    for (int i = 0; i < size; i++) {
+      bw.write(i + "=" + get(i) + '\n');
+    }
+  }
+
+  public void saveToFilename(String file) {
+    BufferedWriter bw = null;
+    try {
+      bw = new BufferedWriter(new FileWriter(file));
+      saveToWriter(bw);
+    } catch (IOException e) {
+      e.printStackTrace();
+    } finally {
+      if (bw != null) {
+        try {
+          bw.close();
+        } catch (IOException ioe) {
+          // give up
+        }
+      }
+    }
+  }
+
+  private class StringList extends AbstractList<String> implements RandomAccess {
+    @Override
+    public String get(int index) {
+      return MappedStringIndex.this.get(index);
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+  }
+
+  private Object writeReplace() {
+    HashIndex<String> index = new HashIndex<String>(objectsList());
+    index.lock();
+    return index;
+  }
+
+  /**
+   * Returns the order in which the strings have to be written for the table to be sorted:
+   * the i-th string of the sorted table is <code>strings.get(order[i])</code>.
+   */
+  public static int[] sortedOrder(List<String> strings) {
+    final byte[][] encoded = new byte[strings.size()][];
+    Integer[] order = new Integer[encoded.length];
+    for (int i = 0; i < encoded.length; i++) {
+      encoded[i] = strings.get(i).getBytes(UTF8);
+      order[i] = i;
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      public int compare(Integer a, Integer b) {
+        return compareBytes(encoded[a], encoded[b]);
+      }
+    });
+    int[] result = new int[order.length];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = order[i];
+    }
+    return result;
+  }
+
+  private static int compareBytes(byte[] a, byte[] b) {
+    int n = Math.min(a.length, b.length);
+    for (int j = 0; j < n; j++) {
+      int x = a[j] & 0xff;
+      int y = b[j] & 0xff;
+      if (x != y) {
+        return x - y;
+      }
+    }
+    return a.length - b.length;
+  }
+
+  /**
+   * Writes the strings as a string table, in the given order.
+   */
+  public static void write(List<String> strings, DataOutputStream out) throws IOException {
+    List<byte[]> encoded = new ArrayList<byte[]>(strings.size());
+    for (String s : strings) {
+      encoded.add(s.getBytes(UTF8));
+    }
+    out.writeInt(encoded.size());
+    int offset = 0;
+    out.writeInt(offset);
+    for (byte[] bytes : encoded) {
+      offset += bytes.length;
+      if (offset < 0) {
+        throw new IOException("String table over 2GB");
+      }
+      out.writeInt(offset);
+    }
+    for (byte[] bytes : encoded) {
+      out.write(bytes);
+    }
+  }
+
+}
@@ -25,21 +25,39 @@ import edu.stanford.nlp.ling.CoreLabel;
 import edu.stanford.nlp.ling.CoreAnnotations.AnswerAnnotation;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.io.StringWriter;
 import java.io.Writer;
+import java.nio.file.Files;
 
+/**
+ * Tags all the files under the LNB_converted folder tree and writes the found entities to an entities.sql file in each top level folder.
+ * The files are tagged by a pool of worker threads that share one classifier.
+ * Every top level folder also gets an entities.done checkpoint listing the files that are already in its entities.sql,
+ * so a walk that is interrupted can be started again and continues where it stopped.
+ *
+ * Usage: tagFolders [classifier [start folder [threads]]]
+ */
 public class tagFolders {
 	static String serializedClassifier = "/Users/pet/Dropbox/NER/stanford-ner-2012-04-07/lv-ner-model.ser.gz";
+	static final String OUTPUT_FILE = "entities.sql";
+	static final String CHECKPOINT_FILE = "entities.done";
 	
-    public static void main(String[] args) throws IOException {
+    public static void main(String[] args) throws IOException, InterruptedException {
 
       if (args.length > 0) {
         serializedClassifier = args[0];
@@ -47,8 +65,16 @@ public class tagFolders {
 
       //String startFolder = "/Users/pet/Documents/LNB_converted/01-03-01";
       String startFolder = "/Users/pet/Documents/LNB_converted";
+      if (args.length > 1) {
+        startFolder = args[1];
+      }
+      int threads = Runtime.getRuntime().availableProcessors();
+      if (args.length > 2) {
+        threads = Integer.parseInt(args[2]);
+      }
       
-      int total = walk(startFolder, null, null);
+      AbstractSequenceClassifier<CoreLabel> classifier = CRFClassifier.getClassifierNoExceptions(serializedClassifier);
+      long total = walk(startFolder, classifier, threads);
       System.out.print(total);
     }
 
@@ -93,8 +119,8 @@ public class tagFolders {
 			}
 			ieeja.close();
 		} catch (IOException e1) {
-			// TODO Auto-generated catch block
-			e1.printStackTrace();
+			// a file that was not read whole must not be tagged and checkpointed as done
+			throw new RuntimeException(e1);
 		}
 		
 	  List<CoreLabel> out = classifier.classify(document);
@@ -126,44 +152,175 @@ public class tagFolders {
 		return i;
 	}
     
-    private static int walk( String path,
-    		AbstractSequenceClassifier<CoreLabel> parentclassifier,
-    		Writer writer
-			) throws IOException {
+    /**
+     * Tags every file under the top level folders of path; returns the number of lines read.
+     */
+    private static long walk(String path, AbstractSequenceClassifier<CoreLabel> classifier, int threads)
+    		throws IOException, InterruptedException {
+    	// when the queue is full, the walking thread tags the next file itself, so the walk never runs far ahead of the workers
+    	ThreadPoolExecutor workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS,
+    			new ArrayBlockingQueue<Runnable>(threads * 4), new ThreadPoolExecutor.CallerRunsPolicy());
+    	AtomicLong total = new AtomicLong();
 
-        File root = new File( path );
-        File[] list = root.listFiles();
+    	File[] list = new File(path).listFiles();
+    	Arrays.sort(list);
+    	for (File f : list) {
+    		if (f.getName().startsWith(".") || !f.isDirectory()) continue;
+    		Folder folder = new Folder(f, total);
+    		submitFiles(f, folder, classifier, workers);
+    		folder.allSubmitted();
+    	}
+    	workers.shutdown();
+    	workers.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+    	return total.get();
+    }
 
-		int i = 0;
+    private static void submitFiles(File path, final Folder folder,
+    		final AbstractSequenceClassifier<CoreLabel> classifier, ExecutorService workers) {
+    	File[] list = path.listFiles();
+    	Arrays.sort(list);
+    	for (final File f : list) {
+    		if (f.getName().startsWith(".")) continue;
+    		if (f.isDirectory()) {
+    			submitFiles(f, folder, classifier, workers);
+    			continue;
+    		}
+    		if (folder.isOwnFile(f) || folder.isDone(f)) continue;
 
-        AbstractSequenceClassifier<CoreLabel> classifier = parentclassifier;
-        if (classifier == null && !path.endsWith("converted")) classifier = CRFClassifier.getClassifierNoExceptions(serializedClassifier);
-        
-        for ( File f : list ) {
-            if (f.getName().startsWith(".")) continue;
-        	if ( f.isDirectory() ) {
-            	Writer straume;
-            	if (writer == null)  {
-	                straume = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(f.getAbsolutePath() + "/entities.sql"), "UTF-8"));
-	                straume.write("-- " + f.getAbsolutePath() + "\n");
-            	} else straume = writer;
-            	long sākums = System.currentTimeMillis();
-	
-                int words = walk( f.getAbsolutePath(), classifier, straume );
-                i += words;
-                
-                if (writer == null) {
-                	long beigas = System.currentTimeMillis();
-                	System.out.printf( "Finished %s : %,d k-words, %,d wps\n", f.getAbsoluteFile(), i/1000, words*1000/(beigas-sākums));
-                	straume.close();
-                }
-            }
-            else {        
-                i += processFile(classifier, f.getAbsoluteFile().toString(), f.getAbsoluteFile().getParentFile().getName(), writer);
-            }
-        }
-        
-        return i;
+    		folder.submitted();
+    		workers.execute(new Runnable() {
+    			public void run() {
+    				StringWriter entities = new StringWriter();
+    				int words = 0;
+    				try {
+    					words = processFile(classifier, f.getAbsolutePath(), f.getParentFile().getName(), entities);
+    				} catch (Exception e) {
+    					System.err.printf("Error in %s\n", f.getAbsolutePath());
+    					e.printStackTrace();
+    					folder.failed();
+    					return;
+    				}
+    				folder.finished(f, words, entities.toString());
+    			}
+    		});
+    	}
+    }
+
+    /**
+     * Output of one top level folder - entities.sql and the checkpoint file entities.done.
+     * The checkpoint lists the files whose entities are already in entities.sql, each together with the length of
+     * entities.sql after them. On resume, the listed files are skipped and entities.sql is cut back to the last
+     * checkpointed length, which drops any output of a file that was being written when the previous run stopped.
+     */
+    private static class Folder {
+    	private final File folder;
+    	private final AtomicLong total;
+    	private final Set<String> done = new HashSet<String>();
+    	private final FileOutputStream sql;
+    	private final FileOutputStream checkpoint;
+    	private long length = 0;
+
+    	private int pending = 0;
+    	private boolean allSubmitted = false;
+    	private long words = 0;
+    	private long start = 0;
+
+    	Folder(File folder, AtomicLong total) throws IOException {
+    		this.folder = folder;
+    		this.total = total;
+    		File sqlFile = new File(folder, OUTPUT_FILE);
+    		File checkpointFile = new File(folder, CHECKPOINT_FILE);
+
+    		long checkpointLength = readCheckpoint(checkpointFile);
+    		if (done.isEmpty()) {
+    			sql = new FileOutputStream(sqlFile);
+    			checkpoint = new FileOutputStream(checkpointFile);
+    			writeSql("-- " + folder.getAbsolutePath() + "\n");
+    		} else {
+    			System.out.printf("Resuming %s : %,d files already done\n", folder.getAbsolutePath(), done.size());
+    			sql = new FileOutputStream(sqlFile, true);
+    			sql.getChannel().truncate(length);
+    			checkpoint = new FileOutputStream(checkpointFile, true);
+    			checkpoint.getChannel().truncate(checkpointLength);
+    		}
+    	}
+
+    	/**
+    	 * Reads the finished files from an earlier run; returns the length of the checkpoint up to its last complete line.
+    	 */
+    	private long readCheckpoint(File checkpointFile) throws IOException {
+    		if (!checkpointFile.exists()) return 0;
+    		byte[] bytes = Files.readAllBytes(checkpointFile.toPath());
+    		int end = bytes.length;
+    		while (end > 0 && bytes[end-1] != '\n') end--; // an incomplete last line is dropped
+    		for (String line : new String(bytes, 0, end, "UTF-8").split("\n")) {
+    			String[] fields = line.split("\t", 2);
+    			if (fields.length < 2) continue;
+    			length = Long.parseLong(fields[0]);
+    			done.add(fields[1]);
+    		}
+    		return end;
+    	}
+
+    	private String name(File f) {
+    		return f.getAbsolutePath().substring(folder.getAbsolutePath().length() + 1);
+    	}
+
+    	boolean isOwnFile(File f) {
+    		return f.getParentFile().equals(folder) && (f.getName().equals(OUTPUT_FILE) || f.getName().equals(CHECKPOINT_FILE));
+    	}
+
+    	boolean isDone(File f) {
+    		return done.contains(name(f));
+    	}
+
+    	synchronized void submitted() {
+    		if (start == 0) start = System.currentTimeMillis();
+    		pending++;
+    	}
+
+    	synchronized void finished(File f, int words, String entities) {
+    		try {
+    			writeSql(entities);
+    			checkpoint.write((length + "\t" + name(f) + "\n").getBytes("UTF-8"));
+    			checkpoint.flush();
+    			this.words += words;
+    		} catch (IOException e) {
+    			System.err.printf("Can't write the output of %s\n", f.getAbsolutePath());
+    			e.printStackTrace();
+    		}
+    		pending--;
+    		closeIfComplete();
+    	}
+
+    	synchronized void failed() {
+    		pending--;
+    		closeIfComplete();
+    	}
+
+    	synchronized void allSubmitted() {
+    		allSubmitted = true;
+    		closeIfComplete();
+    	}
+
+    	private void writeSql(String text) throws IOException {
+    		byte[] bytes = text.getBytes("UTF-8");
+    		sql.write(bytes);
+    		sql.flush();
+    		length += bytes.length;
+    	}
+
+    	private void closeIfComplete() {
+    		if (!allSubmitted || pending > 0) return;
+    		try {
+    			sql.close();
+    			checkpoint.close();
+    		} catch (IOException e) {
+    			e.printStackTrace();
+    		}
+    		long time = Math.max(1, System.currentTimeMillis() - start);
+    		System.out.printf( "Finished %s : %,d k-words, %,d wps, total %,d k-words\n", folder.getAbsoluteFile(), words/1000,
+    				(start == 0) ? 0 : words*1000/time, total.addAndGet(words)/1000);
+    	}
     }
- 
 }
@@ -18,38 +18,148 @@
 package lv.lumii.morphotagger;
 
 import java.io.*;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /* 
  * Failsistēmā balstīti saraksti ar vārdiem; read-only; ielasa kā singletonus - pēc pirmā pieprasījuma
+ * (vai visus uzreiz ar preload), droši lietojami no vairākiem pavedieniem.
  */
 public class Dictionary {
-	private static HashMap<String,Set<String>> dictionaries = new HashMap<String,Set<String>>();
+	/** The lists in LETAdicts, which addLETAfeatures looks words up in */
+	public static final String[] LETA_DICTIONARIES = {"surnames", "vocations", "relations", "partijas", "months", "common_lemmas"};
+
+	private static final ConcurrentHashMap<String,WordSet> dictionaries = new ConcurrentHashMap<String,WordSet>();
 	
+	/**
+	 * The word list LETAdicts/[dict_name].txt, read on the first request.  Several threads
+	 * may ask for it at once: it is read only once, and all of them get the same immutable set.
+	 */
 	public static Set<String> dict(String dict_name) {
-		Set<String> result = dictionaries.get(dict_name);
+		WordSet result = dictionaries.get(dict_name);
 		if (result == null) {
-			result = new HashSet<String>();
-			try {
-                String filename = "LETAdicts/" + dict_name + ".txt";
-				InputStream stream = Dictionary.class.getClassLoader().getResourceAsStream(filename);
-				if (stream == null) {
-                    stream = new FileInputStream(filename);
+			synchronized (dictionaries) {
+				result = dictionaries.get(dict_name);
+				if (result == null) {
+					result = load(dict_name);
+					dictionaries.put(dict_name, result);
 				}
-				BufferedReader in = new BufferedReader(new InputStreamReader(stream, "UTF8"));
-				
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Reads all the LETA word lists now, so that tagging threads don't wait for them later
+	 */
+	public static void preload() {
+		for (String dict_name : LETA_DICTIONARIES) {
+			dict(dict_name);
+		}
+	}
+
+	private static WordSet load(String dict_name) {
+		List<String> words = new ArrayList<String>();
+		try {
+			String filename = "LETAdicts/" + dict_name + ".txt";
+			InputStream stream = Dictionary.class.getClassLoader().getResourceAsStream(filename);
+			if (stream == null) {
+				stream = new FileInputStream(filename);
+			}
+			BufferedReader in = new BufferedReader(new InputStreamReader(stream, "UTF8"));
+			try {
 				String line;
 				while ((line = in.readLine()) != null) {
-			        result.add(line);
-			    }
+					words.add(line);
+				}
+			} finally {
 				in.close();
-			} catch (IOException e) {
-				System.err.println(e.getMessage());
 			}
-            dictionaries.put(dict_name, result);
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+		}
+		return new WordSet(words);
+	}
+
+	/**
+	 * An immutable set of words in an open addressing hash table - one array of the words themselves,
+	 * without the entry objects of a HashSet.  Strings cache their hash codes, so a lookup neither
+	 * allocates nor locks, and any number of threads can share the set.
+	 */
+	static final class WordSet extends AbstractSet<String> {
+		private final String[] table; // size is a power of two, at most half full
+		private final int size;
+
+		WordSet(Collection<String> words) {
+			int capacity = 2;
+			while (capacity < 2 * words.size()) capacity <<= 1;
+			table = new String[capacity];
+			int count = 0;
+			for (String word : words) {
+				int slot = slot(word);
+				while (table[slot] != null && !table[slot].equals(word)) slot = (slot + 1) & (table.length - 1);
+				if (table[slot] == null) {
+					table[slot] = word;
+					count++;
+				}
+			}
+			size = count;
+		}
+
+		private int slot(String word) {
+			int h = word.hashCode();
+			return (h ^ (h >>> 16)) & (table.length - 1);
+		}
+
+		@Override
+		public boolean contains(Object o) {
+			if (!(o instanceof String)) return false;
+			String word = (String) o;
+			int slot = slot(word);
+			String entry;
+			while ((entry = table[slot]) != null) {
+				if (entry.equals(word)) return true;
+				slot = (slot + 1) & (table.length - 1);
+			}
+			return false;
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+
+		@Override
+		public Iterator<String> iterator() {
+			return new Iterator<String>() {
+				private int next = advance(0);
+
+				private int advance(int slot) {
+					while (slot < table.length && table[slot] == null) slot++;
+					return slot;
+				}
+
+				public boolean hasNext() {
+					return next < table.length;
+				}
+
+				public String next() {
+					if (next >= table.length) throw new NoSuchElementException();
+					String word = table[next];
+					next = advance(next + 1);
+					return word;
+				}
+
+				public void remove() {
+					throw new UnsupportedOperationException("Dictionary word lists are read-only");
+				}
+			};
 		}
-		return result;
 	}
 }
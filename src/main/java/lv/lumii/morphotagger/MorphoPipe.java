@@ -21,11 +21,13 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintStream;
 import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map.Entry;
+import java.util.NoSuchElementException;
 
 import lv.semti.morphology.analyzer.Splitting;
 import lv.semti.morphology.analyzer.Word;
@@ -36,6 +38,7 @@ import lv.semti.morphology.attributes.AttributeValues;
 import org.json.simple.JSONValue;
 
 import edu.stanford.nlp.ie.ner.CMMClassifier;
+import edu.stanford.nlp.io.RuntimeIOException;
 import edu.stanford.nlp.ling.CoreAnnotations.AnswerAnnotation;
 import edu.stanford.nlp.ling.CoreAnnotations.ExtraColumnAnnotation;
 import edu.stanford.nlp.ling.CoreAnnotations.LVMorphologyAnalysis;
@@ -51,28 +54,32 @@ public class MorphoPipe {
 	private enum inputTypes {SENTENCE, PARAGRAPH, VERT, CONLL, JSON};
 	private enum outputTypes {JSON, TAB, VERT, MOSES, CONLL_X, XML, VISL_CG, lemmatizedText, lowercasedText, analyzerOptions};
 
-	private static String eol = System.getProperty("line.separator");
-	private static String field_separator = "\t";
-	private static String token_separator = eol;
+	private String eol = System.getProperty("line.separator");
+	private String field_separator = "\t";
+	private String token_separator = eol;
 	
-	private static boolean mini_tag = false;		
-	private static boolean features = false;	
-	private static boolean LETAfeatures = false;
-	private static inputTypes inputType = inputTypes.PARAGRAPH;
-	private static outputTypes outputType = outputTypes.CONLL_X;
+	private boolean mini_tag = false;		
+	private boolean features = false;	
+	private boolean LETAfeatures = false;
+	private inputTypes inputType = inputTypes.PARAGRAPH;
+	private outputTypes outputType = outputTypes.CONLL_X;
 	//private static int sentencelengthcap = Splitting.DEFAULT_SENTENCE_LENGTH_CAP;
-	private static int sentencelengthcap = 250;
-	private static boolean saveColumns = false;
-	private static boolean keepTags = false;
-	private static boolean saveCase = false; // for lemmatized text output format
-	private static boolean outputSeparators = false; // <s> for sentences, <p> for paragraphs
-    private static boolean whitespaceMarker = false;
-	private static boolean stopOnEmpty = true; // quit on empty line
+	private int sentencelengthcap = 250;
+	private boolean saveColumns = false;
+	private boolean keepTags = false;
+	private boolean saveCase = false; // for lemmatized text output format
+	private boolean outputSeparators = false; // <s> for sentences, <p> for paragraphs
+    private boolean whitespaceMarker = false;
+	private boolean stopOnEmpty = true; // quit on empty line
+	private static int threads = 1; // worker threads for analysis and tagging
 	
 	private static String morphoClassifierLocation = "models/lv-morpho-model.ser.gz"; //FIXME - make it configurable
 	
-	public static void main(String[] args) throws Exception {
-		
+	/**
+	 * Tagging settings - input and output formats and their options - as given on the command line (see -h);
+	 * in server mode, each request brings its own.
+	 */
+	public MorphoPipe(String[] args) {
 		for (int i=0; i<args.length; i++) {
 			if (args[i].equalsIgnoreCase("-tab")) {  // one response line per each query line, tab-separated
 				outputType = outputTypes.TAB;
@@ -120,12 +127,55 @@ public class MorphoPipe {
 			if (args[i].equalsIgnoreCase("-output-separators")) outputSeparators = true;
             if (args[i].equalsIgnoreCase("-whitespace-marker")) whitespaceMarker = true;
             if (args[i].equalsIgnoreCase("-allow-empty-lines")) stopOnEmpty = false;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		MorphoPipe settings = new MorphoPipe(args);
+		int serverPort = -1;
+		for (int i=0; i<args.length; i++) {
+			if (args[i].equalsIgnoreCase("-threads")) {
+				if (i+1 < args.length && !args[i+1].startsWith("-")) {
+					try {
+						threads = Integer.parseInt(args[i+1]);
+						i++;
+					} catch (Exception e) {
+						System.err.printf("Error when parsing command line param '%s %s'\n",args[i], args[i+1]);
+						System.err.println(e.getMessage());
+					}
+				} else threads = Runtime.getRuntime().availableProcessors();
+			}
+			if (args[i].equalsIgnoreCase("-cache")) {
+				if (i+1 < args.length && !args[i+1].startsWith("-")) {
+					try {
+						LVMorphologyReaderAndWriter.setAnalysisCacheSize(Integer.parseInt(args[i+1]));
+						i++;
+					} catch (Exception e) {
+						System.err.printf("Error when parsing command line param '%s %s'\n",args[i], args[i+1]);
+						System.err.println(e.getMessage());
+					}
+				}
+			}
+						
+			if (args[i].equalsIgnoreCase("-server")) {
+				serverPort = MorphoServer.DEFAULT_PORT;
+				if (i+1 < args.length && !args[i+1].startsWith("-")) {
+					try {
+						serverPort = Integer.parseInt(args[i+1]);
+						i++;
+					} catch (Exception e) {
+						System.err.printf("Error when parsing command line param '%s %s'\n",args[i], args[i+1]);
+						System.err.println(e.getMessage());
+					}
+				}
+				if (threads == 1) threads = Runtime.getRuntime().availableProcessors();
+			}
 						
 			if (args[i].equalsIgnoreCase("-h") || args[i].equalsIgnoreCase("--help") || args[i].equalsIgnoreCase("-?")) {
 				System.out.println("LV morphological tagger");
 				System.out.println("\nInput formats");
 				System.out.println("\tDefault : plain text UTF-8, one sentence per line, terminated by a blank line.");
-				System.out.println("\t-paragraphs [lengthcap]: plain text UTF-8, each line will be split in sentences. In output, paragraph borders are noted by an extra blank line. If lengthcap parameter is provided, then sentence length will be limited to that, instead of the default of " + sentencelengthcap);
+				System.out.println("\t-paragraphs [lengthcap]: plain text UTF-8, each line will be split in sentences. In output, paragraph borders are noted by an extra blank line. If lengthcap parameter is provided, then sentence length will be limited to that, instead of the default of " + settings.sentencelengthcap);
 				System.out.println("\t-vertinput : one line per token, sentences separated by <s></s>. Any XML-style tags are echoed as-is. \n\t\tNB! sentences are retokenized, the number of tokens may be different.");
 				System.out.println("\t-conll-in : CONLL shared task data format - one line per token, with tab-delimited columns, sentences separated by blank lines.");
 				System.out.println("\t-json-in : one line per sentence, each line contains a single json array of strings-tokens.");
@@ -150,20 +200,53 @@ public class MorphoPipe {
 				System.out.println("\t-output-separators : put <s></s> sentence markup and <p></p> paragraph markup");
 				System.out.println("\t-whitespace-marker : put <g /> tags where the tokens did not have whitespace between them");
                 System.out.println("\t-allow-empty-lines : do not quit on blank lines input (as per default)");
+				System.out.println("\t-threads [count] : tag on several threads (by default, one per CPU core); the output order is kept as in the input. Tokenization and morphological analysis are shared by all the threads and done by one of them at a time.");
+				System.out.println("\t-cache [size] : number of word types whose morphological analysis is cached for conll input, default " + LVMorphologyReaderAndWriter.DEFAULT_CACHE_SIZE + "; 0 disables the cache. Other input is analyzed by the tokenizer, which does not use the cache.");
+				System.out.println("\t-server [port] : keep the models loaded and tag requests from local clients over TCP (default port " + MorphoServer.DEFAULT_PORT + "); each request carries its own format options, see MorphoServer for the protocol. -threads sets the number of requests tagged at once.");
 				System.out.flush();
 				System.exit(0);
 			}
 		}
-						
+
 		CMMClassifier<CoreLabel> morphoClassifier = CMMClassifier.getClassifier(morphoClassifierLocation);
-			
+		if (settings.LETAfeatures) Dictionary.preload(); // before the tagging threads start to look words up
+		if (serverPort >= 0) {
+			LVMorphologyReaderAndWriter.getAnalyzer(); // load the lexicon before accepting clients
+			new MorphoServer(serverPort, threads, morphoClassifier).run();
+			return;
+		}
+
 		PrintStream out = new PrintStream(System.out, true, "UTF8");
 		BufferedReader in = new BufferedReader(new InputStreamReader(System.in, "UTF8"));
-		
+
+		TaggingPipeline pipeline;
+		if (threads > 1) {
+			System.err.printf("Tagging with %d threads\n", threads);
+			pipeline = new TaggingPipeline(threads, morphoClassifier, out);
+		} else {
+			pipeline = new TaggingPipeline(morphoClassifier, out);
+		}
+		try {
+			settings.process(in, pipeline);
+		} finally {
+			pipeline.close();
+		}
+		in.close();
+		out.close();
+		long hits = LVMorphologyReaderAndWriter.getAnalysisCacheHits();
+		long misses = LVMorphologyReaderAndWriter.getAnalysisCacheMisses();
+		if (hits + misses > 0)
+			System.err.printf("Analysis cache: %d hits, %d misses (%.1f%% hits)\n", hits, misses, 100.0 * hits / (hits + misses));
+	}
+
+	/**
+	 * Reads the input in the format set in these settings, and submits it to the pipeline for tagging and output.
+	 */
+	public void process(BufferedReader in, TaggingPipeline pipeline) throws IOException, InterruptedException {
 		switch(inputType) {
 		case CONLL:
-			for (List<CoreLabel> sentence : readCONLL(in)) {
-		    	outputSentence(morphoClassifier, out, sentence);
+			for (List<CoreLabel> sentence : readCONLLTokens(in)) {
+				pipeline.submit(conllJob(sentence));
 			}
 			break;
 		default:
@@ -171,7 +254,7 @@ public class MorphoPipe {
 		    String sentence = "";
 		    while ((s = in.readLine()) != null && (s.length() != 0 || !stopOnEmpty)) {
 		    	if (s.startsWith("<") && s.length()>1 && keepTags) {
-		    		if (outputType != outputTypes.lemmatizedText && outputType != outputTypes.lowercasedText) out.println(s);
+		    		if (outputType != outputTypes.lemmatizedText && outputType != outputTypes.lowercasedText) pipeline.submit(echoJob(s));
 		    		continue;
 		    	}
                 if (s.length() == 0) continue;
@@ -179,21 +262,52 @@ public class MorphoPipe {
 		    	if (inputType != inputTypes.VERT) {		    		
 		    		sentence = s;
 		    	} else {
-		    		if (s.startsWith("<") && s.length()>1) out.println(s);
+		    		if (s.startsWith("<") && s.length()>1) pipeline.submit(echoJob(s));
 		    		else sentence = sentence + " " + s;
 		    		finished = s.startsWith("</s>");
 		    	}	    	
 		    	if (finished) {
-		    		processSentences(morphoClassifier, out, sentence.trim());
+		    		pipeline.submit(textJob(sentence.trim()));
 			    	sentence = "";
 		    	}
 		    }
 	    	if (inputType != inputTypes.VERT && sentence.length()>0) { //FIXME, not DRY
-	    		processSentences(morphoClassifier, out, sentence.trim());
+	    		pipeline.submit(textJob(sentence.trim()));
 	    	}	    			
 		}
-		in.close();
-		out.close();
+	}
+
+	/**
+	 * Job that tags a line of input text with processSentences
+	 */
+	private TaggingPipeline.Job textJob(final String text) {
+		return new TaggingPipeline.Job() {
+			public void run(CMMClassifier<CoreLabel> cmm, PrintStream out) {
+				processSentences(cmm, out, text);
+			}
+		};
+	}
+
+	/**
+	 * Job that analyzes and tags a sentence read from CONLL input
+	 */
+	private TaggingPipeline.Job conllJob(final List<CoreLabel> sentence) {
+		return new TaggingPipeline.Job() {
+			public void run(CMMClassifier<CoreLabel> cmm, PrintStream out) {
+				outputSentence(cmm, out, LVMorphologyReaderAndWriter.analyzeLabels(sentence));
+			}
+		};
+	}
+
+	/**
+	 * Job that echoes a line of input (such as xml-style metadata) to the output as-is
+	 */
+	private TaggingPipeline.Job echoJob(final String line) {
+		return new TaggingPipeline.Job() {
+			public void run(CMMClassifier<CoreLabel> cmm, PrintStream out) {
+				out.println(line);
+			}
+		};
 	}
 
 	/**
@@ -202,12 +316,12 @@ public class MorphoPipe {
 	 * @param out - a stream to output the data
 	 * @param text - actual tokens to be output
 	 */
-	public static void processSentences(
+	public void processSentences(
 			CMMClassifier<CoreLabel> cmm, PrintStream out, String text) {
 		
 		if (inputType == inputTypes.PARAGRAPH) { // split in multiple sentences
 			if (outputSeparators) out.println("<p>");
-			LinkedList<LinkedList<Word>> sentences = Splitting.tokenizeSentences(LVMorphologyReaderAndWriter.getAnalyzer(), text, sentencelengthcap);
+			LinkedList<LinkedList<Word>> sentences = LVMorphologyReaderAndWriter.tokenizeSentences(text, sentencelengthcap);
 			for (LinkedList<Word> sentence : sentences) 
 				outputSentence(cmm, out, LVMorphologyReaderAndWriter.analyzeSentence2(sentence) );
 			if (outputSeparators) 
@@ -223,7 +337,7 @@ public class MorphoPipe {
 	 * @param out - a stream to output the data
 	 * @param sentence - actual tokens to be output
 	 */
-	public static void outputSentence(CMMClassifier<CoreLabel> cmm,
+	public void outputSentence(CMMClassifier<CoreLabel> cmm,
 			PrintStream out, List<CoreLabel> sentence) {
 		if (outputSeparators) out.println("<s>");
 
@@ -265,7 +379,7 @@ public class MorphoPipe {
 		out.flush();
 	}	
 	
-	private static String output_JSON(List<CoreLabel> tokens) {		
+	private String output_JSON(List<CoreLabel> tokens) {		
 		LinkedList<String> tokenJSON = new LinkedList<String>();
 		
 		for (CoreLabel word : tokens) {
@@ -285,7 +399,7 @@ public class MorphoPipe {
 		return s;
 	}
 	
-	private static void output_XML(List<CoreLabel> tokens, PrintStream straume) throws IOException {
+	private void output_XML(List<CoreLabel> tokens, PrintStream straume) throws IOException {
 		PrintWriter w = new PrintWriter(straume);
 		for (CoreLabel word : tokens) {
 			String token = word.getString(TextAnnotation.class);
@@ -303,7 +417,7 @@ public class MorphoPipe {
 		w.flush();
 	}
 
-	private static String output_CONLL(List<CoreLabel> tokens, CMMClassifier<CoreLabel> cmm){
+	private String output_CONLL(List<CoreLabel> tokens, CMMClassifier<CoreLabel> cmm){
 		StringBuilder s = new StringBuilder();
 
 		int counter = 1;
@@ -370,7 +484,7 @@ public class MorphoPipe {
 		return s.toString();
 	}
 	
-	private static String output_lemmatized(List<CoreLabel> tokens){
+	private String output_lemmatized(List<CoreLabel> tokens){
 		StringBuilder s = new StringBuilder();
 		
 		for (CoreLabel word : tokens) {
@@ -395,7 +509,7 @@ public class MorphoPipe {
 		return s.toString().trim();
 	}
 
-    private static String output_lowercased(List<CoreLabel> tokens){
+    private String output_lowercased(List<CoreLabel> tokens){
         StringBuilder s = new StringBuilder();
 
         for (CoreLabel word : tokens) {
@@ -408,7 +522,7 @@ public class MorphoPipe {
         return s.toString().trim();
     }
 
-    private static String output_analyzer(List<CoreLabel> tokens){
+    private String output_analyzer(List<CoreLabel> tokens){
         StringBuilder s = new StringBuilder();
 
         for (CoreLabel word : tokens) {
@@ -447,7 +561,7 @@ public class MorphoPipe {
 	}
 
 	// VISL CG format, as described in http://beta.visl.sdu.dk/cg3/chunked/streamformats.html#stream-vislcg
-	private static String output_VISL(List<CoreLabel> tokens) {		
+	private String output_VISL(List<CoreLabel> tokens) {		
 		StringBuilder s = new StringBuilder();
 		
 		for (CoreLabel word : tokens) {
@@ -516,7 +630,7 @@ public class MorphoPipe {
 		return s.toString();
 	}
 	
-	private static String output_separated(List<CoreLabel> tokens){
+	private String output_separated(List<CoreLabel> tokens){
 		StringBuilder s = new StringBuilder();
 		
 		for (CoreLabel word : tokens) {
@@ -574,54 +688,107 @@ public class MorphoPipe {
 	}
 	
 	
-	public static List<List<CoreLabel>> readCONLL(BufferedReader in) throws IOException {
-		String s;
-	    List<CoreLabel> sentence = new LinkedList<CoreLabel>();
-	    List<List<CoreLabel>> result = new LinkedList<List<CoreLabel>>();
-	    
-	    CoreLabel stag = new CoreLabel();
+	/**
+	 * Reads CONLL input lazily: the sentences are read and analyzed one at a time as the iteration proceeds,
+	 * so the input is never held in memory as a whole.
+	 */
+	public Iterable<List<CoreLabel>> readCONLL(final BufferedReader in) {
+		return new Iterable<List<CoreLabel>>() {
+			public Iterator<List<CoreLabel>> iterator() {
+				final Iterator<List<CoreLabel>> sentences = readCONLLTokens(in).iterator();
+				return new Iterator<List<CoreLabel>>() {
+					public boolean hasNext() {
+						return sentences.hasNext();
+					}
+					public List<CoreLabel> next() {
+						return LVMorphologyReaderAndWriter.analyzeLabels(sentences.next());
+					}
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+		};
+	}
+
+	/**
+	 * Reads CONLL input in sentences, without running the morphological analysis on them.
+	 * The sentences are read from the stream only as the iteration asks for them, so a caller that blocks
+	 * (such as a full tagging pipeline) also stops the reading.
+	 */
+	private Iterable<List<CoreLabel>> readCONLLTokens(final BufferedReader in) {
+		return new Iterable<List<CoreLabel>>() {
+			public Iterator<List<CoreLabel>> iterator() {
+				return new Iterator<List<CoreLabel>>() {
+					private List<CoreLabel> next = null;
+					private boolean finished = false;
+
+					public boolean hasNext() {
+						if (next == null && !finished) next = readSentence();
+						return next != null;
+					}
+
+					public List<CoreLabel> next() {
+						if (!hasNext()) throw new NoSuchElementException();
+						List<CoreLabel> sentence = next;
+						next = null;
+						return sentence;
+					}
+
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+
+					/**
+					 * Reads up to the next blank line; at the end of input, returns the remaining tokens (possibly none) as the last sentence
+					 */
+					private List<CoreLabel> readSentence() {
+						List<CoreLabel> sentence = new ArrayList<CoreLabel>();
+						sentence.add(sentenceBoundary());
+						String s;
+						try {
+							while ((s = in.readLine()) != null) {
+								if (s.trim().length() == 0) {
+									sentence.add(sentenceBoundary());
+									return sentence;
+								}
+								sentence.add(readCONLLToken(s));
+							}
+						} catch (IOException e) {
+							throw new RuntimeIOException(e);
+						}
+						finished = true;
+						sentence.add(sentenceBoundary());
+						return sentence;
+					}
+				};
+			}
+		};
+	}
+
+	private static CoreLabel sentenceBoundary() {
+		CoreLabel stag = new CoreLabel();
 		stag.set(TextAnnotation.class, "<s>");
-		sentence.add(stag);
-	    
-	    while ((s = in.readLine()) != null) {
-	    	if (s.trim().length() > 0) {
-	    		String[] fields = s.split("\t");
-	    		String token = fields[1];
-	    		if (!token.equalsIgnoreCase("_")) token = token.replace('_', ' ');
-	    		String extraColumns = "";
-	    		if (saveColumns) {
-	    			for (int field_i = 6; field_i < fields.length; field_i++) extraColumns += fields[field_i] + "\t";
-	    			extraColumns.trim();
-	    		}	    		
-	    		String syntax = "";
-	    		if (fields.length >= 10) syntax = fields[6] + "\t" + fields[7] + "\t" + fields[8] + "\t" + fields[9];
-
-	    		CoreLabel word = new CoreLabel();
-				word.set(TextAnnotation.class, token);
-				word.set(ParentAnnotation.class, syntax);
-				word.set(ExtraColumnAnnotation.class, extraColumns);
-	    		sentence.add(word);
-	    	} else {
-	    		stag = new CoreLabel();
-	    		stag.set(TextAnnotation.class, "<s>");
-	    		sentence.add(stag);
-	    		
-	    		result.add(LVMorphologyReaderAndWriter.analyzeLabels(sentence));
-	    		
-	    		sentence = new LinkedList<CoreLabel>();
-	    		stag = new CoreLabel();
-	    		stag.set(TextAnnotation.class, "<s>");
-	    		sentence.add(stag);
-	    	}
-	    }
-	    if (sentence.size() > 0) {
-	    	stag = new CoreLabel();
-			stag.set(TextAnnotation.class, "<s>");
-			sentence.add(stag);
-	    	result.add(LVMorphologyReaderAndWriter.analyzeLabels(sentence));
-	    }
-	    		
-		return result;
+		return stag;
+	}
+
+	private CoreLabel readCONLLToken(String s) {
+		String[] fields = s.split("\t");
+		String token = fields[1];
+		if (!token.equalsIgnoreCase("_")) token = token.replace('_', ' ');
+		String extraColumns = "";
+		if (saveColumns) {
+			for (int field_i = 6; field_i < fields.length; field_i++) extraColumns += fields[field_i] + "\t";
+			extraColumns.trim();
+		}
+		String syntax = "";
+		if (fields.length >= 10) syntax = fields[6] + "\t" + fields[7] + "\t" + fields[8] + "\t" + fields[9];
+
+		CoreLabel word = new CoreLabel();
+		word.set(TextAnnotation.class, token);
+		word.set(ParentAnnotation.class, syntax);
+		word.set(ExtraColumnAnnotation.class, extraColumns);
+		return word;
 	}
 
-}	
\ No newline at end of file
+}	
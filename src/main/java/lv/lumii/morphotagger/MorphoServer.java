@@ -0,0 +1,288 @@
+package lv.lumii.morphotagger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.net.InetAddress;
+import java.net.ProtocolException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import edu.stanford.nlp.ie.ner.CMMClassifier;
+import edu.stanford.nlp.ling.CoreLabel;
+
+/**
+ * Tagging server for MorphoPipe (started with MorphoPipe -server). It keeps the tagger model and the morphological
+ * analyzer loaded, and tags requests of local clients that connect to it over TCP.
+ * <p>
+ * Protocol: a client may send any number of requests over one connection, and gets a response to each, in order;
+ * the client closes the connection when done.
+ * Requests and responses are both sent as a 4-byte big-endian length followed by that many bytes of UTF-8 text.
+ * The first line of a request holds the MorphoPipe command line options for that request (such as "-tab -stripped", or empty
+ * for the defaults), the rest is the input, exactly as MorphoPipe would read it from stdin.
+ * The first line of a response is "OK", followed by the output, or "ERROR" and a description of the problem.
+ * <p>
+ * Every connection gets a session thread that only reads requests and writes responses; the tagging itself is done
+ * by a fixed pool of worker threads, so at most that many requests are processed at once and the rest wait for their turn.
+ */
+public class MorphoServer {
+	public static final int DEFAULT_PORT = 9876;
+	/** Maximum number of client connections open at once; further clients get an error response */
+	public static final int MAX_SESSIONS = 256;
+	/** Largest request accepted, in bytes */
+	public static final int MAX_REQUEST_LENGTH = 64 * 1024 * 1024;
+	private static final String encoding = "UTF8";
+
+	private final ServerSocket listener;
+	private final CMMClassifier<CoreLabel> cmm;
+	private final ExecutorService workers;
+	private final ExecutorService sessions;
+
+	/**
+	 * Opens the server socket on the loopback interface.
+	 * @param port - TCP port to listen on
+	 * @param threads - number of requests that are tagged at once
+	 * @param cmm - the tagger
+	 */
+	public MorphoServer(int port, int threads, CMMClassifier<CoreLabel> cmm) throws IOException {
+		this.cmm = cmm;
+		listener = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+		workers = Executors.newFixedThreadPool(threads, daemonThreads("tagger"));
+		sessions = new ThreadPoolExecutor(0, MAX_SESSIONS, 60, TimeUnit.SECONDS,
+				new SynchronousQueue<Runnable>(), daemonThreads("session"));
+		System.err.printf("Tagging server listening on %s:%d with %d threads\n",
+				listener.getInetAddress().getHostAddress(), listener.getLocalPort(), threads);
+	}
+
+	private static ThreadFactory daemonThreads(final String name) {
+		return new ThreadFactory() {
+			private int counter = 0;
+			public synchronized Thread newThread(Runnable r) {
+				Thread t = new Thread(r, name + "-" + (++counter));
+				t.setDaemon(true);
+				return t;
+			}
+		};
+	}
+
+	/**
+	 * Accepts clients until the process is stopped.
+	 */
+	public void run() {
+		while (true) {
+			Socket client;
+			try {
+				client = listener.accept();
+			} catch (IOException e) {
+				System.err.println("MorphoServer: couldn't accept");
+				e.printStackTrace(System.err);
+				continue;
+			}
+			try {
+				sessions.execute(new Session(client));
+			} catch (RejectedExecutionException e) {
+				try {
+					DataOutputStream out = new DataOutputStream(client.getOutputStream());
+					writeFrame(out, error("Too many connections, try again later"));
+					client.close();
+				} catch (IOException e2) {
+					// the client is refused anyway
+				}
+			}
+		}
+	}
+
+	/**
+	 * One client connection: reads requests, has them tagged by the workers and writes back the responses.
+	 */
+	private class Session implements Runnable {
+		private final Socket client;
+
+		private Session(Socket client) {
+			this.client = client;
+		}
+
+		public void run() {
+			try {
+				DataInputStream in = new DataInputStream(new BufferedInputStream(client.getInputStream()));
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(client.getOutputStream()));
+				try {
+					byte[] request;
+					while ((request = readFrame(in, MAX_REQUEST_LENGTH)) != null) {
+						byte[] response;
+						try {
+							response = workers.submit(new Request(request)).get();
+						} catch (ExecutionException e) {
+							e.getCause().printStackTrace(System.err);
+							response = error(e.getCause().toString());
+						}
+						writeFrame(out, response);
+					}
+				} catch (ProtocolException e) {
+					writeFrame(out, error(e.getMessage()));
+				}
+			} catch (IOException e) {
+				// the client has gone away; nothing to answer to
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				try {
+					client.close();
+				} catch (IOException e) {
+					System.err.println("MorphoServer: can't close session");
+				}
+			}
+		}
+	}
+
+	/**
+	 * Tagging of a single request, done on a worker thread
+	 */
+	private class Request implements Callable<byte[]> {
+		private final byte[] request;
+
+		private Request(byte[] request) {
+			this.request = request;
+		}
+
+		public byte[] call() throws Exception {
+			String text = new String(request, encoding);
+			int newline = text.indexOf('\n');
+			String options = (newline < 0) ? text : text.substring(0, newline);
+			String input = (newline < 0) ? "" : text.substring(newline + 1);
+			options = options.trim();
+			MorphoPipe settings = new MorphoPipe(options.isEmpty() ? new String[0] : options.split("\\s+"));
+
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+			PrintStream out = new PrintStream(buffer, false, encoding);
+			out.print("OK\n");
+			TaggingPipeline pipeline = new TaggingPipeline(cmm, out);
+			settings.process(new BufferedReader(new StringReader(input)), pipeline);
+			pipeline.close();
+			out.flush();
+			return buffer.toByteArray();
+		}
+	}
+
+	private static byte[] error(String message) throws IOException {
+		return ("ERROR " + message.replace('\n', ' ') + "\n").getBytes(encoding);
+	}
+
+	/**
+	 * Reads a length-prefixed frame; returns null if the stream ends before it.
+	 */
+	private static byte[] readFrame(DataInputStream in, int maxLength) throws IOException {
+		int length;
+		try {
+			length = in.readInt();
+		} catch (EOFException e) {
+			return null;
+		}
+		if (length < 0 || length > maxLength)
+			throw new ProtocolException("Bad request length " + length + ", the maximum is " + maxLength);
+		byte[] frame = new byte[length];
+		in.readFully(frame);
+		return frame;
+	}
+
+	private static void writeFrame(DataOutputStream out, byte[] frame) throws IOException {
+		out.writeInt(frame.length);
+		out.write(frame);
+		out.flush();
+	}
+
+	/**
+	 * Client side of the protocol. One Client is one connection, over which any number of requests can be made.
+	 */
+	public static class Client implements Closeable {
+		private final Socket socket;
+		private final DataInputStream in;
+		private final DataOutputStream out;
+
+		public Client(String host, int port) throws IOException {
+			socket = new Socket(host, port);
+			in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		}
+
+		/**
+		 * Tags the input on the server.
+		 * @param options - MorphoPipe command line options, separated by spaces
+		 * @param input - the text, formatted as MorphoPipe would expect it on stdin
+		 * @return the output that MorphoPipe would write for this input
+		 * @throws IOException if the connection fails, or with the server's message if the request failed
+		 */
+		public String tag(String options, String input) throws IOException {
+			writeFrame(out, (options.replace('\n', ' ') + "\n" + input).getBytes(encoding));
+			byte[] frame = readFrame(in, Integer.MAX_VALUE);
+			if (frame == null)
+				throw new EOFException("Connection closed by the server");
+			String response = new String(frame, encoding);
+			int newline = response.indexOf('\n');
+			String status = (newline < 0) ? response : response.substring(0, newline);
+			if (!status.equals("OK"))
+				throw new IOException("Server: " + status);
+			return response.substring(newline + 1);
+		}
+
+		public void close() throws IOException {
+			socket.close();
+		}
+	}
+
+	/**
+	 * Command line client: sends stdin to a running server as a single request and prints the result.
+	 * Usage: MorphoServer [-host host] [-port port] [MorphoPipe options]
+	 */
+	public static void main(String[] args) throws Exception {
+		String host = "localhost";
+		int port = DEFAULT_PORT;
+		List<String> options = new ArrayList<String>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equalsIgnoreCase("-host") && i+1 < args.length) host = args[++i];
+			else if (args[i].equalsIgnoreCase("-port") && i+1 < args.length) port = Integer.parseInt(args[++i]);
+			else options.add(args[i]);
+		}
+		StringBuilder optionLine = new StringBuilder();
+		for (String option : options)
+			optionLine.append(option).append(' ');
+
+		Client client = new Client(host, port);
+		try {
+			PrintStream out = new PrintStream(System.out, false, encoding);
+			out.print(client.tag(optionLine.toString().trim(), new String(readAll(System.in), encoding)));
+			out.flush();
+		} finally {
+			client.close();
+		}
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		byte[] chunk = new byte[65536];
+		int n;
+		while ((n = in.read(chunk)) > 0)
+			buffer.write(chunk, 0, n);
+		return buffer.toByteArray();
+	}
+}
@@ -0,0 +1,177 @@
+package lv.lumii.morphotagger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+import edu.stanford.nlp.ie.ner.CMMClassifier;
+import edu.stanford.nlp.ling.CoreLabel;
+
+/**
+ * Reader -> workers -> writer pipeline for MorphoPipe.
+ * The reading thread submits jobs in input order; they are grouped in batches, and each batch is
+ * analyzed, tagged and formatted by one of the worker threads into its own buffer. A separate writer
+ * thread copies the buffers to the output strictly in submission order, so the output is the same
+ * as for a single-threaded run regardless of which batch finishes first.
+ * With a single thread the jobs are simply run in place on the caller's thread.
+ * <p>
+ * Tokenization and morphological analysis go through the one shared analyzer, which serves one
+ * thread at a time, so the workers only run the tagging itself (and the analysis of words found
+ * in the analysis cache) in parallel.
+ */
+public class TaggingPipeline {
+	/**
+	 * A unit of work - typically one line or sentence of the input - that writes its results to the given stream.
+	 */
+	public interface Job {
+		void run(CMMClassifier<CoreLabel> cmm, PrintStream out);
+	}
+
+	private static final int DEFAULT_BATCH_SIZE = 20;
+	private static final String encoding = "UTF8";
+
+	private final PrintStream out;
+	private final CMMClassifier<CoreLabel> cmm;
+	private final int batchSize;
+	private List<Job> batch;
+
+	private ExecutorService workers = null;
+	private BlockingQueue<Future<byte[]>> pending = null;
+	private Thread writer = null;
+	private volatile Throwable failure = null;
+	/** Marks the end of input for the writer thread */
+	private final Future<byte[]> endOfInput = new FutureTask<byte[]>(new Callable<byte[]>() {
+		public byte[] call() { return null; }
+	});
+
+	/**
+	 * Single-threaded pipeline - jobs are executed immediately when submitted.
+	 * @param cmm - the tagger
+	 * @param out - a stream to output the data
+	 */
+	public TaggingPipeline(CMMClassifier<CoreLabel> cmm, PrintStream out) {
+		this.out = out;
+		this.cmm = cmm;
+		this.batchSize = 1;
+	}
+
+	/**
+	 * Multi-threaded pipeline. All the workers share the same tagger model.
+	 * @param threads - number of worker threads
+	 * @param cmm - the tagger
+	 * @param out - a stream to output the data
+	 */
+	public TaggingPipeline(int threads, CMMClassifier<CoreLabel> cmm, PrintStream out) {
+		this.out = out;
+		this.cmm = cmm;
+		this.batchSize = DEFAULT_BATCH_SIZE;
+		this.batch = new ArrayList<Job>(batchSize);
+
+		workers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private int counter = 0;
+			public synchronized Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "tagger-" + (++counter));
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		// a few batches per worker are allowed to wait in the queue; after that the reader blocks until the writer catches up
+		pending = new ArrayBlockingQueue<Future<byte[]>>(threads * 4);
+		writer = new Thread(new Runnable() {
+			public void run() {
+				write();
+			}
+		}, "tagger-writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	public boolean isParallel() {
+		return workers != null;
+	}
+
+	/**
+	 * Adds a job at the end of the output.
+	 */
+	public void submit(Job job) throws InterruptedException {
+		if (!isParallel()) {
+			job.run(cmm, out);
+			return;
+		}
+		batch.add(job);
+		if (batch.size() >= batchSize)
+			flushBatch();
+	}
+
+	private void flushBatch() throws InterruptedException {
+		if (failure != null)
+			throw new RuntimeException("Error while tagging", failure);
+		if (batch.isEmpty()) return;
+		final List<Job> jobs = batch;
+		batch = new ArrayList<Job>(batchSize);
+		pending.put(workers.submit(new Callable<byte[]>() {
+			public byte[] call() throws UnsupportedEncodingException {
+				ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+				PrintStream bufferStream = new PrintStream(buffer, false, encoding);
+				for (Job job : jobs)
+					job.run(cmm, bufferStream);
+				bufferStream.flush();
+				return buffer.toByteArray();
+			}
+		}));
+	}
+
+	/**
+	 * Writer stage: outputs the finished batches in the order they were submitted.
+	 * After a failure the remaining batches are still taken off the queue so that the reader does not get stuck.
+	 */
+	private void write() {
+		try {
+			while (true) {
+				Future<byte[]> result = pending.take();
+				if (result == endOfInput) break;
+				if (failure != null) continue;
+				try {
+					out.write(result.get());
+					out.flush();
+				} catch (ExecutionException e) {
+					failure = e.getCause();
+				} catch (Exception e) {
+					failure = e;
+				}
+			}
+		} catch (InterruptedException e) {
+			failure = e;
+		}
+	}
+
+	/**
+	 * Processes all the remaining jobs and waits until their output is written.
+	 * Should be called also when the reading fails, so that the writer thread and the workers stop;
+	 * a failure of any job is rethrown here.
+	 */
+	public void close() throws InterruptedException {
+		if (!isParallel()) return;
+		try {
+			flushBatch();
+		} finally {
+			// the writer keeps taking batches off the queue even after a failure, so this can not block for good
+			pending.put(endOfInput);
+			writer.join();
+			workers.shutdown();
+		}
+		if (failure != null)
+			throw new RuntimeException("Error while tagging", failure);
+	}
+}
@@ -24,6 +24,8 @@ import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import edu.stanford.nlp.ie.AbstractSequenceClassifier;
 import edu.stanford.nlp.ie.ListNERSequenceClassifier;
@@ -65,6 +67,17 @@ public class NerPipe {
 		if (props.containsKey("regexList")) classifiers.add(new RegexNERSequenceClassifier(props.getProperty("regexList"), true, true));
 
 		classifier = new NERClassifierCombiner(classifiers);
+		if (props.containsKey("parallelClassifiers") && classifiers.size() > 1) {
+			// the first classifier runs on the calling thread, each of the others gets a thread of its own
+			classifier.setExecutor(Executors.newFixedThreadPool(classifiers.size() - 1, new ThreadFactory() {
+				private int counter = 0;
+				public synchronized Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "ner-classifier-" + (++counter));
+					t.setDaemon(true);
+					return t;
+				}
+			}));
+		}
 		defaultReaderWriter = new LVCoNLLDocumentReaderAndWriter();
 		defaultReaderWriter.init(classifier.flags);
 	}
@@ -200,6 +213,7 @@ public class NerPipe {
 			System.out.println("\nOther options:");
 			System.out.println("\t-saveExtraColumns : save extra columns after typical conll input (6 columns)");
 			System.out.println("\t-whiteList : files containing white list named entities (separated by comma)");
+			System.out.println("\t-parallelClassifiers : run the CRF, white list and regex classifiers of each document concurrently");
 			System.out.flush();
 			System.exit(0);
 		}
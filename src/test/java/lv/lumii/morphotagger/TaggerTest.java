@@ -18,10 +18,22 @@
 package lv.lumii.morphotagger;
 import static org.junit.Assert.*;
 
+import java.io.FilterReader;
+import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.StringReader;
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import lv.semti.morphology.analyzer.Word;
 import lv.semti.morphology.analyzer.Wordform;
@@ -31,10 +43,16 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 
 import edu.stanford.nlp.ie.ner.CMMClassifier;
+import edu.stanford.nlp.ling.ColumnarSentence;
+import edu.stanford.nlp.ling.CoreAnnotations.SpeakerAnnotation;
 import edu.stanford.nlp.ling.CoreLabel;
 import edu.stanford.nlp.ling.CoreAnnotations.AnswerAnnotation;
+import edu.stanford.nlp.ling.CoreAnnotations.IndexAnnotation;
 import edu.stanford.nlp.ling.CoreAnnotations.LVMorphologyAnalysis;
+import edu.stanford.nlp.ling.CoreAnnotations.LVMorphologyAnalysisBest;
 import edu.stanford.nlp.ling.CoreAnnotations.TextAnnotation;
+import edu.stanford.nlp.objectbank.BlankLineDocumentIterator;
+import edu.stanford.nlp.objectbank.DelimitRegExIterator;
 import edu.stanford.nlp.sequences.LVMorphologyReaderAndWriter;
 import org.w3c.dom.Attr;
 
@@ -311,4 +329,186 @@ public class TaggerTest {
         // parādījās neadekvāta lemma, neatbilstoša tam, ko analizators var uzminēt
         assertLemma(sentence, 1, "Saeima");
     }
+
+    private static String tags(List<CoreLabel> sentence) {
+        StringBuilder s = new StringBuilder();
+        for (CoreLabel word : sentence) {
+            s.append(word.getString(AnswerAnnotation.class));
+            s.append(' ');
+        }
+        return s.toString();
+    }
+
+    @Test
+    public void concurrentTagging() throws Exception {
+        // a single classifier shared by several threads must give the same tags as sequential tagging
+        final String[] sentences = {
+                "Mārtiņš Bondars ir dzimis 1971. gada 31. decembrī, Rīgā.",
+                "Es roku roku.",
+                "Viņš neko nespēja saprast.",
+                "Saeimas deputāti esot jauki.",
+                "Vārds Fords ir slikts.",
+                "Es esmu neizpratnē."};
+        final List<String> expected = new ArrayList<String>();
+        for (String sentence : sentences)
+            expected.add(tags(tag(sentence)));
+
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+        for (int task = 0; task < 64; task++) {
+            final int offset = task;
+            results.add(pool.submit(new Callable<Boolean>() {
+                public Boolean call() {
+                    for (int i = 0; i < 50; i++) {
+                        int n = (offset + i) % sentences.length;
+                        if (!expected.get(n).equals(tags(tag(sentences[n]))))
+                            return false;
+                    }
+                    return true;
+                }
+            }));
+        }
+        for (Future<Boolean> result : results)
+            assertTrue(result.get());
+        pool.shutdown();
+    }
+
+    @Test
+    public void compiledScoring() {
+        // the compiled integer features must choose the same tags as the String feature Datums
+        String[] sentences = {
+                "Mārtiņš Bondars ir dzimis 1971. gada 31. decembrī, Rīgā.",
+                "Es roku roku.",
+                "Saeimas deputāti esot jauki.",
+                "Man ir 8 gadi."};
+        try {
+            for (String sentence : sentences) {
+                cmm.flags.cmmStringScoring = true;
+                String expected = tags(tag(sentence));
+                cmm.flags.cmmStringScoring = false;
+                assertEquals(expected, tags(tag(sentence)));
+            }
+        } finally {
+            cmm.flags.cmmStringScoring = false;
+        }
+    }
+
+    @Test
+    public void analysisCache() {
+        // already split tokens go through the analysis cache, and every hit is a private copy of the cached analysis
+        LVMorphologyReaderAndWriter.setAnalysisCacheSize(1000);
+        try {
+            List<String> tokens = Arrays.asList("Es", "roku", "roku", ".");
+            List<CoreLabel> first = LVMorphologyReaderAndWriter.analyzeSentence(tokens);
+            assertEquals(3, LVMorphologyReaderAndWriter.getAnalysisCacheMisses()); // Es, roku, .
+            assertEquals(1, LVMorphologyReaderAndWriter.getAnalysisCacheHits()); // the second roku
+
+            List<CoreLabel> second = LVMorphologyReaderAndWriter.analyzeSentence(tokens);
+            assertEquals(3, LVMorphologyReaderAndWriter.getAnalysisCacheMisses());
+            assertEquals(5, LVMorphologyReaderAndWriter.getAnalysisCacheHits());
+
+            Word firstRoku = first.get(2).get(LVMorphologyAnalysis.class);
+            Word secondRoku = second.get(2).get(LVMorphologyAnalysis.class);
+            assertNotSame(firstRoku, secondRoku);
+            assertEquals(firstRoku.wordformsCount(), secondRoku.wordformsCount());
+            String expectedCase = second.get(2).get(LVMorphologyAnalysisBest.class).getValue(AttributeNames.i_Case);
+            assertNotNull(expectedCase);
+
+            // as MorphoPipe does for -mini-tag output
+            for (Wordform wf : secondRoku.wordforms)
+                wf.removeNonlexicalAttributes();
+            assertNull(second.get(2).get(LVMorphologyAnalysisBest.class).getValue(AttributeNames.i_Case));
+
+            List<CoreLabel> third = LVMorphologyReaderAndWriter.analyzeSentence(Arrays.asList("roku"));
+            assertEquals(expectedCase, third.get(1).get(LVMorphologyAnalysisBest.class).getValue(AttributeNames.i_Case));
+            assertEquals(firstRoku.wordformsCount(), third.get(1).get(LVMorphologyAnalysis.class).wordformsCount());
+
+            // the tokenizer analyzes the words of plain text itself, so it neither uses the cache nor counts in it
+            List<CoreLabel> tokenized = LVMorphologyReaderAndWriter.analyzeSentence("Es roku roku.");
+            assertEquals(expectedCase, tokenized.get(2).get(LVMorphologyAnalysisBest.class).getValue(AttributeNames.i_Case));
+            assertEquals(3, LVMorphologyReaderAndWriter.getAnalysisCacheMisses());
+            assertEquals(6, LVMorphologyReaderAndWriter.getAnalysisCacheHits());
+        } finally {
+            LVMorphologyReaderAndWriter.setAnalysisCacheSize(LVMorphologyReaderAndWriter.DEFAULT_CACHE_SIZE);
+        }
+    }
+
+    @Test
+    public void columnarTokens() {
+        // a columnar token reads, compares and prints like the CoreLabel it was copied from
+        List<CoreLabel> labels = new ArrayList<CoreLabel>();
+        String[] words = {"Es", "roku", "roku", "."};
+        for (int i = 0; i < words.length; i++) {
+            CoreLabel label = new CoreLabel();
+            label.setWord(words[i]);
+            label.setLemma(words[i].toLowerCase());
+            label.setIndex(i + 1);
+            labels.add(label);
+        }
+        labels.get(1).set(IndexAnnotation.class, null);
+        labels.get(2).set(SpeakerAnnotation.class, "A");
+        ColumnarSentence sentence = new ColumnarSentence(labels);
+        assertEquals(labels.size(), sentence.size());
+        for (int i = 0; i < labels.size(); i++) {
+            CoreLabel label = labels.get(i);
+            CoreLabel token = sentence.get(i);
+            assertEquals(label, token);
+            assertEquals(token, label);
+            assertEquals(label.hashCode(), token.hashCode());
+            assertEquals(label.toShorterString(), token.toShorterString());
+            assertEquals(label.toShorterString("Text", "Index"), token.toShorterString("Text", "Index"));
+        }
+        assertTrue(sentence.get(1).has(IndexAnnotation.class));
+        assertNull(sentence.get(1).get(IndexAnnotation.class));
+        sentence.get(1).setIndex(2);
+        assertEquals(Integer.valueOf(2), sentence.get(1).get(IndexAnnotation.class));
+        assertFalse(labels.get(1).equals(sentence.get(1)));
+    }
+
+    @Test
+    public void blankLineDocuments() throws IOException {
+        // the CoNLL readers' document splitter must split and cut fields as DelimitRegExIterator and String.split do
+        String[] pieces = {"a", "b\tc", "\t", "\t\t", " ", "\n", "\n", "\r", "\r\n", "\u000B", "\u0001", "word\tlemma\ttag"};
+        Random random = new Random(7);
+        for (int text = 0; text < 300; text++) {
+            StringBuilder sb = new StringBuilder();
+            int length = (text == 0) ? 40000 : random.nextInt(60);
+            for (int i = 0; i < length; i++)
+                sb.append(pieces[random.nextInt(pieces.length)]);
+            String s = sb.toString();
+
+            List<String> expected = new ArrayList<String>();
+            Iterator<String> regex = DelimitRegExIterator.defaultDelimitRegExIterator(new StringReader(s), "\n(?:\\s*\n)+");
+            while (regex.hasNext())
+                expected.add(regex.next());
+
+            final List<String> splitErrors = new ArrayList<String>();
+            Reader shortReads = new FilterReader(new StringReader(s)) {
+                @Override
+                public int read(char[] cbuf, int off, int len) throws IOException {
+                    return super.read(cbuf, off, Math.min(len, 3));
+                }
+            };
+            Iterator<String> documents = new BlankLineDocumentIterator<String>(shortReads, new BlankLineDocumentIterator.DocumentParser<String>() {
+                public String parse(BlankLineDocumentIterator.Lines lines) {
+                    StringBuilder document = new StringBuilder();
+                    for (int i = 0; i < lines.size(); i++) {
+                        String line = lines.line(i);
+                        if (!Arrays.equals(line.split("\t"), lines.split(i, false, false))
+                                || !Arrays.equals(line.trim().split("\t"), lines.split(i, true, false))
+                                || !Arrays.equals(line.split("\t+"), lines.split(i, false, true))
+                                || !Arrays.equals(line.trim().split("\t+"), lines.split(i, true, true)))
+                            splitErrors.add(line);
+                        document.append(i > 0 ? "\n" : "").append(line);
+                    }
+                    return document.toString();
+                }
+            });
+            List<String> actual = new ArrayList<String>();
+            while (documents.hasNext())
+                actual.add(documents.next());
+            assertEquals(expected, actual);
+            assertEquals(new ArrayList<String>(), splitErrors);
+        }
+    }
 }
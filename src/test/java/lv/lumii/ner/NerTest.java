@@ -19,15 +19,24 @@ package lv.lumii.ner;
 
 import static org.junit.Assert.assertEquals;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map.Entry;
 import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import lv.semti.morphology.analyzer.Splitting;
 import lv.semti.morphology.analyzer.Word;
@@ -37,7 +46,12 @@ import lv.semti.morphology.attributes.AttributeNames;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import edu.stanford.nlp.ie.AbstractSequenceClassifier;
+import edu.stanford.nlp.ie.ClassifierCombiner;
+import edu.stanford.nlp.ie.ListNERSequenceClassifier;
+import edu.stanford.nlp.ie.crf.CRFClassifier;
 import edu.stanford.nlp.ie.ner.CMMClassifier;
+import edu.stanford.nlp.ie.regexp.RegexNERSequenceClassifier;
 import edu.stanford.nlp.ling.CoreAnnotations.AnswerAnnotation;
 import edu.stanford.nlp.ling.CoreAnnotations.LVFullTagAnnotation;
 import edu.stanford.nlp.ling.CoreAnnotations.LVMorphologyAnalysis;
@@ -46,7 +60,10 @@ import edu.stanford.nlp.ling.CoreAnnotations.NamedEntityTagAnnotation;
 import edu.stanford.nlp.ling.CoreAnnotations.NamedEntityTagGoldAnnotation;
 import edu.stanford.nlp.ling.CoreAnnotations.TextAnnotation;
 import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.sequences.ExactBestSequenceFinder;
 import edu.stanford.nlp.sequences.LVMorphologyReaderAndWriter;
+import edu.stanford.nlp.sequences.SequenceModel;
+import edu.stanford.nlp.util.MappedStringIndex;
 
 
 
@@ -72,6 +89,229 @@ public class NerTest {
 		testAll(doc);
 	}
 	
+	@Test
+	public void floatWeights() throws Exception {
+		Properties props = new Properties();
+		props.load(NerTest.class.getClassLoader().getResourceAsStream(nerPropertiesFile));
+		props.setProperty("floatWeights", "true");
+		NerPipe floatNer = new NerPipe(props);
+		List<CoreLabel> doc = ner.classify("test/ner/sample_ner.conll");
+		List<CoreLabel> floatDoc = floatNer.classify("test/ner/sample_ner.conll");
+		assertEquals(doc.size(), floatDoc.size());
+		for (int i = 0; i < doc.size(); i++) {
+			CoreLabel w = doc.get(i);
+			CoreLabel floatW = floatDoc.get(i);
+			assertEquals("Float weights changed the label of " + w.word(), w.ner(), floatW.ner());
+			assertEquals("Float weights changed the answer of " + w.word(), w.get(AnswerAnnotation.class), floatW.get(AnswerAnnotation.class));
+		}
+	}
+	
+	/**
+	 * The list classifier labels quoted entries between the quotes only and applies overlapping entries by priority, then length.
+	 * The expected labels are those of the classifier before the lists were compiled to a trie.
+	 */
+	@Test
+	public void listMatches() throws IOException {
+		String list = listFile();
+		String text = "SIA \" Cirvis \" un Janis Berzins iela , rigas pils Riga";
+		String ner = "O O O O O O O O O O O O";
+		assertEquals("O O organization O O person person location O O O location",
+				labels(new ListNERSequenceClassifier(list, false, false, false), text, ner));
+		assertEquals("O O organization O O person person location O location location location",
+				labels(new ListNERSequenceClassifier(list, true, false, false), text, ner));
+	}
+
+	/**
+	 * The regex classifier applies the matches in the order of the entries' priorities, skips tokens whose
+	 * NER type is not overwritable, and matches literal and regex tokens alike.
+	 * The expected labels are those of the classifier before it matched all the entries in one pass.
+	 */
+	@Test
+	public void regexMatches() throws IOException {
+		String rules = rulesFile();
+		String text = "SIA Cirvis un SIA Nams , Rigas pils un Riga Riga 12 . riga sia";
+		String ner = "O O O O O O O O O O person O O O O";
+		assertEquals("organization organization O organization organization O building building O location person number number O O",
+				labels(new RegexNERSequenceClassifier(rules, false, false, null), text, ner));
+		assertEquals("organization organization O organization organization O building building O location person number number location O",
+				labels(new RegexNERSequenceClassifier(rules, true, false, null), text, ner));
+	}
+
+	/**
+	 * Running the base classifiers of a ClassifierCombiner on an executor gives the same labels as running them one after another.
+	 */
+	@Test
+	public void parallelCombiner() throws IOException {
+		List<AbstractSequenceClassifier<CoreLabel>> classifiers = new ArrayList<AbstractSequenceClassifier<CoreLabel>>();
+		classifiers.add(new ListNERSequenceClassifier(listFile(), false, false, false));
+		classifiers.add(new RegexNERSequenceClassifier(rulesFile(), true, false, null));
+		classifiers.add(new ListNERSequenceClassifier(listFile(), true, false, false));
+		ClassifierCombiner<CoreLabel> combiner = new ClassifierCombiner<CoreLabel>(classifiers);
+		String text = "SIA \" Cirvis \" un Janis Berzins iela , Rigas pils un Riga Riga 12 . SIA Nams sia";
+		String ner = "O O O O O O O O O O O O O person O O O O O";
+		String sequential = labels(combiner, text, ner);
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			combiner.setExecutor(executor);
+			for (int i = 0; i < 20; i++) {
+				assertEquals(sequential, labels(combiner, text, ner));
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * The features of a CRF get the same ids whatever the number of threads extracting them.
+	 */
+	@Test
+	public void featureIdsAcrossThreads() {
+		List<List<CoreLabel>> docs = randomDocuments(200, 1);
+		String expected = null;
+		for (String threads : new String[] {"1", "4", "8"}) {
+			Properties props = new Properties();
+			props.setProperty("useWord", "true");
+			props.setProperty("usePrev", "true");
+			props.setProperty("useNext", "true");
+			props.setProperty("useNGrams", "true");
+			props.setProperty("useClassFeature", "true");
+			props.setProperty("maxLeft", "1");
+			props.setProperty("maxIterations", "3");
+			props.setProperty("featureThreads", threads);
+			CRFClassifier<CoreLabel> crf = new CRFClassifier<CoreLabel>(props);
+			crf.train(docs);
+			String ids = Arrays.deepToString(crf.documentsToDataAndLabels(docs).first());
+			if (expected == null) {
+				expected = ids;
+			} else {
+				assertEquals("Feature ids with " + threads + " threads", expected, ids);
+			}
+		}
+	}
+
+	/**
+	 * The CRF decodes the best labels by max-product Viterbi over the window potentials; they
+	 * are the labels that the exact search over the calibrated clique tree finds.
+	 */
+	@Test
+	public void crfViterbi() {
+		Properties props = new Properties();
+		props.setProperty("useWord", "true");
+		props.setProperty("usePrev", "true");
+		props.setProperty("useNext", "true");
+		props.setProperty("useClassFeature", "true");
+		props.setProperty("maxLeft", "2");
+		props.setProperty("maxIterations", "30");
+		CRFClassifier<CoreLabel> crf = new CRFClassifier<CoreLabel>(props);
+		crf.train(randomDocuments(100, 1));
+		for (List<CoreLabel> doc : randomDocuments(50, 2)) {
+			SequenceModel model = crf.getSequenceModel(doc);
+			int[] best = new ExactBestSequenceFinder().bestSequence(model);
+			StringBuilder expected = new StringBuilder();
+			for (int i = 0; i < doc.size(); i++) {
+				expected.append(crf.classIndex.get(best[i + model.leftWindow()])).append(' ');
+			}
+			StringBuilder labels = new StringBuilder();
+			for (CoreLabel token : crf.classify(doc)) {
+				labels.append(token.get(AnswerAnnotation.class)).append(' ');
+			}
+			assertEquals(expected.toString(), labels.toString());
+		}
+	}
+
+	/**
+	 * MappedStringIndex.indexOf compares the characters of the key with the UTF-8 table without encoding
+	 * the key, so it has to find the strings with 2, 3 and 4 byte characters, and no prefixes or extensions.
+	 */
+	@Test
+	public void mappedStringIndex() throws IOException {
+		List<String> strings = Arrays.asList("Rīga", "rīga", "Ērglis", "Rīgas", "€", "a\uD834\uDD1Eb", "a", "ab", "", "ž");
+		List<String> sorted = new ArrayList<String>();
+		for (int i : MappedStringIndex.sortedOrder(strings)) {
+			sorted.add(strings.get(i));
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		MappedStringIndex.write(sorted, new DataOutputStream(bytes));
+		MappedStringIndex index = new MappedStringIndex(ByteBuffer.wrap(bytes.toByteArray()), true);
+		for (int i = 0; i < sorted.size(); i++) {
+			assertEquals(i, index.indexOf(sorted.get(i)));
+		}
+		for (String absent : Arrays.asList("Rīg", "Rīgass", "Riga", "a\uD834", "a\uD834\uDD1E", "a\uD834\uDD1Ebc", "€€", "ŽŽ")) {
+			assertEquals(-1, index.indexOf(absent));
+		}
+	}
+
+	/** Documents of 20 random words, labeled, with a number added to one word in five */
+	private static List<List<CoreLabel>> randomDocuments(int count, long seed) {
+		List<List<CoreLabel>> docs = new ArrayList<List<CoreLabel>>();
+		Random random = new Random(seed);
+		String[] words = "Janis Berzins strada Riga un Liepaja SIA Cirvis ir liels uznemums".split(" ");
+		String[] answers = "person person O location O location organization organization O O O".split(" ");
+		for (int d = 0; d < count; d++) {
+			List<CoreLabel> doc = new ArrayList<CoreLabel>();
+			for (int t = 0; t < 20; t++) {
+				int w = random.nextInt(words.length);
+				CoreLabel token = new CoreLabel();
+				token.setWord(words[w] + (random.nextInt(5) == 0 ? String.valueOf(d % 7) : ""));
+				token.set(AnswerAnnotation.class, answers[w]);
+				doc.add(token);
+			}
+			docs.add(doc);
+		}
+		return docs;
+	}
+
+	private static String listFile() throws IOException {
+		return tempFile("ner-list",
+				"organization\tSIA \" Cirvis \"\tO\t0",
+				"person\tJanis Berzins\tO\t0",
+				"location\tBerzins iela\tO\t1",
+				"location\tRiga",
+				"location\tRigas pils\tO\t0");
+	}
+
+	private static String rulesFile() throws IOException {
+		return tempFile("ner-regex",
+				"location\tRiga",
+				"building\tRig(a|as) pils\tO,location\t2",
+				"organization\tSIA [A-Z][a-z]+",
+				"company\tSIA Cirvis\tO,organization\t3",
+				"number\t[0-9]+ \\.");
+	}
+
+	private static String tempFile(String prefix, String... lines) throws IOException {
+		File file = File.createTempFile(prefix, ".txt");
+		file.deleteOnExit();
+		PrintWriter out = new PrintWriter(file, "UTF-8");
+		for (String line : lines) {
+			out.println(line);
+		}
+		out.close();
+		return file.getPath();
+	}
+
+	/** Classifies the space-separated words, with the given NER types, and returns the answers */
+	private static String labels(AbstractSequenceClassifier<CoreLabel> classifier, String text, String ner) {
+		List<CoreLabel> doc = new ArrayList<CoreLabel>();
+		String[] words = text.split(" ");
+		String[] types = ner.split(" ");
+		for (int i = 0; i < words.length; i++) {
+			CoreLabel w = new CoreLabel();
+			w.setWord(words[i]);
+			w.setLemma(words[i]);
+			w.set(NamedEntityTagAnnotation.class, types[i]);
+			w.set(AnswerAnnotation.class, types[i]);
+			doc.add(w);
+		}
+		doc = classifier.classify(doc);
+		StringBuilder labels = new StringBuilder();
+		for (CoreLabel w : doc) {
+			if (labels.length() > 0) labels.append(' ');
+			labels.append(w.get(AnswerAnnotation.class));
+		}
+		return labels.toString();
+	}
+	
 	@Test
 	public void VentspilsDomesPriekšēdētājs() {
 		String s = "Venstpils domes priekšēdētājs Lembergs";